@@ -0,0 +1,256 @@
+package es.bdh.lmassignment;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Synthetic data generator for the benchmarks.
+ *
+ * Every airport has flights to the next routesPerAirport airports, each route with flightsPerRoute
+ * flights of random airlines and base prices. The first airlines (fixedPriceShare of them) have a
+ * fixed price for infants. Days to departure rules split the first year in daysRules ranges, plus
+ * one for later departures. The same seed always generates the same data.
+ */
+class BenchmarkData {
+
+    static final int DEPARTURE_HORIZON = 400;
+
+    private final int airports;
+    private final int routesPerAirport;
+    private final int flightsPerRoute;
+    private final int airlines;
+    private final double fixedPriceShare;
+    private final int daysRules;
+    private final long seed;
+
+    /**
+     * Defines the data to generate
+     *
+     * @param airports Number of airports (at most 17576)
+     * @param routesPerAirport Number of destinations of each airport
+     * @param flightsPerRoute Number of flights of each route
+     * @param airlines Number of airlines (at most 676)
+     * @param fixedPriceShare Share of the airlines that have fixed prices (0 to 1)
+     * @param daysRules Number of 'days to departure' rules
+     */
+    public BenchmarkData(int airports, int routesPerAirport, int flightsPerRoute, int airlines,
+                         double fixedPriceShare, int daysRules) {
+        if(airports > 17576 || airlines > 676) { throw new IllegalArgumentException("Too many codes"); }
+        if(routesPerAirport >= airports) { throw new IllegalArgumentException("Too many routes per airport"); }
+        this.airports = airports;
+        this.routesPerAirport = routesPerAirport;
+        this.flightsPerRoute = flightsPerRoute;
+        this.airlines = airlines;
+        this.fixedPriceShare = fixedPriceShare;
+        this.daysRules = Math.max(daysRules, 1);
+        this.seed = 42;
+    }
+
+    /**
+     * @return Number of flights generated
+     */
+    public int flightCount() {
+        return airports * routesPerAirport * flightsPerRoute;
+    }
+
+    /**
+     * Creates a database with the generated airports, airlines and flights
+     *
+     * @return Database
+     */
+    public Database createDatabase() {
+        Database db = new Database();
+        try(Database.Batch batch = db.batch()) {
+            for(int i = 0; i < airlines; i++) {
+                batch.addAirline(airlineCode(i), "Airline " + i);
+                if(hasFixedPrice(i)) {
+                    batch.addPassengerTypeFixedPrice(airlineCode(i), PassengerType.INFANT, Money.fromCents(500 + i * 10));
+                }
+            }
+            for(int i = 0; i < airports; i++) {
+                batch.addAirport(airportCode(i), "Airport " + i);
+            }
+            Random random = new Random(seed);
+            int flight = 0;
+            for(int origin = 0; origin < airports; origin++) {
+                int originId = batch.airportId(airportCode(origin));
+                for(int r = 1; r <= routesPerAirport; r++) {
+                    int destId = batch.airportId(airportCode((origin + r) % airports));
+                    for(int f = 0; f < flightsPerRoute; f++) {
+                        int airline = random.nextInt(airlines);
+                        batch.addFlight(originId, destId, batch.airlineId(airlineCode(airline)),
+                                airlineCode(airline) + (flight++), basePrice(random));
+                    }
+                }
+            }
+            batch.commit();
+        }
+        return db;
+    }
+
+    /**
+     * Creates a sharded database with the same airports, airlines and flights as createDatabase
+     *
+     * @param shardCount Number of shards
+     * @return Sharded database
+     */
+    public ShardedDatabase createShardedDatabase(int shardCount) {
+        ShardedDatabase db = new ShardedDatabase(shardCount);
+        Database.Batch[] batches = new Database.Batch[shardCount];
+        for(int s = 0; s < shardCount; s++) {
+            batches[s] = db.shard(s).batch();
+        }
+        try {
+            for(Database.Batch batch : batches) {
+                for(int i = 0; i < airlines; i++) {
+                    batch.addAirline(airlineCode(i), "Airline " + i);
+                    if(hasFixedPrice(i)) {
+                        batch.addPassengerTypeFixedPrice(airlineCode(i), PassengerType.INFANT, Money.fromCents(500 + i * 10));
+                    }
+                }
+            }
+            for(int i = 0; i < airports; i++) {
+                batches[db.shardIndex(airportCode(i))].addAirport(airportCode(i), "Airport " + i);
+            }
+            Random random = new Random(seed);
+            int flight = 0;
+            for(int origin = 0; origin < airports; origin++) {
+                Database.Batch batch = batches[db.shardIndex(airportCode(origin))];
+                int originId = batch.airportId(airportCode(origin));
+                for(int r = 1; r <= routesPerAirport; r++) {
+                    int destId = batch.airportId(airportCode((origin + r) % airports));
+                    for(int f = 0; f < flightsPerRoute; f++) {
+                        int airline = random.nextInt(airlines);
+                        batch.addFlight(originId, destId, batch.airlineId(airlineCode(airline)),
+                                airlineCode(airline) + (flight++), basePrice(random));
+                    }
+                }
+            }
+            for(Database.Batch batch : batches) {
+                batch.commit();
+            }
+        } finally {
+            for(Database.Batch batch : batches) {
+                batch.close();
+            }
+        }
+        return db;
+    }
+
+    /**
+     * Creates a price service with the generated rules
+     *
+     * @return Price service
+     */
+    public PriceService createPriceService() {
+        PriceService priceService = new PriceService();
+        int rangeDays = Math.max(365 / daysRules, 1);
+        for(int i = 0; i < daysRules; i++) {
+            BigDecimal coefficient = BigDecimal.valueOf(150 - i * 70 / daysRules, 2);
+            priceService.addDaysToDepartureRule(i * rangeDays, (i + 1) * rangeDays - 1, coefficient);
+        }
+        priceService.addDaysToDepartureRule(daysRules * rangeDays, Integer.MAX_VALUE, new BigDecimal("0.80"));
+        priceService.addPassengerTypeRule(PassengerType.CHILD, new BigDecimal("0.67"));
+        return priceService;
+    }
+
+    /**
+     * Creates random searches: most of them on existing routes, some on routes without flights
+     *
+     * @param count Number of queries
+     * @param today Date used as today date
+     * @return Queries, departing from today to DEPARTURE_HORIZON days later
+     */
+    public List<SearchService.SearchQuery> createQueries(int count, Date today) {
+        Random random = new Random(seed + 1);
+        List<Collection<PassengersByType>> mixes = passengerMixes();
+        List<SearchService.SearchQuery> queries = new ArrayList<>(count);
+        Calendar calendar = Calendar.getInstance();
+        for(int i = 0; i < count; i++) {
+            int origin = random.nextInt(airports);
+            int dest = (random.nextInt(10) == 0) ? random.nextInt(airports) : (origin + 1 + random.nextInt(routesPerAirport)) % airports;
+            calendar.setTime(today);
+            calendar.add(Calendar.DAY_OF_MONTH, random.nextInt(DEPARTURE_HORIZON));
+            queries.add(new SearchService.SearchQuery(airportCode(origin), airportCode(dest), calendar.getTime(),
+                    mixes.get(random.nextInt(mixes.size()))));
+        }
+        return queries;
+    }
+
+    /**
+     * @return Usual passenger groups: one adult, a couple, families with children and infants
+     */
+    public List<Collection<PassengersByType>> passengerMixes() {
+        List<Collection<PassengersByType>> mixes = new ArrayList<>();
+        mixes.add(Collections.singletonList(new PassengersByType(PassengerType.ADULT, 1)));
+        mixes.add(Collections.singletonList(new PassengersByType(PassengerType.ADULT, 2)));
+        mixes.add(Arrays.asList(new PassengersByType(PassengerType.ADULT, 2), new PassengersByType(PassengerType.CHILD, 2)));
+        mixes.add(Arrays.asList(new PassengersByType(PassengerType.ADULT, 2), new PassengersByType(PassengerType.CHILD, 1),
+                new PassengersByType(PassengerType.INFANT, 1)));
+        return mixes;
+    }
+
+    /**
+     * Writes the generated data as CSV files for CsvLoader (airlines.csv, fixed.csv and flights.csv)
+     *
+     * @param dir Directory for the files
+     * @throws IOException If the files can't be written
+     */
+    public void writeCsv(Path dir) throws IOException {
+        try(BufferedWriter airlinesFile = Files.newBufferedWriter(dir.resolve("airlines.csv"), StandardCharsets.UTF_8);
+            BufferedWriter fixedFile = Files.newBufferedWriter(dir.resolve("fixed.csv"), StandardCharsets.UTF_8)) {
+            for(int i = 0; i < airlines; i++) {
+                airlinesFile.write(airlineCode(i) + ",Airline " + i + "\n");
+                if(hasFixedPrice(i)) { fixedFile.write(airlineCode(i) + ",INFANT," + Money.fromCents(500 + i * 10) + "\n"); }
+            }
+        }
+        Random random = new Random(seed);
+        try(BufferedWriter writer = Files.newBufferedWriter(dir.resolve("flights.csv"), StandardCharsets.UTF_8)) {
+            StringBuilder line = new StringBuilder();
+            int flight = 0;
+            for(int origin = 0; origin < airports; origin++) {
+                for(int r = 1; r <= routesPerAirport; r++) {
+                    String dest = airportCode((origin + r) % airports);
+                    for(int f = 0; f < flightsPerRoute; f++) {
+                        String airline = airlineCode(random.nextInt(airlines));
+                        line.setLength(0);
+                        line.append(airportCode(origin)).append(',').append(dest).append(',')
+                                .append(airline).append(flight++).append(',')
+                                .append(Money.fromCents(basePrice(random))).append('\n');
+                        writer.append(line);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param index Airport number
+     * @return Code of the airport (AAA, AAB...)
+     */
+    public static String airportCode(int index) {
+        return "" + (char) ('A' + index / 676) + (char) ('A' + index / 26 % 26) + (char) ('A' + index % 26);
+    }
+
+    /**
+     * @param index Airline number
+     * @return Code of the airline (AA, AB...)
+     */
+    public static String airlineCode(int index) {
+        return "" + (char) ('A' + index / 26) + (char) ('A' + index % 26);
+    }
+
+    private boolean hasFixedPrice(int airline) {
+        return airline < Math.round(airlines * fixedPriceShare);
+    }
+
+    // 50.00 to 499.99
+    private static long basePrice(Random random) {
+        return 5000 + random.nextInt(45000);
+    }
+}
@@ -0,0 +1,122 @@
+package es.bdh.lmassignment;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Route lookups in the Database, compared with the former string-keyed map of flight lists.
+ *
+ * The query mix has hits and misses, and it's built in advance so only the lookups are measured.
+ * Also measures applying small schedule deltas (base price changes by flight code).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseBenchmark {
+
+    private static final int QUERIES = 1024;
+    private static final int DELTA_FLIGHTS = 10;
+
+    @Param({"300"})
+    public int airports;
+
+    @Param({"10"})
+    public int routesPerAirport;
+
+    @Param({"5"})
+    public int flightsPerRoute;
+
+    private Database db;
+    private Map<String, List<Flight>> legacy;
+    private String[] origins;
+    private String[] dests;
+    private String[] flightCodes;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        BenchmarkData data = new BenchmarkData(airports, routesPerAirport, flightsPerRoute, 50, 0.5, 4);
+        db = data.createDatabase();
+
+        legacy = new HashMap<>();
+        for(int origin = 0; origin < airports; origin++) {
+            for(int r = 1; r <= routesPerAirport; r++) {
+                String originCode = BenchmarkData.airportCode(origin);
+                String destCode = BenchmarkData.airportCode((origin + r) % airports);
+                legacy.put(originCode + '-' + destCode, new LinkedList<>(db.getFlights(originCode, destCode)));
+            }
+        }
+
+        Random random = new Random(42);
+        origins = new String[QUERIES];
+        dests = new String[QUERIES];
+        for(int i = 0; i < QUERIES; i++) {
+            origins[i] = BenchmarkData.airportCode(random.nextInt(airports));
+            dests[i] = BenchmarkData.airportCode(random.nextInt(airports));
+        }
+        flightCodes = new String[QUERIES];
+        for(int i = 0; i < QUERIES; i++) {
+            flightCodes[i] = db.getFlightCode(random.nextInt(data.flightCount()));
+        }
+        db.updateBasePrice(flightCodes[0], Money.fromCents(10000)); // Builds the flight index
+    }
+
+    @Benchmark
+    public RouteTable getRoute() {
+        int q = next++ & (QUERIES - 1);
+        return db.getRoute(origins[q], dests[q]);
+    }
+
+    // Creates the Flight objects, as callers of getFlights do when they iterate them
+    @Benchmark
+    public void getFlights(Blackhole blackhole) {
+        int q = next++ & (QUERIES - 1);
+        for(Flight flight : db.getFlights(origins[q], dests[q])) {
+            blackhole.consume(flight);
+        }
+    }
+
+    // Departures board: the flights of all the routes from an airport, through the schedule index
+    @Benchmark
+    public void getDepartures(Blackhole blackhole) {
+        int q = next++ & (QUERIES - 1);
+        for(String destCode : db.getDestinations(origins[q])) {
+            blackhole.consume(db.getRoute(origins[q], destCode));
+        }
+    }
+
+    // Departures board scanning all the routes, as it was done without the index
+    @Benchmark
+    public void scanDepartures(Blackhole blackhole) {
+        int q = next++ & (QUERIES - 1);
+        String prefix = origins[q] + '-';
+        for(Map.Entry<String, List<Flight>> route : legacy.entrySet()) {
+            if(route.getKey().startsWith(prefix)) { blackhole.consume(route.getValue()); }
+        }
+    }
+
+    // Publishes a snapshot with the base prices of some flights changed
+    @Benchmark
+    public Database.Snapshot applyDelta() {
+        try(Database.Batch batch = db.batch()) {
+            for(int i = 0; i < DELTA_FLIGHTS; i++) {
+                int q = next++ & (QUERIES - 1);
+                batch.updateBasePrice(flightCodes[q], Money.fromCents(5000 + q));
+            }
+            batch.commit();
+        }
+        return db.snapshot();
+    }
+
+    @Benchmark
+    public List<Flight> legacyMap() {
+        int q = next++ & (QUERIES - 1);
+        return legacy.get(origins[q] + '-' + dests[q]);
+    }
+}
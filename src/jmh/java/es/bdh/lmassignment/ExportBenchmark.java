@@ -0,0 +1,64 @@
+package es.bdh.lmassignment;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports the prices of the whole generated network with PriceExporter, in both formats.
+ *
+ * The standard passenger mixes for a month of days to departure: 300 * 20 * 10 flights, 150 prices
+ * each, 9 million prices.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ExportBenchmark {
+
+    private static final int DAYS = 30;
+
+    @Param({"300"})
+    public int airports;
+
+    @Param({"20"})
+    public int routesPerAirport;
+
+    @Param({"10"})
+    public int flightsPerRoute;
+
+    private Database db;
+    private PriceExporter exporter;
+    private Path dir;
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkData data = new BenchmarkData(airports, routesPerAirport, flightsPerRoute, 100, 0.5, 4);
+        db = data.createDatabase();
+        exporter = new PriceExporter(data.createPriceService(), 0, DAYS, PriceExporter.STANDARD_MIXES);
+        dir = Files.createTempDirectory("lmassignment");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for(String file : new String[] {"prices.csv", "prices.bin"}) {
+            Files.deleteIfExists(dir.resolve(file));
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public PriceExporter.Report csv() throws IOException {
+        return exporter.export(db, dir.resolve("prices.csv"), PriceExporter.Format.CSV);
+    }
+
+    @Benchmark
+    public PriceExporter.Report binary() throws IOException {
+        return exporter.export(db, dir.resolve("prices.bin"), PriceExporter.Format.BINARY);
+    }
+}
@@ -0,0 +1,89 @@
+package es.bdh.lmassignment;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the generated data: CSV files with CsvLoader, the same files line by line through the
+ * public Database API, and a snapshot file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoadBenchmark {
+
+    @Param({"300"})
+    public int airports;
+
+    @Param({"20"})
+    public int routesPerAirport;
+
+    @Param({"100"})
+    public int flightsPerRoute;
+
+    private Path dir;
+    private Path snapshot;
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkData data = new BenchmarkData(airports, routesPerAirport, flightsPerRoute, 100, 0.5, 4);
+        dir = Files.createTempDirectory("lmassignment");
+        data.writeCsv(dir);
+        snapshot = dir.resolve("db.snapshot");
+        data.createDatabase().writeSnapshot(snapshot);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for(String file : new String[] {"airlines.csv", "fixed.csv", "flights.csv", "db.snapshot"}) {
+            Files.deleteIfExists(dir.resolve(file));
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public Database csvLoader() throws IOException {
+        Database db = new Database();
+        try(Database.Batch batch = db.batch()) {
+            CsvLoader loader = new CsvLoader(batch);
+            loader.loadAirlines(dir.resolve("airlines.csv"));
+            loader.loadFixedPrices(dir.resolve("fixed.csv"));
+            loader.loadFlights(dir.resolve("flights.csv"));
+            batch.commit();
+        }
+        return db;
+    }
+
+    @Benchmark
+    public Database readLines() throws IOException {
+        Database db = new Database();
+        try(Database.Batch batch = db.batch()) {
+            new CsvLoader(batch).loadAirlines(dir.resolve("airlines.csv"));
+            try(BufferedReader reader = Files.newBufferedReader(dir.resolve("flights.csv"), StandardCharsets.UTF_8)) {
+                String line;
+                while((line = reader.readLine()) != null) {
+                    String[] fields = line.split(",");
+                    batch.addFlight(fields[0], fields[1], fields[2], new BigDecimal(fields[3]));
+                }
+            }
+            batch.commit();
+        }
+        return db;
+    }
+
+    // Includes reading a route, as a node would do with its first search
+    @Benchmark
+    public RouteTable openSnapshot() throws IOException {
+        return Database.openSnapshot(snapshot).getRoute(BenchmarkData.airportCode(0), BenchmarkData.airportCode(1));
+    }
+}
@@ -0,0 +1,76 @@
+package es.bdh.lmassignment;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searches on routes of growing size, priced sequentially and in parallel with pools of a number of
+ * threads, to find the route size where parallel pricing starts to pay off.
+ *
+ * The parallel service has a threshold of 2 flights, so even the smallest routes are split and
+ * pay the whole overhead. The first route size where parallel is faster than sequential, for the
+ * threads of the pool to be used, is the threshold to give to SearchService.setParallelPricing.
+ * Results depend on the number of cores: run it on the target hardware, with up to as many threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelPricingBenchmark {
+
+    private static final int QUERIES = 64;
+
+    @Param({"64", "256", "1024", "4096", "16384", "65536"})
+    public int flightsPerRoute;
+
+    @Param({"2", "4", "8"})
+    public int threads;
+
+    private SearchService sequential;
+    private SearchService parallel;
+    private ForkJoinPool pool;
+    private Date today;
+    private SearchService.SearchQuery[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        // Few routes, so all of them are big
+        BenchmarkData data = new BenchmarkData(8, 2, flightsPerRoute, 100, 0.5, 4);
+        Database db = data.createDatabase();
+        PriceService priceService = data.createPriceService();
+        sequential = new SearchService(db, priceService);
+        parallel = new SearchService(db, priceService);
+        pool = new ForkJoinPool(threads);
+        parallel.setParallelPricing(pool, 2);
+        today = new Date();
+        List<SearchService.SearchQuery> generated = data.createQueries(QUERIES, today);
+        queries = generated.toArray(new SearchService.SearchQuery[QUERIES]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Collection<SearchService.SearchResult> sequential() {
+        SearchService.SearchQuery query = queries[next++ & (QUERIES - 1)];
+        return sequential.search(query.getOriginCode(), query.getDestCode(), today, query.getDeparture(),
+                query.getPassengers());
+    }
+
+    @Benchmark
+    public Collection<SearchService.SearchResult> parallel() {
+        SearchService.SearchQuery query = queries[next++ & (QUERIES - 1)];
+        return parallel.search(query.getOriginCode(), query.getDestCode(), today, query.getDeparture(),
+                query.getPassengers());
+    }
+}
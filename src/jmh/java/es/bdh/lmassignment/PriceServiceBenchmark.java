@@ -0,0 +1,87 @@
+package es.bdh.lmassignment;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prices a flight in isolation, with each of the ways PriceService offers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PriceServiceBenchmark {
+
+    private static final int INPUTS = 1024;
+
+    @Param({"4", "64"})
+    public int daysRules;
+
+    private PriceService priceService;
+    private long[] basePrices;
+    private BigDecimal[] basePricesBig;
+    private int[] days;
+    private Collection<PassengersByType> passengers;
+    private Map<PassengerType, BigDecimal> fixedPrices;
+    private long[] fixedPriceCents;
+    private FixedPriceTable fixedPriceTable;
+    private PriceService.PricingContext context;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        BenchmarkData data = new BenchmarkData(2, 1, 1, 1, 1, daysRules);
+        priceService = data.createPriceService();
+        List<Collection<PassengersByType>> mixes = data.passengerMixes();
+        passengers = mixes.get(mixes.size() - 1); // Adults, children and infants
+        Database db = data.createDatabase();
+        Airline airline = db.getAirline(0);
+        fixedPriceTable = db.snapshot().getFixedPrices();
+        fixedPrices = airline.getFixedPricesByPassengerType();
+        fixedPriceCents = airline.getFixedPriceCents();
+        context = priceService.createContext(10, passengers);
+
+        Random random = new Random(42);
+        basePrices = new long[INPUTS];
+        basePricesBig = new BigDecimal[INPUTS];
+        days = new int[INPUTS];
+        for(int i = 0; i < INPUTS; i++) {
+            basePrices[i] = 5000 + random.nextInt(45000);
+            basePricesBig[i] = Money.fromCents(basePrices[i]);
+            days[i] = random.nextInt(BenchmarkData.DEPARTURE_HORIZON);
+        }
+    }
+
+    @Benchmark
+    public BigDecimal calculatePrice() {
+        int i = next++ & (INPUTS - 1);
+        return priceService.calculatePrice(basePricesBig[i], fixedPrices, days[i], passengers);
+    }
+
+    @Benchmark
+    public long calculatePriceCents() {
+        int i = next++ & (INPUTS - 1);
+        return priceService.calculatePriceCents(basePrices[i], fixedPriceCents, days[i], passengers);
+    }
+
+    // Same context for all prices, reading the fixed prices from the snapshot table as searches do
+    @Benchmark
+    public BigDecimal pricingContext() {
+        int i = next++ & (INPUTS - 1);
+        return context.price(basePrices[i], 0, fixedPriceTable);
+    }
+
+    @Benchmark
+    public PriceService.PricingContext createContext() {
+        int i = next++ & (INPUTS - 1);
+        return priceService.createContext(days[i], passengers);
+    }
+}
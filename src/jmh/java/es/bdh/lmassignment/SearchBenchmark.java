@@ -0,0 +1,156 @@
+package es.bdh.lmassignment;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searches on generated data: single searches, a loop of searches and the same queries in a batch
+ * or asynchronously, and cheapest destinations from an airport.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    private static final int QUERIES = 1024;
+    private static final int BATCH_SIZE = 64;
+    private static final int LIMIT = 10;
+
+    @Param({"300"})
+    public int airports;
+
+    @Param({"20"})
+    public int routesPerAirport;
+
+    @Param({"5", "50", "500"})
+    public int flightsPerRoute;
+
+    @Param({"100"})
+    public int airlines;
+
+    @Param({"0.5"})
+    public double fixedPriceShare;
+
+    @Param({"4"})
+    public int daysRules;
+
+    private Database db;
+    private SearchService searchService;
+    private SearchService cachedSearchService;
+    private SearchService measuredSearchService;
+    private Date today;
+    private SearchService.SearchQuery[] queries;
+    private List<SearchService.SearchQuery> batch;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        BenchmarkData data = new BenchmarkData(airports, routesPerAirport, flightsPerRoute, airlines, fixedPriceShare, daysRules);
+        db = data.createDatabase();
+        PriceService priceService = data.createPriceService();
+        searchService = new SearchService(db, priceService);
+        cachedSearchService = new SearchService(db, priceService);
+        cachedSearchService.setCache(new SearchCache(2 * QUERIES, 1, TimeUnit.MINUTES));
+        measuredSearchService = new SearchService(db, priceService);
+        measuredSearchService.setMetrics(new SearchMetrics());
+        today = new Date();
+        List<SearchService.SearchQuery> generated = data.createQueries(QUERIES, today);
+        queries = generated.toArray(new SearchService.SearchQuery[QUERIES]);
+        batch = generated.subList(0, BATCH_SIZE);
+    }
+
+    @Benchmark
+    public Collection<SearchService.SearchResult> search() {
+        SearchService.SearchQuery query = queries[next++ & (QUERIES - 1)];
+        return searchService.search(query.getOriginCode(), query.getDestCode(), today, query.getDeparture(),
+                query.getPassengers());
+    }
+
+    // Same queries repeated, all of them fit in the cache
+    @Benchmark
+    public Collection<SearchService.SearchResult> searchCached() {
+        SearchService.SearchQuery query = queries[next++ & (QUERIES - 1)];
+        return cachedSearchService.search(query.getOriginCode(), query.getDestCode(), today, query.getDeparture(),
+                query.getPassengers());
+    }
+
+    // Cost of recording metrics, compare with search
+    @Benchmark
+    public Collection<SearchService.SearchResult> searchWithMetrics() {
+        SearchService.SearchQuery query = queries[next++ & (QUERIES - 1)];
+        return measuredSearchService.search(query.getOriginCode(), query.getDestCode(), today, query.getDeparture(),
+                query.getPassengers());
+    }
+
+    // First results page, as the UI shows it
+    @Benchmark
+    public List<SearchService.SearchResult> searchCheapest() {
+        SearchService.SearchQuery query = queries[next++ & (QUERIES - 1)];
+        return searchService.searchCheapest(query.getOriginCode(), query.getDestCode(), today, query.getDeparture(),
+                query.getPassengers(), LIMIT);
+    }
+
+    // Itineraries with up to two stops
+    @Benchmark
+    public List<Itinerary> searchConnections() {
+        SearchService.SearchQuery query = queries[next++ & (QUERIES - 1)];
+        return searchService.searchConnections(query.getOriginCode(), query.getDestCode(), today, query.getDeparture(),
+                query.getPassengers(), SearchService.MAX_STOPS, null, LIMIT);
+    }
+
+    // Cheapest destinations from the origin of the query
+    @Benchmark
+    public List<Itinerary> searchAnywhere() {
+        SearchService.SearchQuery query = queries[next++ & (QUERIES - 1)];
+        return searchService.searchAnywhere(query.getOriginCode(), today, query.getDeparture(), query.getPassengers(), LIMIT);
+    }
+
+    // Same as searchAnywhere with a cheapest flight search for each destination, as done without it
+    @Benchmark
+    public void searchAnywhereLoop(Blackhole blackhole) {
+        SearchService.SearchQuery query = queries[next++ & (QUERIES - 1)];
+        for(String destCode : db.getDestinations(query.getOriginCode())) {
+            blackhole.consume(searchService.searchCheapest(query.getOriginCode(), destCode, today, query.getDeparture(),
+                    query.getPassengers(), 1));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void searchLoop(Blackhole blackhole) {
+        for(SearchService.SearchQuery query : batch) {
+            blackhole.consume(searchService.search(query.getOriginCode(), query.getDestCode(), today,
+                    query.getDeparture(), query.getPassengers()));
+        }
+    }
+
+    // A burst of searches from one caller, waiting for all of them
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void searchAsync(Blackhole blackhole) {
+        List<CompletableFuture<Collection<SearchService.SearchResult>>> futures = new ArrayList<>(BATCH_SIZE);
+        for(SearchService.SearchQuery query : batch) {
+            futures.add(searchService.searchAsync(query.getOriginCode(), query.getDestCode(), today,
+                    query.getDeparture(), query.getPassengers()));
+        }
+        for(CompletableFuture<Collection<SearchService.SearchResult>> future : futures) {
+            blackhole.consume(future.join());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<Collection<SearchService.SearchResult>> searchBatch() {
+        return searchService.searchBatch(today, batch);
+    }
+}
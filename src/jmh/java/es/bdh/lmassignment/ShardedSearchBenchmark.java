@@ -0,0 +1,128 @@
+package es.bdh.lmassignment;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searches from a number of threads on a sharded database, alone and while another thread keeps
+ * publishing new flights of random origins.
+ *
+ * Each invocation splits QUERIES searches among the threads, so the throughput of each thread
+ * count shows how searches scale with cores (run it up to the number of cores of the machine).
+ * Compare shards = 1 with more shards to see the cost of the writes on readers, that only share
+ * snapshots with the shard being written.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardedSearchBenchmark {
+
+    private static final int QUERIES = 1024;
+    private static final int RELOAD_FLIGHTS = 10;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"1", "4", "16"})
+    public int shards;
+
+    @Param({"false", "true"})
+    public boolean reload;
+
+    @Param({"300"})
+    public int airports;
+
+    @Param({"20"})
+    public int routesPerAirport;
+
+    @Param({"50"})
+    public int flightsPerRoute;
+
+    private ShardedDatabase db;
+    private SearchService searchService;
+    private Date today;
+    private SearchService.SearchQuery[] queries;
+    private ExecutorService executor;
+    private Thread reloader;
+    private volatile boolean running;
+
+    @Setup
+    public void setUp() {
+        BenchmarkData data = new BenchmarkData(airports, routesPerAirport, flightsPerRoute, 100, 0.5, 4);
+        db = data.createShardedDatabase(shards);
+        searchService = new SearchService(db, data.createPriceService());
+        today = new Date();
+        queries = data.createQueries(QUERIES, today).toArray(new SearchService.SearchQuery[QUERIES]);
+        executor = Executors.newFixedThreadPool(threads);
+        if(reload) {
+            running = true;
+            reloader = new Thread(this::reload);
+            reloader.start();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        executor.shutdown();
+        if(reloader != null) {
+            running = false;
+            reloader.join();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int search() throws InterruptedException, ExecutionException {
+        List<Future<Integer>> slices = new ArrayList<>(threads);
+        for(int t = 0; t < threads; t++) {
+            int start = QUERIES * t / threads;
+            int end = QUERIES * (t + 1) / threads;
+            slices.add(executor.submit(() -> search(start, end)));
+        }
+        int results = 0;
+        for(Future<Integer> slice : slices) {
+            results += slice.get();
+        }
+        return results;
+    }
+
+    private int search(int start, int end) {
+        int results = 0;
+        for(int i = start; i < end; i++) {
+            SearchService.SearchQuery query = queries[i];
+            results += searchService.search(query.getOriginCode(), query.getDestCode(), today, query.getDeparture(),
+                    query.getPassengers()).size();
+        }
+        return results;
+    }
+
+    // Publishes batches of new flights from random origins, as a feed update would do
+    private void reload() {
+        Random random = new Random();
+        int next = 0;
+        while(running) {
+            int origin = random.nextInt(airports);
+            String originCode = BenchmarkData.airportCode(origin);
+            String destCode = BenchmarkData.airportCode((origin + 1 + random.nextInt(routesPerAirport)) % airports);
+            try(Database.Batch batch = db.shardFor(originCode).batch()) {
+                for(int i = 0; i < RELOAD_FLIGHTS; i++) {
+                    batch.addFlight(originCode, destCode, BenchmarkData.airlineCode(i) + "R" + (next++),
+                            Money.fromCents(1000 + random.nextInt(20000)));
+                }
+                batch.commit();
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package es.bdh.lmassignment;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -13,6 +14,8 @@ public class Airline {
     private final String code;
     private final String name;
     private final Map<PassengerType, BigDecimal> fixedPrices;
+    private final Map<PassengerType, BigDecimal> fixedPricesView;
+    private final long[] fixedPriceCents;
 
     /**
      * Creates a new airline
@@ -25,6 +28,22 @@ public class Airline {
         this.code = code;
         this.name = name;
         this.fixedPrices = new HashMap<>();
+        this.fixedPricesView = Collections.unmodifiableMap(fixedPrices);
+        this.fixedPriceCents = new long[PassengerType.values().length];
+        Arrays.fill(fixedPriceCents, PriceService.NO_FIXED_PRICE);
+    }
+
+    /**
+     * Creates a copy of an airline, to change it without affecting those who use the original
+     *
+     * @param other Airline to copy
+     */
+    Airline(Airline other) {
+        this.code = other.code;
+        this.name = other.name;
+        this.fixedPrices = new HashMap<>(other.fixedPrices);
+        this.fixedPricesView = Collections.unmodifiableMap(fixedPrices);
+        this.fixedPriceCents = other.fixedPriceCents.clone();
     }
 
     /**
@@ -47,19 +66,40 @@ public class Airline {
      * Sets a fixed price for a passenger type.
      *
      * When a customer buys a ticket for a passenger of this type, the price is not route-dependent, but fixed.
+     *
+     * Airlines of published snapshots are never modified: fixed prices are changed through a
+     * Database.Batch, that changes a copy of the airline.
      * @param type Passenger type
-     * @param price Fixed price
+     * @param price Fixed price. At most two decimals (cents).
      */
-    public void setFixedPriceByPassengerType(PassengerType type, BigDecimal price) {
+    void setFixedPriceByPassengerType(PassengerType type, BigDecimal price) {
+        fixedPriceCents[type.ordinal()] = Money.toCents(price);
         fixedPrices.put(type, price);
     }
 
+    /**
+     * Removes the fixed price of a passenger type, so the price rules apply to it again
+     * @param type Passenger type
+     */
+    void removeFixedPriceByPassengerType(PassengerType type) {
+        fixedPriceCents[type.ordinal()] = PriceService.NO_FIXED_PRICE;
+        fixedPrices.remove(type);
+    }
+
     /**
      * Retrieves a copy of those prices fixed for a passenger type
-     * @return Map of fixed prices indexed by passenger type. Not modifiable.
+     * @return Map of fixed prices indexed by passenger type. Not modifiable, and it's always the same view.
      */
     public Map<PassengerType, BigDecimal> getFixedPricesByPassengerType() {
-        return Collections.unmodifiableMap(fixedPrices);
+        return fixedPricesView;
+    }
+
+    /**
+     * Retrieves the fixed prices in the form used by PriceService
+     * @return Fixed prices in cents indexed by passenger type ordinal, NO_FIXED_PRICE if none. Must not be modified.
+     */
+    long[] getFixedPriceCents() {
+        return fixedPriceCents;
     }
 
 }
@@ -0,0 +1,85 @@
+package es.bdh.lmassignment;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks asynchronously on virtual threads, with a limit of tasks running at the same time.
+ *
+ * Each task gets its own virtual thread, that waits (cheaply) for a permit before running, so a
+ * burst of tasks doesn't exhaust a thread pool. Tasks over the limit wait in a queue of bounded
+ * size: when it's full, new tasks are rejected at once instead of piling up and delaying all the
+ * others.
+ */
+class BoundedExecutor {
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final AtomicInteger pending;
+    private final int maxPending;
+
+    /**
+     * Creates an executor
+     *
+     * @param maxConcurrency Maximum number of tasks running at the same time
+     * @param maxQueued Maximum number of tasks waiting for others to finish
+     */
+    public BoundedExecutor(int maxConcurrency, int maxQueued) {
+        if(maxConcurrency < 1) { throw new IllegalArgumentException("Concurrency must be at least 1"); }
+        if(maxQueued < 0) { throw new IllegalArgumentException("Queue size can't be negative"); }
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("search-", 0).factory());
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.pending = new AtomicInteger();
+        this.maxPending = maxConcurrency + maxQueued;
+    }
+
+    /**
+     * Runs a task when there is a free slot
+     *
+     * @param task Task to run
+     * @param <T> Result type
+     * @return Future with the result of the task. Failed with a RejectedExecutionException if the
+     *         queue is full, or with the exception thrown by the task.
+     */
+    public <T> CompletableFuture<T> submit(final Callable<T> task) {
+        if(pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Too many pending tasks"));
+        }
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> run(task, result));
+        } catch(RejectedExecutionException e) {
+            pending.decrementAndGet();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * @return Number of tasks running or waiting to run
+     */
+    public int pending() {
+        return pending.get();
+    }
+
+    private <T> void run(Callable<T> task, CompletableFuture<T> result) {
+        try {
+            permits.acquire();
+            try {
+                result.complete(task.call());
+            } finally {
+                permits.release();
+            }
+        } catch(Throwable e) {
+            result.completeExceptionally(e);
+        } finally {
+            pending.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package es.bdh.lmassignment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered sequential writes to a file channel, big-endian.
+ *
+ * Data is kept in a fixed buffer and written to the channel when it's full, so writing any amount
+ * of data takes the same memory.
+ */
+final class ChannelOutput {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private long flushed;
+
+    /**
+     * @param channel Channel to write to, from position 0
+     */
+    public ChannelOutput(FileChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * @return Position of the next byte to write
+     */
+    public long position() {
+        return flushed + buffer.position();
+    }
+
+    /**
+     * Moves to a position of the file, writing what was buffered first
+     *
+     * @param position Position of the next byte to write
+     * @throws IOException If the buffer can't be written
+     */
+    public void position(long position) throws IOException {
+        flush();
+        flushed = position;
+    }
+
+    /**
+     * Pads with zeros up to a multiple of 8, so the numbers that follow are aligned
+     *
+     * @return Position after the padding
+     * @throws IOException If the buffer can't be written
+     */
+    public long align() throws IOException {
+        while(position() % 8 != 0) {
+            putByte(0);
+        }
+        return position();
+    }
+
+    public void putByte(int value) throws IOException {
+        ensure(1);
+        buffer.put((byte) value);
+    }
+
+    public void putInt(int value) throws IOException {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    public void putLong(long value) throws IOException {
+        ensure(8);
+        buffer.putLong(value);
+    }
+
+    public void putBytes(byte[] bytes) throws IOException {
+        if(bytes.length <= buffer.capacity()) {
+            ensure(bytes.length);
+            buffer.put(bytes);
+        } else {
+            for(byte b : bytes) {
+                putByte(b);
+            }
+        }
+    }
+
+    /**
+     * Writes a string as its length and its UTF-8 bytes
+     *
+     * @param value String
+     * @throws IOException If the buffer can't be written
+     */
+    public void putString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        putBytes(bytes);
+    }
+
+    /**
+     * Writes everything buffered to the channel
+     *
+     * @throws IOException If the buffer can't be written
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            flushed += channel.write(buffer, flushed);
+        }
+        buffer.clear();
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if(buffer.remaining() < bytes) { flush(); }
+    }
+}
@@ -0,0 +1,83 @@
+package es.bdh.lmassignment;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns codes (IATA airport codes, airline codes...) into dense integer ids.
+ *
+ * Ids are assigned in insertion order starting at 0 and never change, so they can be used as
+ * array indexes or packed into primitive keys.
+ *
+ * Lookups are lock-free and can run concurrently with writers. Interning new codes is synchronized,
+ * so a table can be shared by databases with their own write locks (see ShardedDatabase).
+ */
+class CodeTable {
+
+    static final int NOT_FOUND = -1;
+
+    private final ConcurrentHashMap<String, Integer> ids;
+    private volatile String[] codes;
+    private int size;
+
+    public CodeTable() {
+        ids = new ConcurrentHashMap<>();
+        codes = new String[16];
+    }
+
+    /**
+     * Retrieves the id of a code, assigning a new one if it wasn't interned yet
+     *
+     * @param code Code to intern
+     * @return Id of the code
+     */
+    public int intern(String code) {
+        Integer id = ids.get(code);
+        return (id == null) ? add(code) : id;
+    }
+
+    private synchronized int add(String code) {
+        Integer id = ids.get(code);
+        if(id == null) {
+            id = size;
+            String[] current = codes;
+            if(id == current.length) {
+                current = Arrays.copyOf(current, id * 2);
+            }
+            current[id] = code;
+            codes = current;
+            size++;
+            // Published after the code, so any reader that finds the id can read the code
+            ids.put(code, id);
+        }
+        return id;
+    }
+
+    /**
+     * Retrieves the id of an already interned code
+     *
+     * @param code Code to look for
+     * @return Id of the code or NOT_FOUND if it was never interned
+     */
+    public int idOf(String code) {
+        Integer id = ids.get(code);
+        return (id == null) ? NOT_FOUND : id;
+    }
+
+    /**
+     * Retrieves the code for an id
+     *
+     * @param id Id returned by intern
+     * @return Interned code
+     */
+    public String codeOf(int id) {
+        return codes[id];
+    }
+
+    /**
+     * @return Number of interned codes
+     */
+    public int size() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,117 @@
+package es.bdh.lmassignment;
+
+import java.util.Arrays;
+
+/**
+ * Graph of the airports connected by routes with flights, to find itineraries with stops.
+ *
+ * Adjacency is stored in compressed arrays: the routes leaving each airport are a range of
+ * positions in a destinations array, and the routes arriving to it a range in an origins array,
+ * both sorted by airport id. Airports with no routes have empty ranges.
+ *
+ * It's immutable, built once for each Database snapshot (see Database.Snapshot.getConnections).
+ */
+class ConnectionIndex {
+
+    private final int[] outgoingStarts;
+    private final int[] destinations;
+    private final int[] incomingStarts;
+    private final int[] origins;
+
+    /**
+     * Builds the index of a set of routes
+     *
+     * @param routeKeys Keys of the routes ((long) originId << 32 | destId), sorted
+     * @param airportCount Number of airport ids
+     */
+    public ConnectionIndex(long[] routeKeys, int airportCount) {
+        int airports = airportCount;
+        for(long routeKey : routeKeys) {
+            airports = Math.max(airports, Math.max(origin(routeKey), destination(routeKey)) + 1);
+        }
+        outgoingStarts = new int[airports + 1];
+        incomingStarts = new int[airports + 1];
+        for(long routeKey : routeKeys) {
+            outgoingStarts[origin(routeKey) + 1]++;
+            incomingStarts[destination(routeKey) + 1]++;
+        }
+        for(int i = 0; i < airports; i++) {
+            outgoingStarts[i + 1] += outgoingStarts[i];
+            incomingStarts[i + 1] += incomingStarts[i];
+        }
+
+        // Keys are sorted by origin and then by destination, so both ranges end up sorted
+        destinations = new int[routeKeys.length];
+        origins = new int[routeKeys.length];
+        int[] incomingNext = Arrays.copyOf(incomingStarts, airports);
+        for(int i = 0; i < routeKeys.length; i++) {
+            destinations[i] = destination(routeKeys[i]);
+            origins[incomingNext[destination(routeKeys[i])]++] = origin(routeKeys[i]);
+        }
+    }
+
+    /**
+     * @param airportId Airport id
+     * @return First position of the routes leaving the airport
+     */
+    public int firstOutgoing(int airportId) {
+        return (airportId < 0 || airportId >= outgoingStarts.length - 1) ? 0 : outgoingStarts[airportId];
+    }
+
+    /**
+     * @param airportId Airport id
+     * @return Position after the last route leaving the airport
+     */
+    public int endOutgoing(int airportId) {
+        return (airportId < 0 || airportId >= outgoingStarts.length - 1) ? 0 : outgoingStarts[airportId + 1];
+    }
+
+    /**
+     * @param position Position of a route leaving an airport
+     * @return Id of the destination airport
+     */
+    public int destination(int position) {
+        return destinations[position];
+    }
+
+    /**
+     * @param airportId Airport id
+     * @return First position of the routes arriving to the airport
+     */
+    public int firstIncoming(int airportId) {
+        return (airportId < 0 || airportId >= incomingStarts.length - 1) ? 0 : incomingStarts[airportId];
+    }
+
+    /**
+     * @param airportId Airport id
+     * @return Position after the last route arriving to the airport
+     */
+    public int endIncoming(int airportId) {
+        return (airportId < 0 || airportId >= incomingStarts.length - 1) ? 0 : incomingStarts[airportId + 1];
+    }
+
+    /**
+     * @param position Position of a route arriving to an airport
+     * @return Id of the origin airport
+     */
+    public int origin(int position) {
+        return origins[position];
+    }
+
+    /**
+     * @param originId Id of the origin airport
+     * @param destId Id of the destination airport
+     * @return Whether there are flights between both airports
+     */
+    public boolean hasRoute(int originId, int destId) {
+        return Arrays.binarySearch(destinations, firstOutgoing(originId), endOutgoing(originId), destId) >= 0;
+    }
+
+    private static int origin(long routeKey) {
+        return (int) (routeKey >>> 32);
+    }
+
+    private static int destination(long routeKey) {
+        return (int) routeKey;
+    }
+}
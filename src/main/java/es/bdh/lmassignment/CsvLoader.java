@@ -0,0 +1,351 @@
+package es.bdh.lmassignment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bulk loader for CSV files, for big data sets (millions of flights).
+ *
+ * Files are read through a FileChannel into a reusable buffer and parsed in place: airport and
+ * airline codes are resolved to ids from their bytes, and prices are parsed directly to cents, so
+ * only the flight codes become Strings. Everything is added to a Database.Batch, which builds the
+ * route tables once, when it's committed.
+ *
+ * Files are UTF-8 (codes must be ASCII), one row per line, fields separated by commas. There is
+ * no header nor quoting, so fields can't contain commas. Empty lines are ignored. Rows that can't
+ * be parsed or added are rejected and reported, without stopping the load. Formats:
+ * - Airlines: code,name
+ * - Airports: code,name
+ * - Fixed prices: airlineCode,passengerType,price
+ * - Flights: originCode,destCode,flightCode,basePrice
+ */
+class CsvLoader {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_FIELDS = 4;
+    private static final int MAX_ERRORS = 100;
+
+    private enum Kind {
+        AIRLINES(2), AIRPORTS(2), FIXED_PRICES(3), FLIGHTS(4);
+
+        private final int fields;
+
+        Kind(int fields) {
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * Results of loading a file
+     */
+    static class Report {
+
+        private final Path file;
+        private long rows;
+        private long rejected;
+        private long nanos;
+        private final List<String> errors;
+
+        private Report(Path file) {
+            this.file = file;
+            this.errors = new ArrayList<>();
+        }
+
+        /**
+         * @return Loaded file
+         */
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * @return Number of rows read (not empty lines), including the rejected ones
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * @return Number of rows that couldn't be loaded
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * @return Time spent loading the file, in nanoseconds
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return Rows read per second
+         */
+        public double getRowsPerSecond() {
+            return (nanos == 0) ? 0 : rows * 1e9 / nanos;
+        }
+
+        /**
+         * @return Reasons why rows were rejected (with their line numbers), only the first ones
+         */
+        public List<String> getErrors() {
+            return Collections.unmodifiableList(errors);
+        }
+
+        private void reject(long line, String reason) {
+            rejected++;
+            if(errors.size() < MAX_ERRORS) { errors.add(String.format("Line %d: %s", line, reason)); }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d rows (%d rejected) in %d ms, %.0f rows/s",
+                    file, rows, rejected, nanos / 1000000, getRowsPerSecond());
+        }
+    }
+
+    private final Database.Batch batch;
+    private final ByteBuffer buffer;
+    private final int[] fieldStarts;
+    private final int[] fieldEnds;
+    // Ids by code bytes packed in a long
+    private final LongObjectMap<Integer> airportIds;
+    private LongObjectMap<Integer> airlineIds;
+
+    /**
+     * Creates a loader
+     *
+     * @param batch Batch where data is added. It's not committed by the loader.
+     */
+    public CsvLoader(Database.Batch batch) {
+        this.batch = batch;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.fieldStarts = new int[MAX_FIELDS];
+        this.fieldEnds = new int[MAX_FIELDS];
+        this.airportIds = new LongObjectMap<>();
+        this.airlineIds = new LongObjectMap<>();
+    }
+
+    /**
+     * Loads airlines (code,name)
+     *
+     * @param file CSV file
+     * @return Load results
+     * @throws IOException If the file can't be read
+     */
+    public Report loadAirlines(Path file) throws IOException {
+        Report report = load(file, Kind.AIRLINES);
+        airlineIds = new LongObjectMap<>(); // Airlines not found before may exist now
+        return report;
+    }
+
+    /**
+     * Loads airports (code,name)
+     *
+     * @param file CSV file
+     * @return Load results
+     * @throws IOException If the file can't be read
+     */
+    public Report loadAirports(Path file) throws IOException {
+        return load(file, Kind.AIRPORTS);
+    }
+
+    /**
+     * Loads fixed prices of airlines (airlineCode,passengerType,price)
+     *
+     * @param file CSV file
+     * @return Load results
+     * @throws IOException If the file can't be read
+     */
+    public Report loadFixedPrices(Path file) throws IOException {
+        return load(file, Kind.FIXED_PRICES);
+    }
+
+    /**
+     * Loads flights (originCode,destCode,flightCode,basePrice)
+     *
+     * @param file CSV file
+     * @return Load results
+     * @throws IOException If the file can't be read
+     */
+    public Report loadFlights(Path file) throws IOException {
+        return load(file, Kind.FLIGHTS);
+    }
+
+    private Report load(Path file, Kind kind) throws IOException {
+        Report report = new Report(file);
+        long start = System.nanoTime();
+        byte[] data = buffer.array();
+        buffer.clear();
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long line = 0;
+            int scanFrom = 0;
+            boolean skipping = false; // Inside a line longer than the buffer
+            boolean eof = false;
+            while(!eof) {
+                eof = channel.read(buffer) < 0;
+                int limit = buffer.position();
+                int lineStart = 0;
+                for(int i = scanFrom; i < limit; i++) {
+                    if(data[i] == '\n') {
+                        line++;
+                        if(!skipping) {
+                            row(data, lineStart, i, kind, line, report);
+                        }
+                        skipping = false;
+                        lineStart = i + 1;
+                    }
+                }
+                if(eof) {
+                    if(lineStart < limit && !skipping) { row(data, lineStart, limit, kind, ++line, report); }
+                } else if(lineStart == 0 && limit == data.length) {
+                    // No room left for the rest of the line: it's rejected
+                    if(!skipping) {
+                        report.rows++;
+                        report.reject(line + 1, "Line too long");
+                        skipping = true;
+                    }
+                    lineStart = limit;
+                }
+                // Keeps the incomplete line at the beginning of the buffer
+                System.arraycopy(data, lineStart, data, 0, limit - lineStart);
+                buffer.position(limit - lineStart);
+                scanFrom = limit - lineStart;
+            }
+        }
+        report.nanos = System.nanoTime() - start;
+        return report;
+    }
+
+    private void row(byte[] data, int start, int end, Kind kind, long line, Report report) {
+        if(end > start && data[end - 1] == '\r') { end--; }
+        if(end == start) { return; } // Empty line
+
+        report.rows++;
+        int fields = 0;
+        int fieldStart = start;
+        for(int i = start; i <= end; i++) {
+            if(i == end || data[i] == ',') {
+                if(fields == MAX_FIELDS) {
+                    fields++;
+                    break;
+                }
+                fieldStarts[fields] = fieldStart;
+                fieldEnds[fields] = i;
+                fields++;
+                fieldStart = i + 1;
+            }
+        }
+        if(fields != kind.fields) {
+            report.reject(line, String.format("Expected %d fields", kind.fields));
+            return;
+        }
+
+        try {
+            switch(kind) {
+                case AIRLINES:
+                    batch.addAirline(field(data, 0), field(data, 1));
+                    break;
+                case AIRPORTS:
+                    batch.addAirport(field(data, 0), field(data, 1));
+                    break;
+                case FIXED_PRICES:
+                    batch.addPassengerTypeFixedPrice(field(data, 0), PassengerType.valueOf(field(data, 1)),
+                            Money.fromCents(parseCents(data, 2)));
+                    break;
+                case FLIGHTS:
+                    int originId = airportId(data, 0);
+                    int destId = airportId(data, 1);
+                    if(fieldEnds[2] - fieldStarts[2] < 2) { throw new IllegalArgumentException("Invalid flight code"); }
+                    int airlineId = airlineId(data, fieldStarts[2]);
+                    long basePrice = parseCents(data, 3);
+                    batch.addFlight(originId, destId, airlineId, field(data, 2), basePrice);
+                    break;
+            }
+        } catch(IllegalArgumentException ex) {
+            report.reject(line, ex.getMessage());
+        }
+    }
+
+    private String field(byte[] data, int field) {
+        return new String(data, fieldStarts[field], fieldEnds[field] - fieldStarts[field], StandardCharsets.UTF_8);
+    }
+
+    private int airportId(byte[] data, int field) {
+        long key = packCode(data, fieldStarts[field], fieldEnds[field]);
+        Integer id = airportIds.get(key);
+        if(id == null) {
+            id = batch.airportId(field(data, field));
+            airportIds.put(key, id);
+        }
+        return id;
+    }
+
+    // Airline code are the first two characters of the flight code
+    private int airlineId(byte[] data, int start) {
+        long key = packCode(data, start, start + 2);
+        Integer id = airlineIds.get(key);
+        if(id == null) {
+            String code = new String(data, start, 2, StandardCharsets.UTF_8);
+            try {
+                id = batch.airlineId(code);
+            } catch(IllegalArgumentException ex) {
+                id = CodeTable.NOT_FOUND;
+            }
+            airlineIds.put(key, id);
+        }
+        if(id == CodeTable.NOT_FOUND) {
+            throw new IllegalArgumentException(String.format("Airline %s not found",
+                    new String(data, start, 2, StandardCharsets.UTF_8)));
+        }
+        return id;
+    }
+
+    // Codes of 1 to 8 ASCII characters fit in a non-negative long
+    private static long packCode(byte[] data, int start, int end) {
+        if(end - start < 1 || end - start > 8) { throw new IllegalArgumentException("Invalid code length"); }
+        long key = 0;
+        for(int i = start; i < end; i++) {
+            byte b = data[i];
+            if(b <= ' ') { throw new IllegalArgumentException("Invalid code"); } // Also non-ASCII (negative) bytes
+            key = (key << 8) | b;
+        }
+        return key;
+    }
+
+    // Parses [-]digits[.d[d]] as cents
+    private long parseCents(byte[] data, int field) {
+        int i = fieldStarts[field];
+        int end = fieldEnds[field];
+        boolean negative = i < end && data[i] == '-';
+        if(negative) { i++; }
+        long cents = 0;
+        int digits = 0;
+        int decimals = -1;
+        for(; i < end; i++) {
+            byte b = data[i];
+            if(b == '.' && decimals < 0) {
+                decimals = 0;
+            } else if(b >= '0' && b <= '9' && decimals < 2 && digits < 17) {
+                cents = cents * 10 + (b - '0');
+                digits++;
+                if(decimals >= 0) { decimals++; }
+            } else {
+                throw new IllegalArgumentException("Invalid price");
+            }
+        }
+        if(digits == 0) { throw new IllegalArgumentException("Invalid price"); }
+        for(int d = Math.max(decimals, 0); d < 2; d++) {
+            cents *= 10;
+        }
+        return negative ? -cents : cents;
+    }
+}
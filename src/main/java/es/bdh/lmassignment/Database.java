@@ -1,25 +1,763 @@
 package es.bdh.lmassignment;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
  * Persistence layer abstraction.
  *
  * Simple in-memory implementation suited only for the search flights use case.
  * All data in the system is created/added through this class methods.
+ *
+ * Flights are stored by route in columnar tables (see RouteTable).
+ *
+ * Readers work on immutable snapshots, published through a volatile reference, so they never take
+ * locks and they can run while data is being changed. Writers take turns (write lock), build the
+ * next snapshot copying only what they change, and publish it at once when they finish. Many
+ * changes can be grouped in a Batch to publish them together and to avoid copying for each one.
+ *
+ * The data can be saved to a binary snapshot file, and a database can be opened from it without
+ * loading the flights: routes and flight codes are read from the mapped file (see SnapshotFile),
+ * and the changes done afterwards are kept in memory on top of it.
+ *
+ * Schedule changes (flights added, removed or re-priced, fixed prices changed) are applied in
+ * place: flights are found by code (see FlightIndex) and only their routes are copied, while the
+ * rest of the routes are shared with the previous snapshot. Routes are kept in a persistent map
+ * (see LongTrieMap), so a commit copies the tables of the routes it changes and a few nodes of the
+ * map, whatever the number of routes. Each snapshot has a version, and each route table the
+ * version of the snapshot where it last changed (see RouteTable.version).
+ *
+ * Routes by origin and by destination airport and flights by airline are indexed too (see
+ * ScheduleIndex), for departures and arrivals boards or searches from an airport to anywhere.
+ * Commits update the index of the previous snapshot with the routes and flights they change.
  */
 class Database {
 
-    private final Map<String, Airline> airlines;
-    private final Map<String, String> airports;
-    private final Map<String, List<Flight>> flights;
+    /**
+     * Immutable state of the database at a point in time.
+     *
+     * Searches should get a snapshot once and do all their reads on it, to have a consistent view.
+     */
+    class Snapshot {
+
+        private final Airline[] airlines;
+        private final FixedPriceTable fixedPrices;
+        // Codes of the flights not in the file, starting at firstFlightId
+        private final String[] flightCodes;
+        private final int flightCount;
+        // Routes changed since the file was opened (all of them if there is no file)
+        private final LongTrieMap<RouteTable> routes;
+        private final SnapshotFile file;
+        private final int firstFlightId;
+        private final long version;
+        // Calculated when first needed
+        private volatile ConnectionIndex connections;
+        // Updated by commits, or calculated when first needed for the routes of a file
+        private volatile ScheduleIndex schedule;
+
+        private Snapshot(Airline[] airlines, FixedPriceTable fixedPrices, String[] flightCodes, int flightCount,
+                         LongTrieMap<RouteTable> routes, SnapshotFile file, long version, ScheduleIndex schedule) {
+            this.airlines = airlines;
+            this.fixedPrices = fixedPrices;
+            this.flightCodes = flightCodes;
+            this.flightCount = flightCount;
+            this.routes = routes;
+            this.file = file;
+            this.firstFlightId = (file == null) ? 0 : file.flightCount();
+            this.version = version;
+            this.schedule = schedule;
+        }
+
+        /**
+         * Retrieves the version of the snapshot. Each commit publishes a snapshot with a higher one,
+         * and the routes it changes get it as their version (see RouteTable.version).
+         *
+         * @return Version, 0 for the first one
+         */
+        public long version() {
+            return version;
+        }
+
+        /**
+         * Retrieves the flights for a specific route in columnar form
+         *
+         * @param originCode IATA code of the origin airport
+         * @param destCode IATA code of the destination airport
+         * @return Flights that match that route (no order guaranteed). Empty table if there are none.
+         */
+        public RouteTable getRoute(String originCode, String destCode) {
+            int originId = airportIds.idOf(originCode);
+            int destId = airportIds.idOf(destCode);
+            if(originId == CodeTable.NOT_FOUND || destId == CodeTable.NOT_FOUND) { return RouteTable.EMPTY; }
+            RouteTable route = route(routeKey(originId, destId));
+            return (route == null) ? RouteTable.EMPTY : route;
+        }
+
+        /**
+         * Retrieves an airline by the id used in route tables
+         *
+         * @param airlineId Airline id
+         * @return Airline
+         */
+        public Airline getAirline(int airlineId) {
+            return airlines[airlineId];
+        }
+
+        /**
+         * Retrieves a flight code by the id used in route tables
+         *
+         * @param flightId Flight id
+         * @return IATA code of the flight
+         */
+        public String getFlightCode(int flightId) {
+            if(flightId >= flightCount) { throw new IndexOutOfBoundsException("Flight not found: " + flightId); }
+            return (flightId < firstFlightId) ? file.flightCode(flightId) : flightCodes[flightId - firstFlightId];
+        }
+
+        /**
+         * Retrieves the fixed prices of all the airlines, by the airline ids used in route tables
+         *
+         * @return Fixed price table
+         */
+        public FixedPriceTable getFixedPrices() {
+            return fixedPrices;
+        }
+
+        /**
+         * Retrieves the lowest fixed price of all the airlines for each passenger type
+         *
+         * @return Fixed prices in cents indexed by passenger type ordinal, NO_FIXED_PRICE if no airline has one. Must not be modified.
+         */
+        public long[] getMinFixedPriceCents() {
+            return fixedPrices.getMinCents();
+        }
+
+        /**
+         * Retrieves the graph of airports connected by the routes of this snapshot, to search
+         * itineraries with stops. It's built the first time it's needed.
+         *
+         * @return Connection index, with the same airport ids as route keys
+         */
+        public ConnectionIndex getConnections() {
+            ConnectionIndex result = connections;
+            if(result == null) {
+                result = new ConnectionIndex(routeKeys(), airportIds.size());
+                connections = result;
+            }
+            return result;
+        }
+
+        /**
+         * Retrieves the indexes of routes by airport and flights by airline of this snapshot
+         *
+         * @return Schedule index, with the same airport ids as route keys and the same airline and
+         *         flight ids as route tables
+         */
+        public ScheduleIndex getSchedule() {
+            ScheduleIndex result = schedule;
+            if(result == null) {
+                result = ScheduleIndex.build(this);
+                schedule = result;
+            }
+            return result;
+        }
+
+        /**
+         * Retrieves the airports with flights from an airport
+         *
+         * @param originCode IATA code of the origin airport
+         * @return IATA codes of the destination airports (no order guaranteed). Empty if there are none.
+         */
+        public List<String> getDestinations(String originCode) {
+            int originId = airportIds.idOf(originCode);
+            if(originId == CodeTable.NOT_FOUND) { return Collections.emptyList(); }
+            return airportCodes(getSchedule().destinations(originId));
+        }
+
+        /**
+         * Retrieves the airports with flights to an airport
+         *
+         * @param destCode IATA code of the destination airport
+         * @return IATA codes of the origin airports (no order guaranteed). Empty if there are none.
+         */
+        public List<String> getOrigins(String destCode) {
+            int destId = airportIds.idOf(destCode);
+            if(destId == CodeTable.NOT_FOUND) { return Collections.emptyList(); }
+            return airportCodes(getSchedule().origins(destId));
+        }
+
+        /**
+         * Retrieves the flights of an airline
+         *
+         * @param airlineCode IATA code of the airline
+         * @return IATA codes of the flights (no order guaranteed). Empty if there are none.
+         */
+        public List<String> getAirlineFlights(String airlineCode) {
+            int airlineId = airlineIds.idOf(airlineCode);
+            if(airlineId == CodeTable.NOT_FOUND) { return Collections.emptyList(); }
+            final int[] flightIds = getSchedule().flights(airlineId);
+            return new AbstractList<String>() {
+                @Override
+                public String get(int index) {
+                    return getFlightCode(flightIds[index]);
+                }
+
+                @Override
+                public int size() {
+                    return flightIds.length;
+                }
+            };
+        }
+
+        // View of the codes of some airports
+        private List<String> airportCodes(final int[] airportIds) {
+            return new AbstractList<String>() {
+                @Override
+                public String get(int index) {
+                    return airportCode(airportIds[index]);
+                }
+
+                @Override
+                public int size() {
+                    return airportIds.length;
+                }
+            };
+        }
+
+        /**
+         * Retrieves the id of an airport
+         *
+         * @param code IATA code of the airport
+         * @return Airport id, CodeTable.NOT_FOUND if it's not known
+         */
+        int airportId(String code) {
+            return airportIds.idOf(code);
+        }
+
+        /**
+         * Retrieves a route by its key
+         *
+         * @param routeKey Route key (see routeKey)
+         * @return Route table, null if there is no such route
+         */
+        RouteTable route(long routeKey) {
+            RouteTable route = routes.get(routeKey);
+            if(route == null && file != null) { route = file.route(routeKey); }
+            return route;
+        }
+
+        /**
+         * @return Keys of all the routes with flights, sorted
+         */
+        long[] routeKeys() {
+            long[] keys = routes.keys();
+            if(file != null) {
+                long[] fileKeys = file.routeKeys();
+                keys = Arrays.copyOf(keys, keys.length + fileKeys.length);
+                System.arraycopy(fileKeys, 0, keys, keys.length - fileKeys.length, fileKeys.length);
+            }
+            Arrays.sort(keys);
+            // Routes changed after opening the file are also in the file, and routes whose flights
+            // were all removed are kept empty to hide them in the file
+            int size = 0;
+            for(int i = 0; i < keys.length; i++) {
+                if(size > 0 && keys[i] == keys[size - 1]) { continue; }
+                RouteTable changed = routes.get(keys[i]);
+                if(changed != null && changed.size() == 0) { continue; }
+                keys[size++] = keys[i];
+            }
+            return Arrays.copyOf(keys, size);
+        }
+
+        /**
+         * @return Number of flights, ids go from 0 to count - 1
+         */
+        int flightCount() {
+            return flightCount;
+        }
+
+        /**
+         * Retrieves an airline by its id, if it exists
+         *
+         * @param airlineId Airline id
+         * @return Airline, null if the id was registered but the airline wasn't added
+         */
+        Airline findAirline(int airlineId) {
+            return (airlineId < airlines.length) ? airlines[airlineId] : null;
+        }
+
+        // Codes and names are shared by all snapshots: they are only added, so a snapshot may see
+        // some that its routes don't use yet
+
+        int airportCount() {
+            return airportIds.size();
+        }
+
+        // Shared by the following snapshots until an airline changes, so identity tells whether one did
+        Airline[] airlines() {
+            return airlines;
+        }
+
+        String airportCode(int airportId) {
+            return airportIds.codeOf(airportId);
+        }
+
+        String airportName(String code) {
+            return airports.get(code);
+        }
+
+        int airlineCount() {
+            return airlineIds.size();
+        }
+
+        String airlineCode(int airlineId) {
+            return airlineIds.codeOf(airlineId);
+        }
+    }
+
+    /**
+     * Group of changes published at once.
+     *
+     * Creating a batch takes the write lock, so the batch must be used, committed and closed by the
+     * thread that creates it. Changes are not visible until commit, and they are discarded if the
+     * batch is closed without committing:
+     *
+     * <pre>
+     * try(Database.Batch batch = db.batch()) {
+     *     batch.addFlight(...);
+     *     batch.commit();
+     * }
+     * </pre>
+     */
+    class Batch implements AutoCloseable {
+
+        private final Snapshot base;
+        private final Map<String, String> airportNames;
+        private Airline[] airlines;
+        private boolean airlinesCopied;
+        private String[] flightCodes;
+        private int flightCount;
+        private final LongObjectMap<RouteTable.Builder> changedRoutes;
+        // Route keys of the flights added, from base.flightCount, and codes of those flights (when first needed)
+        private long[] addedRoutes;
+        private HashMap<String, int[]> addedCodes;
+        private final Set<Integer> removedFlights;
+        private boolean open;
+
+        private Batch(Snapshot base) {
+            this.base = base;
+            this.airportNames = new HashMap<>();
+            this.airlines = base.airlines;
+            this.flightCodes = base.flightCodes;
+            this.flightCount = base.flightCount;
+            this.changedRoutes = new LongObjectMap<>();
+            this.addedRoutes = new long[16];
+            this.removedFlights = new HashSet<>();
+            this.open = true;
+        }
+
+        /**
+         * Creates a new airline
+         *
+         * @param code IATA assigned code.
+         * @param name Descriptive name.
+         * @see Airline
+         */
+        public void addAirline(String code, String name) {
+            checkOpen();
+            if(code == null || name == null) { throw new IllegalArgumentException("All params are mandatory"); }
+            int id = airlineIds.intern(code);
+            copyAirlines(id + 1);
+            airlines[id] = new Airline(code, name);
+        }
+
+        /**
+         * Adds a new fixed price for an specific airline and passenger type
+         *
+         * @param airlineCode IATA code of the airline
+         * @param type Passenger type
+         * @param price Fixed price. At most two decimals (cents).
+         */
+        public void addPassengerTypeFixedPrice(String airlineCode, PassengerType type, BigDecimal price) {
+            checkOpen();
+            if(airlineCode == null || type == null || price == null) { throw new IllegalArgumentException("All params are mandatory"); }
+            int id = airlineId(airlineCode);
+            // Published airlines are never modified: the change is done on a copy
+            Airline airline = new Airline(airlines[id]);
+            airline.setFixedPriceByPassengerType(type, price);
+            copyAirlines(0);
+            airlines[id] = airline;
+        }
+
+        /**
+         * Removes the fixed price of an specific airline and passenger type, if it has one
+         *
+         * @param airlineCode IATA code of the airline
+         * @param type Passenger type
+         */
+        public void removePassengerTypeFixedPrice(String airlineCode, PassengerType type) {
+            checkOpen();
+            if(airlineCode == null || type == null) { throw new IllegalArgumentException("All params are mandatory"); }
+            int id = airlineId(airlineCode);
+            if(!airlines[id].getFixedPricesByPassengerType().containsKey(type)) { return; }
+            Airline airline = new Airline(airlines[id]);
+            airline.removeFixedPriceByPassengerType(type);
+            copyAirlines(0);
+            airlines[id] = airline;
+        }
+
+        /**
+         * Creates a new airport
+         *
+         * @param code IATA assigned code
+         * @param name Descriptive name
+         */
+        public void addAirport(String code, String name) {
+            checkOpen();
+            if(code == null || name == null) { throw new IllegalArgumentException("All params are mandatory"); }
+            airportNames.put(code, name);
+        }
+
+        /**
+         * Creates a new flight
+         *
+         * @param originCode IATA code of the origin airport
+         * @param destCode IATA code of the destination airport
+         * @param flightCode IATA code of the flight. Assumes AAN* (AA -> airline, N* -> rest of identifier)
+         * @param basePrice Base price for price rules. At most two decimals (cents).
+         */
+        public void addFlight(String originCode, String destCode, String flightCode, BigDecimal basePrice) {
+            checkOpen();
+            if(originCode == null || destCode == null || flightCode == null || basePrice == null) { throw new IllegalArgumentException("All params are mandatory"); }
+            // Flight creation
+            String airlineCode = flightCode.substring(0,2);
+            int airlineId = airlineId(airlineCode);
+            long basePriceCents = Money.toCents(basePrice);
+            addFlight(airportId(originCode), airportId(destCode), airlineId, flightCode, basePriceCents);
+        }
+
+        /**
+         * Creates a new flight from already resolved ids, for bulk loaders
+         *
+         * @param originId Id of the origin airport
+         * @param destId Id of the destination airport
+         * @param airlineId Id of the airline that operates the flight
+         * @param flightCode IATA code of the flight
+         * @param basePriceCents Base price for price rules, in cents
+         * @see #airportId(String)
+         * @see #airlineId(String)
+         */
+        void addFlight(int originId, int destId, int airlineId, String flightCode, long basePriceCents) {
+            checkOpen();
+            // Flight codes are append-only: positions after the published count are not seen by readers
+            int index = flightCount - base.firstFlightId;
+            if(index == flightCodes.length) {
+                flightCodes = Arrays.copyOf(flightCodes, Math.max(16, index * 2));
+            }
+            int flightId = flightCount++;
+            flightCodes[index] = flightCode;
+
+            // Add to route
+            long routeKey = routeKey(originId, destId); // unique identifier for route
+            routeBuilder(routeKey).add(flightId, airlineId, basePriceCents);
+
+            int added = flightId - base.flightCount;
+            if(added == addedRoutes.length) {
+                addedRoutes = Arrays.copyOf(addedRoutes, added * 2);
+            }
+            addedRoutes[added] = routeKey;
+            if(addedCodes != null) { FlightIndex.add(addedCodes, flightCode, flightId); }
+        }
+
+        /**
+         * Removes a flight
+         *
+         * @param flightCode IATA code of the flight. If some flights share it, the last one added is removed.
+         * @throws IllegalArgumentException if there is no flight with that code
+         */
+        public void removeFlight(String flightCode) {
+            checkOpen();
+            if(flightCode == null) { throw new IllegalArgumentException("Flight code is mandatory"); }
+            int flightId = flightId(flightCode);
+            RouteTable.Builder route = routeBuilder(routeOf(flightId));
+            route.remove(route.indexOf(flightId));
+            removedFlights.add(flightId);
+        }
+
+        /**
+         * Changes the base price of a flight
+         *
+         * @param flightCode IATA code of the flight. If some flights share it, the last one added is changed.
+         * @param basePrice Base price for price rules. At most two decimals (cents).
+         * @throws IllegalArgumentException if there is no flight with that code
+         */
+        public void updateBasePrice(String flightCode, BigDecimal basePrice) {
+            checkOpen();
+            if(flightCode == null || basePrice == null) { throw new IllegalArgumentException("All params are mandatory"); }
+            long basePriceCents = Money.toCents(basePrice);
+            int flightId = flightId(flightCode);
+            RouteTable.Builder route = routeBuilder(routeOf(flightId));
+            route.setBasePrice(route.indexOf(flightId), basePriceCents);
+        }
+
+        /**
+         * Checks whether a flight exists, including the changes of this batch
+         *
+         * @param flightCode IATA code of the flight
+         * @return Whether there is a flight with that code
+         */
+        public boolean containsFlight(String flightCode) {
+            checkOpen();
+            return findFlight(flightCode) != -1;
+        }
+
+        /**
+         * Publishes all the changes of the batch at once and closes it
+         */
+        public void commit() {
+            checkOpen();
+            for(String code : airportNames.keySet()) {
+                airportIds.intern(code);
+            }
+            airports.putAll(airportNames);
+
+            // Routes not changed are shared with the previous snapshot, and so is most of the map
+            long version = base.version + 1;
+            LongTrieMap<RouteTable> routes = base.routes;
+            // The schedule index is updated if the previous snapshot has it, else it's built when needed
+            ScheduleIndex schedule = base.schedule;
+            if(changedRoutes.size() > 0) {
+                LongTrieMap.Editor<RouteTable> changed = base.routes.edit();
+                ScheduleIndex.Changes scheduleChanges = new ScheduleIndex.Changes();
+                for(long routeKey : changedRoutes.keys()) {
+                    RouteTable route = changedRoutes.get(routeKey).build(version);
+                    if(schedule != null) { scheduleChanges(routeKey, base.route(routeKey), route, scheduleChanges); }
+                    changed.put(routeKey, route);
+                }
+                routes = changed.build();
+                if(schedule != null) { schedule = schedule.update(scheduleChanges); }
+            }
+            // The fixed price table is only rebuilt if an airline changed
+            FixedPriceTable fixedPrices = (airlines == base.airlines) ? base.fixedPrices : new FixedPriceTable(airlines);
+            snapshot = new Snapshot(airlines, fixedPrices, flightCodes, flightCount, routes, base.file, version, schedule);
+            if(published != null) { published.accept(snapshot); }
+
+            if(flightIndex != null) {
+                for(int flightId = base.flightCount; flightId < flightCount; flightId++) {
+                    flightIndex.add(flightCodes[flightId - base.firstFlightId], flightId, addedRoutes[flightId - base.flightCount]);
+                }
+                for(int flightId : removedFlights) {
+                    flightIndex.remove(snapshot.getFlightCode(flightId), flightId);
+                }
+            }
+            close();
+        }
+
+        /**
+         * Closes the batch, discarding the changes if it wasn't committed
+         */
+        @Override
+        public void close() {
+            if(open) {
+                open = false;
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * Retrieves the id of an airport, registering its code if it's not known yet
+         *
+         * @param code IATA code of the airport
+         * @return Airport id
+         */
+        int airportId(String code) {
+            checkOpen();
+            return airportIds.intern(code);
+        }
+
+        /**
+         * Retrieves the id of an airline, including those added in this batch
+         *
+         * @param airlineCode IATA code of the airline
+         * @return Airline id
+         * @throws IllegalArgumentException if the airline doesn't exist
+         */
+        int airlineId(String airlineCode) {
+            int id = airlineIds.idOf(airlineCode);
+            if(id == CodeTable.NOT_FOUND || id >= airlines.length || airlines[id] == null) {
+                throw new IllegalArgumentException(String.format("Airline %s not found", airlineCode));
+            }
+            return id;
+        }
+
+        // Builder of a route changed by this batch, copying the published table the first time
+        private RouteTable.Builder routeBuilder(long routeKey) {
+            RouteTable.Builder route = changedRoutes.get(routeKey);
+            if(route == null) {
+                RouteTable current = base.route(routeKey);
+                route = (current == null) ? new RouteTable.Builder() : new RouteTable.Builder(current);
+                changedRoutes.put(routeKey, route);
+            }
+            return route;
+        }
+
+        // Id of the last flight added with a code that is not removed, including this batch, -1 if there is none
+        private int findFlight(String flightCode) {
+            int flightId = -1;
+            // Flights added by this batch are the last ones
+            if(flightCount > base.flightCount) {
+                if(addedCodes == null) {
+                    addedCodes = new HashMap<>();
+                    for(int id = base.flightCount; id < flightCount; id++) {
+                        FlightIndex.add(addedCodes, flightCodes[id - base.firstFlightId], id);
+                    }
+                }
+                flightId = FlightIndex.find(addedCodes, flightCode, removedFlights);
+            }
+            if(flightId == -1) {
+                if(flightIndex == null) { flightIndex = new FlightIndex(base); }
+                flightId = flightIndex.find(flightCode, removedFlights);
+            }
+            return flightId;
+        }
+
+        private int flightId(String flightCode) {
+            int flightId = findFlight(flightCode);
+            if(flightId == -1) { throw new IllegalArgumentException(String.format("Flight %s not found", flightCode)); }
+            return flightId;
+        }
+
+        private long routeOf(int flightId) {
+            return (flightId >= base.flightCount) ? addedRoutes[flightId - base.flightCount] : flightIndex.route(flightId);
+        }
+
+        // Routes and flights of a changed route added and removed by this batch
+        private void scheduleChanges(long routeKey, RouteTable previous, RouteTable route, ScheduleIndex.Changes changes) {
+            boolean existed = previous != null && previous.size() > 0;
+            if(!existed && route.size() > 0) {
+                changes.addRoute(routeKey);
+            } else if(existed && route.size() == 0) {
+                changes.removeRoute(routeKey);
+            }
+            for(int i = 0; i < route.size(); i++) {
+                if(route.flightId(i) >= base.flightCount) { changes.addFlight(route.airlineId(i), route.flightId(i)); }
+            }
+            if(previous != null && !removedFlights.isEmpty()) {
+                for(int i = 0; i < previous.size(); i++) {
+                    if(removedFlights.contains(previous.flightId(i))) { changes.removeFlight(previous.airlineId(i), previous.flightId(i)); }
+                }
+            }
+        }
+
+        // Copies the published airlines before changing them (once per batch)
+        private void copyAirlines(int minLength) {
+            if(!airlinesCopied || airlines.length < minLength) {
+                airlines = Arrays.copyOf(airlines, Math.max(airlines.length, minLength));
+                airlinesCopied = true;
+            }
+        }
+
+        private void checkOpen() {
+            if(!open) { throw new IllegalStateException("Batch already closed"); }
+        }
+    }
+
+    private final ConcurrentHashMap<String, String> airports;
+    private final CodeTable airlineIds;
+    private final CodeTable airportIds;
+    private final ReentrantLock writeLock;
+    private volatile Snapshot snapshot;
+    // Told about each snapshot committed, with the write lock (null if nobody is)
+    private final Consumer<Snapshot> published;
+    // Built when first needed, used and changed only with the write lock
+    private FlightIndex flightIndex;
 
     public Database() {
-        airlines = new HashMap<>();
-        airports = new HashMap<>();
-        flights = new HashMap<>();
+        this(new CodeTable(), new CodeTable(), new ConcurrentHashMap<String, String>(), null);
+    }
 
+    /**
+     * Creates a database that shares airport and airline codes (and so ids) with others
+     *
+     * @param airportIds Airport codes
+     * @param airlineIds Airline codes
+     * @param airports Airport names by code
+     * @param published Called with each snapshot committed, after publishing it and before releasing
+     *                  the write lock. Null if not needed.
+     * @see ShardedDatabase
+     */
+    Database(CodeTable airportIds, CodeTable airlineIds, ConcurrentHashMap<String, String> airports,
+             Consumer<Snapshot> published) {
+        this.airports = airports;
+        this.airlineIds = airlineIds;
+        this.airportIds = airportIds;
+        this.published = published;
+        writeLock = new ReentrantLock();
+        snapshot = new Snapshot(new Airline[0], FixedPriceTable.EMPTY, new String[0], 0, LongTrieMap.<RouteTable>empty(),
+                null, 0, ScheduleIndex.EMPTY);
+    }
+
+    private Database(SnapshotFile file) {
+        this();
+        for(int i = 0; i < file.airportCount(); i++) {
+            String code = file.airportCode(i);
+            airportIds.intern(code);
+            if(file.airportName(i) != null) { airports.put(code, file.airportName(i)); }
+        }
+        Airline[] airlines = new Airline[file.airlineCount()];
+        for(int i = 0; i < airlines.length; i++) {
+            airlineIds.intern(file.airlineCode(i));
+            airlines[i] = file.airline(i);
+        }
+        snapshot = new Snapshot(airlines, new FixedPriceTable(airlines), new String[0], file.flightCount(),
+                LongTrieMap.<RouteTable>empty(), file, 0, null);
+    }
+
+    /**
+     * Opens a database from a snapshot file written by writeSnapshot.
+     *
+     * Flights are not loaded: they are read from the mapped file when they are searched.
+     *
+     * @param file Snapshot file
+     * @return Database with the data of the file. It can be changed, without affecting the file.
+     * @throws IOException If the file can't be read or it's not a valid snapshot
+     */
+    public static Database openSnapshot(Path file) throws IOException {
+        return new Database(SnapshotFile.open(file));
+    }
+
+    /**
+     * Writes the current data to a binary snapshot file, to open it later with openSnapshot
+     *
+     * @param file Snapshot file. It's replaced if it exists.
+     * @throws IOException If the file can't be written
+     */
+    public void writeSnapshot(Path file) throws IOException {
+        SnapshotFile.write(snapshot, file);
+    }
+
+    /**
+     * Starts a group of changes to be published at once. Waits if other thread is changing data.
+     *
+     * @return Batch. It must be closed.
+     */
+    public Batch batch() {
+        writeLock.lock();
+        return new Batch(snapshot);
+    }
+
+    /**
+     * Retrieves the current state of the data, to read it consistently
+     *
+     * @return Current snapshot. It never changes.
+     */
+    public Snapshot snapshot() {
+        return snapshot;
     }
 
     /**
@@ -30,9 +768,10 @@ class Database {
      * @see Airline
      */
     public void addAirline(String code, String name) {
-        if(code == null || name == null) { throw new IllegalArgumentException("All params are mandatory"); }
-        Airline airline = new Airline(code, name);
-        airlines.put(code, airline);
+        try(Batch batch = batch()) {
+            batch.addAirline(code, name);
+            batch.commit();
+        }
     }
 
     /**
@@ -40,13 +779,26 @@ class Database {
      *
      * @param airlineCode IATA code of the airline
      * @param type Passenger type
-     * @param price Fixed price
+     * @param price Fixed price. At most two decimals (cents).
      */
     public void addPassengerTypeFixedPrice(String airlineCode, PassengerType type, BigDecimal price) {
-        if(airlineCode == null || type == null || price == null) { throw new IllegalArgumentException("All params are mandatory"); }
-        Airline airline = airlines.get(airlineCode);
-        if(airline == null) { throw new IllegalArgumentException(String.format("Airline %s not found", airlineCode)); }
-        airline.setFixedPriceByPassengerType(type, price);
+        try(Batch batch = batch()) {
+            batch.addPassengerTypeFixedPrice(airlineCode, type, price);
+            batch.commit();
+        }
+    }
+
+    /**
+     * Removes the fixed price of an specific airline and passenger type, if it has one
+     *
+     * @param airlineCode IATA code of the airline
+     * @param type Passenger type
+     */
+    public void removePassengerTypeFixedPrice(String airlineCode, PassengerType type) {
+        try(Batch batch = batch()) {
+            batch.removePassengerTypeFixedPrice(airlineCode, type);
+            batch.commit();
+        }
     }
 
     /**
@@ -56,52 +808,154 @@ class Database {
      * @param name Descriptive name
      */
     public void addAirport(String code, String name) {
-        if(code == null || name == null) { throw new IllegalArgumentException("All params are mandatory"); }
-        airports.put(code, name);
+        try(Batch batch = batch()) {
+            batch.addAirport(code, name);
+            batch.commit();
+        }
     }
 
     /**
      * Creates a new flight
      *
+     * Each call publishes a new snapshot, copying the route; use a Batch to add many flights.
+     *
      * @param originCode IATA code of the origin airport
      * @param destCode IATA code of the destination airport
      * @param flightCode IATA code of the flight. Assumes AAN* (AA -> airline, N* -> rest of identifier)
-     * @param basePrice Base price for price rules
+     * @param basePrice Base price for price rules. At most two decimals (cents).
      */
     public void addFlight(String originCode, String destCode, String flightCode, BigDecimal basePrice) {
-        if(originCode == null || destCode == null || flightCode == null || basePrice == null) { throw new IllegalArgumentException("All params are mandatory"); }
-        // Flight creation
-        String airlineCode = flightCode.substring(0,2);
-        Airline airline = airlines.get(airlineCode);
-        if(airline == null) { throw new IllegalArgumentException(String.format("Airline %s not found", airlineCode)); }
-        Flight flight = new Flight(originCode, destCode, airline, flightCode, basePrice);
+        try(Batch batch = batch()) {
+            batch.addFlight(originCode, destCode, flightCode, basePrice);
+            batch.commit();
+        }
+    }
 
-        // Add to route
-        String routeCode = routeCode(originCode, destCode); // unique identifier for route
-        List<Flight> flightsByRoute;
-        if(flights.containsKey(routeCode)) {
-            flightsByRoute = flights.get(routeCode);
-        } else {
-            flightsByRoute = new LinkedList<>();
-            flights.put(routeCode, flightsByRoute);
+    /**
+     * Removes a flight
+     *
+     * @param flightCode IATA code of the flight. If some flights share it, the last one added is removed.
+     * @throws IllegalArgumentException if there is no flight with that code
+     */
+    public void removeFlight(String flightCode) {
+        try(Batch batch = batch()) {
+            batch.removeFlight(flightCode);
+            batch.commit();
+        }
+    }
+
+    /**
+     * Changes the base price of a flight
+     *
+     * @param flightCode IATA code of the flight. If some flights share it, the last one added is changed.
+     * @param basePrice Base price for price rules. At most two decimals (cents).
+     * @throws IllegalArgumentException if there is no flight with that code
+     */
+    public void updateBasePrice(String flightCode, BigDecimal basePrice) {
+        try(Batch batch = batch()) {
+            batch.updateBasePrice(flightCode, basePrice);
+            batch.commit();
         }
-        flightsByRoute.add(flight);
     }
 
     /**
      * Retrieves the flights for a specific route
+     *
+     * This is a view that creates the Flight objects when they are accessed, search paths
+     * should use getRoute instead.
+     *
      * @param originCode IATA code of the origin airport
      * @param destCode IATA code of the destination airport
      * @return Flights that match that route (no order guaranteed)
      */
-    public Collection<Flight> getFlights(String originCode, String destCode) {
-        String routeCode = routeCode(originCode, destCode);
-        Collection<Flight> routeFlights = flights.get(routeCode);
-        return (routeFlights == null) ? Collections.<Flight>emptyList() : Collections.unmodifiableCollection(routeFlights);
+    public Collection<Flight> getFlights(final String originCode, final String destCode) {
+        final Snapshot data = snapshot;
+        final RouteTable route = data.getRoute(originCode, destCode);
+        if(route.size() == 0) { return Collections.emptyList(); }
+        return new AbstractList<Flight>() {
+            @Override
+            public Flight get(int index) {
+                return new Flight(originCode, destCode, data.getAirline(route.airlineId(index)),
+                        data.getFlightCode(route.flightId(index)), Money.fromCents(route.basePrice(index)));
+            }
+
+            @Override
+            public int size() {
+                return route.size();
+            }
+        };
+    }
+
+    /**
+     * Retrieves the flights for a specific route in columnar form
+     *
+     * @param originCode IATA code of the origin airport
+     * @param destCode IATA code of the destination airport
+     * @return Flights that match that route (no order guaranteed). Empty table if there are none.
+     * @see Snapshot#getRoute(String, String)
+     */
+    public RouteTable getRoute(String originCode, String destCode) {
+        return snapshot.getRoute(originCode, destCode);
+    }
+
+    /**
+     * Retrieves the airports with flights from an airport
+     *
+     * @param originCode IATA code of the origin airport
+     * @return IATA codes of the destination airports (no order guaranteed). Empty if there are none.
+     * @see Snapshot#getDestinations(String)
+     */
+    public List<String> getDestinations(String originCode) {
+        return snapshot.getDestinations(originCode);
+    }
+
+    /**
+     * Retrieves the airports with flights to an airport
+     *
+     * @param destCode IATA code of the destination airport
+     * @return IATA codes of the origin airports (no order guaranteed). Empty if there are none.
+     * @see Snapshot#getOrigins(String)
+     */
+    public List<String> getOrigins(String destCode) {
+        return snapshot.getOrigins(destCode);
+    }
+
+    /**
+     * Retrieves the flights of an airline
+     *
+     * @param airlineCode IATA code of the airline
+     * @return IATA codes of the flights (no order guaranteed). Empty if there are none.
+     * @see Snapshot#getAirlineFlights(String)
+     */
+    public List<String> getAirlineFlights(String airlineCode) {
+        return snapshot.getAirlineFlights(airlineCode);
+    }
+
+    /**
+     * Retrieves an airline by the id used in route tables
+     *
+     * @param airlineId Airline id
+     * @return Airline
+     * @see Snapshot#getAirline(int)
+     */
+    public Airline getAirline(int airlineId) {
+        return snapshot.getAirline(airlineId);
+    }
+
+    /**
+     * Retrieves a flight code by the id used in route tables
+     *
+     * @param flightId Flight id
+     * @return IATA code of the flight
+     * @see Snapshot#getFlightCode(int)
+     */
+    public String getFlightCode(int flightId) {
+        return snapshot.getFlightCode(flightId);
     }
 
-    private static String routeCode(String origin, String dest) {
-        return origin+'-'+dest;
+    // Packs both airport ids in a single primitive key, so route lookups don't build strings
+    static long routeKey(int originId, int destId) {
+        return ((long) originId << 32) | destId;
     }
 
 
@@ -0,0 +1,126 @@
+package es.bdh.lmassignment;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.util.Date;
+import java.util.function.LongSupplier;
+
+/**
+ * Converts instants to epoch days (days since 1970-01-01) in a time zone, to count days to departure
+ * with integer arithmetic.
+ *
+ * An instant belongs to the day of its local date in the zone, so days between two instants don't
+ * depend on their time of day, and days with daylight saving changes (23 or 25 hours) count as one.
+ * The current day is cached with the instants where it starts and ends, so getting it is a clock
+ * read and two comparisons.
+ */
+final class EpochDays {
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    // Epoch day and the instants where it starts (included) and ends (excluded)
+    private static final class Day {
+        private final long epochDay;
+        private final long startMillis;
+        private final long endMillis;
+
+        Day(long epochDay, long startMillis, long endMillis) {
+            this.epochDay = epochDay;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+        }
+    }
+
+    private final ZoneId zone;
+    private final ZoneRules rules;
+    private final LongSupplier clock;
+    private volatile Day today;
+
+    /**
+     * @param zone Time zone of the days
+     */
+    public EpochDays(ZoneId zone) {
+        this(zone, System::currentTimeMillis);
+    }
+
+    /**
+     * Creates the days of a zone with a custom clock (for testing)
+     *
+     * @param zone Time zone of the days
+     * @param clock Current time in milliseconds since 1970-01-01T00:00:00Z
+     */
+    EpochDays(ZoneId zone, LongSupplier clock) {
+        if(zone == null) { throw new IllegalArgumentException("Time zone is mandatory"); }
+        this.zone = zone;
+        this.rules = zone.getRules();
+        this.clock = clock;
+        this.today = day(clock.getAsLong());
+    }
+
+    /**
+     * @return Time zone of the days
+     */
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * Retrieves the epoch day of an instant
+     *
+     * @param epochMillis Milliseconds since 1970-01-01T00:00:00Z
+     * @return Epoch day of the local date of the instant
+     */
+    public long of(long epochMillis) {
+        Day day = today;
+        if(epochMillis >= day.startMillis && epochMillis < day.endMillis) { return day.epochDay; }
+        long offsetMillis = rules.getOffset(Instant.ofEpochMilli(epochMillis)).getTotalSeconds() * MILLIS_PER_SECOND;
+        return Math.floorDiv(epochMillis + offsetMillis, MILLIS_PER_DAY);
+    }
+
+    /**
+     * Retrieves the epoch day of a date
+     *
+     * @param date Date
+     * @return Epoch day of the local date of the date
+     */
+    public long of(Date date) {
+        return of(date.getTime());
+    }
+
+    /**
+     * @return Epoch day of the current date
+     */
+    public long today() {
+        long now = clock.getAsLong();
+        Day day = today;
+        if(now < day.startMillis || now >= day.endMillis) {
+            day = day(now);
+            today = day;
+        }
+        return day.epochDay;
+    }
+
+    /**
+     * Counts the days between two dates
+     *
+     * @param from First date
+     * @param to Second date
+     * @return Days from the local date of the first date to the local date of the second one.
+     *         Negative if the second one is before.
+     */
+    public int daysBetween(Date from, Date to) {
+        return (int) (of(to) - of(from));
+    }
+
+    private Day day(long epochMillis) {
+        long offsetMillis = rules.getOffset(Instant.ofEpochMilli(epochMillis)).getTotalSeconds() * MILLIS_PER_SECOND;
+        long epochDay = Math.floorDiv(epochMillis + offsetMillis, MILLIS_PER_DAY);
+        // Days don't always start at midnight or last 24 hours, zone rules know when they do
+        long startMillis = LocalDate.ofEpochDay(epochDay).atStartOfDay(zone).toInstant().toEpochMilli();
+        long endMillis = LocalDate.ofEpochDay(epochDay + 1).atStartOfDay(zone).toInstant().toEpochMilli();
+        return new Day(epochDay, startMillis, endMillis);
+    }
+}
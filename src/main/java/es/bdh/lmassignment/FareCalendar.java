@@ -0,0 +1,71 @@
+package es.bdh.lmassignment;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Prices of a route for consecutive departure days.
+ *
+ * Days are numbered from 0 (first departure date of the calendar). Consecutive days with the same
+ * prices share their data.
+ */
+public class FareCalendar {
+
+    private final int[] segments;
+    private final BigDecimal[] minPrices;
+    private final String[] cheapestFlightCodes;
+    private final List<List<SearchService.SearchResult>> results;
+
+    /**
+     * Creates a calendar. Each day points to a segment, and segment data is stored once.
+     *
+     * @param segments Segment of each day
+     * @param minPrices Minimum price of each segment (null if there are no flights)
+     * @param cheapestFlightCodes Code of the flight with the minimum price of each segment
+     * @param results All results of each segment, null if not kept
+     */
+    FareCalendar(int[] segments, BigDecimal[] minPrices, String[] cheapestFlightCodes,
+                 List<List<SearchService.SearchResult>> results) {
+        this.segments = segments;
+        this.minPrices = minPrices;
+        this.cheapestFlightCodes = cheapestFlightCodes;
+        this.results = results;
+    }
+
+    /**
+     * @return Number of days of the calendar
+     */
+    public int getDays() {
+        return segments.length;
+    }
+
+    /**
+     * Retrieves the cheapest price of a day
+     * @param day Day, from 0 (first departure date)
+     * @return Minimum price, or null if there are no flights
+     */
+    public BigDecimal getMinPrice(int day) {
+        return minPrices[segments[day]];
+    }
+
+    /**
+     * Retrieves the flight with the cheapest price of a day. If many have the same price, the first one.
+     * @param day Day, from 0 (first departure date)
+     * @return IATA code of the flight, or null if there are no flights
+     */
+    public String getCheapestFlightCode(int day) {
+        return cheapestFlightCodes[segments[day]];
+    }
+
+    /**
+     * Retrieves the prices of all flights of a day, as search would return them
+     * @param day Day, from 0 (first departure date)
+     * @return Collection of SearchResult (Flight code + price)
+     */
+    public Collection<SearchService.SearchResult> getResults(int day) {
+        if(results == null) { throw new IllegalStateException("Calendar created without all prices"); }
+        return Collections.unmodifiableList(results.get(segments[day]));
+    }
+}
@@ -0,0 +1,78 @@
+package es.bdh.lmassignment;
+
+import java.util.Arrays;
+
+/**
+ * Fixed prices of all the airlines, in cents, flattened in a single array by airline id and
+ * passenger type ordinal.
+ *
+ * Pricing reads the slot of an airline and passenger type instead of getting the airline and its
+ * prices. Tables are immutable and built from the airlines of a snapshot: snapshots share them
+ * while their airlines are the same, and a new one is built when an airline changes.
+ */
+final class FixedPriceTable {
+
+    private static final int TYPES = PassengerType.values().length;
+
+    /** Table without airlines */
+    static final FixedPriceTable EMPTY = new FixedPriceTable(new Airline[0]);
+
+    private final long[] cents;
+    private final long[] minCents;
+
+    /**
+     * Builds the table of some airlines
+     *
+     * @param airlines Airlines by id, null for ids without airline
+     */
+    public FixedPriceTable(Airline[] airlines) {
+        cents = new long[airlines.length * TYPES];
+        minCents = new long[TYPES];
+        Arrays.fill(cents, PriceService.NO_FIXED_PRICE);
+        Arrays.fill(minCents, PriceService.NO_FIXED_PRICE);
+        for(int id = 0; id < airlines.length; id++) {
+            if(airlines[id] == null) { continue; }
+            long[] fixedPriceCents = airlines[id].getFixedPriceCents();
+            System.arraycopy(fixedPriceCents, 0, cents, id * TYPES, TYPES);
+            for(int t = 0; t < TYPES; t++) {
+                if(fixedPriceCents[t] != PriceService.NO_FIXED_PRICE
+                        && (minCents[t] == PriceService.NO_FIXED_PRICE || fixedPriceCents[t] < minCents[t])) {
+                    minCents[t] = fixedPriceCents[t];
+                }
+            }
+        }
+    }
+
+    /**
+     * Retrieves a fixed price
+     *
+     * @param airlineId Airline id
+     * @param type Passenger type ordinal
+     * @return Fixed price in cents, NO_FIXED_PRICE if the airline has none for the type
+     */
+    public long get(int airlineId, int type) {
+        return cents[airlineId * TYPES + type];
+    }
+
+    /**
+     * @return Lowest fixed price of all the airlines in cents indexed by passenger type ordinal, NO_FIXED_PRICE if no airline has one. Must not be modified.
+     */
+    public long[] getMinCents() {
+        return minCents;
+    }
+
+    /**
+     * @return Fixed prices in cents, the ones of each airline starting at offset(airlineId). Must not be modified.
+     */
+    long[] cents() {
+        return cents;
+    }
+
+    /**
+     * @param airlineId Airline id
+     * @return Position of the first fixed price of the airline in cents()
+     */
+    static int offset(int airlineId) {
+        return airlineId * TYPES;
+    }
+}
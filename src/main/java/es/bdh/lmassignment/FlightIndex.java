@@ -0,0 +1,143 @@
+package es.bdh.lmassignment;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the flights of a database by code, to change them by code (see Database.Batch.removeFlight).
+ *
+ * It's only used by writers, holding the write lock of the database, so it's a plain mutable map.
+ * It's built from the current snapshot the first time a flight is looked up by code, and the
+ * batches committed afterwards keep it up to date. If some flights share a code, the last one
+ * added that is not removed is the one found: all their ids are kept, so removing the last one
+ * finds the previous one again.
+ */
+final class FlightIndex {
+
+    /** Route of the flights that were removed */
+    static final long NO_ROUTE = -1L;
+
+    // Ids of the flights with each code, in the order they were added (usually one)
+    private final HashMap<String, int[]> ids;
+    // Route key by flight id
+    private long[] routes;
+
+    /**
+     * Indexes the flights of a snapshot
+     *
+     * @param snapshot Snapshot
+     */
+    public FlightIndex(Database.Snapshot snapshot) {
+        ids = new HashMap<>();
+        routes = new long[Math.max(16, snapshot.flightCount())];
+        Arrays.fill(routes, NO_ROUTE);
+        for(long routeKey : snapshot.routeKeys()) {
+            RouteTable route = snapshot.route(routeKey);
+            for(int i = 0; i < route.size(); i++) {
+                int flightId = route.flightId(i);
+                add(ids, snapshot.getFlightCode(flightId), flightId);
+                routes[flightId] = routeKey;
+            }
+        }
+    }
+
+    /**
+     * @param flightCode IATA code of the flight
+     * @param removed Ids of flights to skip (removed by a batch not committed yet)
+     * @return Id of the last flight added with the code, -1 if there is none
+     */
+    public int find(String flightCode, Set<Integer> removed) {
+        return find(ids, flightCode, removed);
+    }
+
+    /**
+     * @param flightId Flight id
+     * @return Key of the route of the flight, NO_ROUTE if it was removed
+     */
+    public long route(int flightId) {
+        return (flightId < routes.length) ? routes[flightId] : NO_ROUTE;
+    }
+
+    /**
+     * Indexes a new flight
+     *
+     * @param flightCode IATA code of the flight
+     * @param flightId Flight id
+     * @param routeKey Key of the route of the flight
+     */
+    public void add(String flightCode, int flightId, long routeKey) {
+        if(flightId >= routes.length) {
+            int length = routes.length;
+            routes = Arrays.copyOf(routes, Math.max(length * 2, flightId + 1));
+            Arrays.fill(routes, length, routes.length, NO_ROUTE);
+        }
+        add(ids, flightCode, flightId);
+        routes[flightId] = routeKey;
+    }
+
+    /**
+     * Removes a flight
+     *
+     * @param flightCode IATA code of the flight
+     * @param flightId Flight id
+     */
+    public void remove(String flightCode, int flightId) {
+        if(flightId < routes.length) { routes[flightId] = NO_ROUTE; }
+        int[] flightIds = ids.get(flightCode);
+        if(flightIds == null) { return; }
+        for(int i = flightIds.length - 1; i >= 0; i--) {
+            if(flightIds[i] != flightId) { continue; }
+            if(flightIds.length == 1) {
+                ids.remove(flightCode);
+            } else {
+                int[] rest = new int[flightIds.length - 1];
+                System.arraycopy(flightIds, 0, rest, 0, i);
+                System.arraycopy(flightIds, i + 1, rest, i, rest.length - i);
+                ids.put(flightCode, rest);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Adds a flight to a map of flight ids by code (see find)
+     *
+     * @param ids Ids of the flights with each code, ascending
+     * @param flightCode IATA code of the flight
+     * @param flightId Flight id
+     */
+    static void add(Map<String, int[]> ids, String flightCode, int flightId) {
+        int[] flightIds = ids.get(flightCode);
+        if(flightIds == null) {
+            ids.put(flightCode, new int[] {flightId});
+            return;
+        }
+        // Ids are usually added in order, except while indexing the routes of a snapshot
+        int position = flightIds.length;
+        while(position > 0 && flightIds[position - 1] > flightId) { position--; }
+        int[] added = new int[flightIds.length + 1];
+        System.arraycopy(flightIds, 0, added, 0, position);
+        added[position] = flightId;
+        System.arraycopy(flightIds, position, added, position + 1, flightIds.length - position);
+        ids.put(flightCode, added);
+    }
+
+    /**
+     * Finds the last flight added with a code in a map of flight ids by code
+     *
+     * @param ids Ids of the flights with each code, ascending
+     * @param flightCode IATA code of the flight
+     * @param removed Ids of flights to skip
+     * @return Flight id, -1 if there is none
+     */
+    static int find(Map<String, int[]> ids, String flightCode, Set<Integer> removed) {
+        int[] flightIds = ids.get(flightCode);
+        if(flightIds == null) { return -1; }
+        for(int i = flightIds.length - 1; i >= 0; i--) {
+            if(!removed.contains(flightIds[i])) { return flightIds[i]; }
+        }
+        return -1;
+    }
+}
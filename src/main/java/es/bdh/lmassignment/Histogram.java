@@ -0,0 +1,127 @@
+package es.bdh.lmassignment;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values (latencies in nanoseconds, counts...) that can be recorded
+ * concurrently.
+ *
+ * Buckets are log-linear, as in HDR histograms: values up to 15 have their own bucket, and each
+ * power of two above is split in 16 buckets, so any value is reported with an error under 1/16
+ * (6.25%) with under a thousand fixed buckets and no allocation when recording.
+ */
+class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /**
+     * Immutable copy of a histogram at a point in time
+     */
+    static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long sum, long max) {
+            long count = 0;
+            for(long c : counts) {
+                count += c;
+            }
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @return Number of recorded values
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return Mean of the recorded values, 0 if there are none
+         */
+        public double getMean() {
+            return (count == 0) ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @return Maximum recorded value, 0 if there are none
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Retrieves a percentile of the recorded values
+         *
+         * @param percentile Percentile, from 0 to 100
+         * @return Highest value of the bucket where the percentile is (never above the maximum), 0 if there are no values
+         */
+        public long getPercentile(double percentile) {
+            if(percentile < 0 || percentile > 100) { throw new IllegalArgumentException("Percentile must be between 0 and 100"); }
+            if(count == 0) { return 0; }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for(int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if(seen >= rank) { return Math.min(highestValue(i), max); }
+            }
+            return max;
+        }
+    }
+
+    private final AtomicLongArray counts;
+    private final LongAdder sum;
+    private final LongAccumulator max;
+
+    public Histogram() {
+        counts = new AtomicLongArray(BUCKETS);
+        sum = new LongAdder();
+        max = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * Records a value
+     *
+     * @param value Value. Negative values (clock adjustments) are recorded as 0.
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(bucket(v));
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    /**
+     * @return Copy of the recorded values. Values recorded meanwhile may be partially included.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for(int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy, sum.sum(), max.get());
+    }
+
+    // Values under SUB_BUCKETS by themselves, the rest by exponent and the next SUB_BUCKET_BITS bits
+    static int bucket(long value) {
+        if(value < SUB_BUCKETS) { return (int) value; }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long highestValue(int bucket) {
+        if(bucket < SUB_BUCKETS) { return bucket; }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + ((1L << shift) - 1);
+    }
+}
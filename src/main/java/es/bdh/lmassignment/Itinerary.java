@@ -0,0 +1,62 @@
+package es.bdh.lmassignment;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a connection search: flights to take, one after the other, to go from an airport to another.
+ */
+public class Itinerary {
+
+    private final List<String> airportCodes;
+    private final List<String> flightCodes;
+    private final BigDecimal price;
+
+    /**
+     * Creates an itinerary
+     *
+     * @param airportCodes IATA codes of the airports, from origin to destination (one more than flights)
+     * @param flightCodes IATA codes of the flights of each leg
+     * @param price Price of all the flights for all passengers
+     */
+    Itinerary(String[] airportCodes, String[] flightCodes, BigDecimal price) {
+        this.airportCodes = Collections.unmodifiableList(Arrays.asList(airportCodes));
+        this.flightCodes = Collections.unmodifiableList(Arrays.asList(flightCodes));
+        this.price = price;
+    }
+
+    /**
+     * @return IATA codes of the airports, from origin to destination
+     */
+    public List<String> getAirportCodes() {
+        return airportCodes;
+    }
+
+    /**
+     * @return IATA codes of the flights, in the order they are taken
+     */
+    public List<String> getFlightCodes() {
+        return flightCodes;
+    }
+
+    /**
+     * @return Price of all the flights for all passengers
+     */
+    public BigDecimal getPrice() {
+        return price;
+    }
+
+    /**
+     * @return Number of stops (0 for direct flights)
+     */
+    public int getStops() {
+        return flightCodes.size() - 1;
+    }
+
+    @Override
+    public String toString() {
+        return airportCodes + " " + flightCodes + " " + price;
+    }
+}
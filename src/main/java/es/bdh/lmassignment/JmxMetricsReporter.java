@@ -0,0 +1,138 @@
+package es.bdh.lmassignment;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Publishes search metrics as an MXBean, so they can be read with JConsole, VisualVM or any JMX client.
+ *
+ * Each read of an attribute takes a new snapshot of the metrics.
+ */
+class JmxMetricsReporter implements MetricsReporter {
+
+    private static final double NANOS_PER_MICRO = 1000.0;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final MBeanServer server;
+    private final ObjectName name;
+    private boolean registered;
+
+    /**
+     * Creates a reporter on the platform MBean server
+     *
+     * @param name Name of the bean, as "domain:key=value"
+     */
+    public JmxMetricsReporter(String name) {
+        this(ManagementFactory.getPlatformMBeanServer(), name);
+    }
+
+    /**
+     * Creates a reporter
+     *
+     * @param server MBean server where the bean is registered
+     * @param name Name of the bean, as "domain:key=value"
+     */
+    public JmxMetricsReporter(MBeanServer server, String name) {
+        if(server == null || name == null) { throw new IllegalArgumentException("All params are mandatory"); }
+        this.server = server;
+        try {
+            this.name = new ObjectName(name);
+        } catch(JMException e) {
+            throw new IllegalArgumentException("Invalid bean name: " + name, e);
+        }
+    }
+
+    /**
+     * @return Name of the bean
+     */
+    public ObjectName getName() {
+        return name;
+    }
+
+    @Override
+    public synchronized void start(SearchMetrics metrics) {
+        if(registered) { throw new IllegalStateException("Already started"); }
+        try {
+            server.registerMBean(new Bean(metrics), name);
+        } catch(JMException e) {
+            throw new IllegalStateException("Can't register " + name, e);
+        }
+        registered = true;
+    }
+
+    @Override
+    public synchronized void stop() {
+        if(!registered) { return; }
+        registered = false;
+        try {
+            server.unregisterMBean(name);
+        } catch(InstanceNotFoundException e) {
+            // Already unregistered by someone else
+        } catch(JMException e) {
+            throw new IllegalStateException("Can't unregister " + name, e);
+        }
+    }
+
+    private static class Bean implements SearchMetricsMXBean {
+
+        private final SearchMetrics metrics;
+
+        Bean(SearchMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public long getSearches() {
+            return metrics.snapshot().getSearches();
+        }
+
+        @Override
+        public long getFlightsPriced() {
+            return metrics.snapshot().getFlightsPriced();
+        }
+
+        @Override
+        public long getFixedPriceHits() {
+            return metrics.snapshot().getFixedPriceHits();
+        }
+
+        @Override
+        public long getRuleEvaluations() {
+            return metrics.snapshot().getRuleEvaluations();
+        }
+
+        @Override
+        public Map<String, Double> getFlightsPerSearch() {
+            Map<String, Double> result = new LinkedHashMap<>();
+            addStatistics(result, "", metrics.snapshot().getFlightsPerSearch(), 1);
+            return result;
+        }
+
+        @Override
+        public Map<String, Double> getLatencyMicros() {
+            SearchMetrics.Snapshot snapshot = metrics.snapshot();
+            Map<String, Double> result = new LinkedHashMap<>();
+            for(SearchMetrics.Stage stage : SearchMetrics.Stage.values()) {
+                addStatistics(result, stage.name().toLowerCase(Locale.ROOT) + ".", snapshot.getLatency(stage), NANOS_PER_MICRO);
+            }
+            return result;
+        }
+
+        private static void addStatistics(Map<String, Double> result, String prefix, Histogram.Snapshot histogram, double unit) {
+            result.put(prefix + "count", (double) histogram.getCount());
+            result.put(prefix + "mean", histogram.getMean() / unit);
+            for(double percentile : PERCENTILES) {
+                String label = (percentile == Math.rint(percentile)) ? String.valueOf((int) percentile)
+                        : String.valueOf(percentile).replace(".", "");
+                result.put(prefix + "p" + label, histogram.getPercentile(percentile) / unit);
+            }
+            result.put(prefix + "max", histogram.getMax() / unit);
+        }
+    }
+}
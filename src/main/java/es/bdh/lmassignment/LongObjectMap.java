@@ -0,0 +1,140 @@
+package es.bdh.lmassignment;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map with primitive long keys.
+ *
+ * Lookups don't allocate (no key boxing, no entry objects). Keys must be non-negative, as negative
+ * values are reserved to mark empty slots. Entries can't be removed.
+ *
+ * It's not synchronized: a map can be read by many threads only if it's not modified after being
+ * safely published (copy it to make changes).
+ *
+ * @param <V> Type of the values
+ */
+class LongObjectMap<V> {
+
+    private static final long EMPTY = -1L;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+    private int shift;
+
+    public LongObjectMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Creates a map able to hold the expected number of entries without resizing
+     *
+     * @param expectedSize Expected number of entries
+     */
+    public LongObjectMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while(capacity / 2 < expectedSize) { capacity <<= 1; }
+        allocate(capacity);
+    }
+
+    /**
+     * Creates a copy of another map
+     *
+     * @param other Map to copy
+     */
+    public LongObjectMap(LongObjectMap<V> other) {
+        keys = other.keys.clone();
+        values = other.values.clone();
+        size = other.size;
+        mask = other.mask;
+        shift = other.shift;
+    }
+
+    /**
+     * Retrieves the value associated to a key
+     *
+     * @param key Non-negative key
+     * @return Value or null if the key is not present
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int slot = slot(key);
+        long current;
+        while((current = keys[slot]) != EMPTY) {
+            if(current == key) { return (V) values[slot]; }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Associates a value to a key, replacing any previous value
+     *
+     * @param key Non-negative key
+     * @param value Value
+     */
+    public void put(long key, V value) {
+        if(key < 0) { throw new IllegalArgumentException("Negative keys not allowed"); }
+        int slot = slot(key);
+        long current;
+        while((current = keys[slot]) != EMPTY) {
+            if(current == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        if(size > keys.length / 2) { resize(keys.length << 1); }
+    }
+
+    /**
+     * @return Keys of all entries (no order guaranteed)
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int count = 0;
+        for(long key : keys) {
+            if(key != EMPTY) { result[count++] = key; }
+        }
+        return result;
+    }
+
+    /**
+     * @return Number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    private int slot(long key) {
+        // Fibonacci hashing: the top bits of the product mix both halves of packed keys
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new Object[capacity];
+        mask = capacity - 1;
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                while(keys[slot] != EMPTY) { slot = (slot + 1) & mask; }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package es.bdh.lmassignment;
+
+import java.util.Arrays;
+
+/**
+ * Immutable hash map with primitive long keys, that shares most of its memory with the maps
+ * derived from it.
+ *
+ * Entries are stored in a hash array mapped trie: nodes of up to 32 slots, selected by 5 bits of the
+ * hash of the key at each level, with a bitmap of the slots used. Hashes are a bijective mix of the
+ * keys, so different keys always end up in different slots. Changing an entry copies only the nodes
+ * in its path (a few per million entries), and the rest of the trie is shared with the previous map.
+ *
+ * Changes are done through an Editor. Nodes created by an editor are changed in place while it's
+ * used, so many changes at once don't copy the same path again. Entries can't be removed.
+ *
+ * Maps are immutable and thread-safe once they are safely published. Editors are not.
+ *
+ * @param <V> Type of the values
+ */
+final class LongTrieMap<V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final LongTrieMap<Object> EMPTY = new LongTrieMap<>(new Node(null, 0, new Object[0]), 0);
+
+    private final Node root;
+    private final int size;
+
+    private LongTrieMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * @param <V> Type of the values
+     * @return Map without entries
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> LongTrieMap<V> empty() {
+        return (LongTrieMap<V>) EMPTY;
+    }
+
+    /**
+     * Retrieves the value associated to a key
+     *
+     * @param key Key
+     * @return Value or null if the key is not present
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        long hash = hash(key);
+        Node node = root;
+        for(int shift = 0; ; shift += BITS) {
+            int bit = 1 << ((int) (hash >>> shift) & MASK);
+            if((node.bitmap & bit) == 0) { return null; }
+            Object slot = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
+            if(slot instanceof Node) {
+                node = (Node) slot;
+            } else {
+                Entry entry = (Entry) slot;
+                return (entry.key == key) ? (V) entry.value : null;
+            }
+        }
+    }
+
+    /**
+     * @return Keys of all entries (no order guaranteed)
+     */
+    public long[] keys() {
+        long[] keys = new long[size];
+        int count = collectKeys(root, keys, 0);
+        return (count == size) ? keys : Arrays.copyOf(keys, count);
+    }
+
+    /**
+     * @return Number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Starts a group of changes to derive a new map from this one
+     *
+     * @return Editor. This map is not changed by it.
+     */
+    public Editor<V> edit() {
+        return new Editor<>(root, size);
+    }
+
+    /**
+     * Changes to a map, to build a new one
+     *
+     * @param <V> Type of the values
+     */
+    static final class Editor<V> {
+
+        // Nodes created by this editor (and not published yet) have it as owner
+        private Object owner = new Object();
+        private Node root;
+        private int size;
+
+        private Editor(Node root, int size) {
+            this.root = root;
+            this.size = size;
+        }
+
+        /**
+         * Associates a value to a key, replacing any previous value
+         *
+         * @param key Key
+         * @param value Value
+         */
+        public void put(long key, V value) {
+            root = put(root, new Entry(key, value), hash(key), 0);
+        }
+
+        /**
+         * Creates the map with the changes done so far. The editor can still be used afterwards,
+         * without changing the map built.
+         *
+         * @return New map
+         */
+        public LongTrieMap<V> build() {
+            owner = new Object();
+            return new LongTrieMap<>(root, size);
+        }
+
+        private Node put(Node node, Entry entry, long hash, int shift) {
+            int bit = 1 << ((int) (hash >>> shift) & MASK);
+            int position = Integer.bitCount(node.bitmap & (bit - 1));
+            Node target = (node.owner == owner) ? node : new Node(owner, node.bitmap, node.slots.clone());
+            if((node.bitmap & bit) == 0) {
+                Object[] slots = new Object[target.slots.length + 1];
+                System.arraycopy(target.slots, 0, slots, 0, position);
+                slots[position] = entry;
+                System.arraycopy(target.slots, position, slots, position + 1, target.slots.length - position);
+                target.slots = slots;
+                target.bitmap |= bit;
+                size++;
+                return target;
+            }
+            Object slot = target.slots[position];
+            if(slot instanceof Node) {
+                target.slots[position] = put((Node) slot, entry, hash, shift + BITS);
+            } else if(((Entry) slot).key == entry.key) {
+                target.slots[position] = entry;
+            } else {
+                // Both keys in a new node one level down (hashes of different keys always differ at some level)
+                Node child = new Node(owner, 0, new Object[0]);
+                child = put(child, (Entry) slot, hash(((Entry) slot).key), shift + BITS);
+                size--; // The existing entry was already counted
+                target.slots[position] = put(child, entry, hash, shift + BITS);
+            }
+            return target;
+        }
+    }
+
+    private static final class Node {
+        private final Object owner;
+        private int bitmap;
+        private Object[] slots;
+
+        Node(Object owner, int bitmap, Object[] slots) {
+            this.owner = owner;
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    private static final class Entry {
+        private final long key;
+        private final Object value;
+
+        Entry(long key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    // Bijective, so different keys have different hashes. Both halves of packed keys reach the low bits.
+    private static long hash(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 32);
+    }
+
+    private static int collectKeys(Node node, long[] keys, int count) {
+        for(Object slot : node.slots) {
+            if(slot instanceof Node) {
+                count = collectKeys((Node) slot, keys, count);
+            } else {
+                keys[count++] = ((Entry) slot).key;
+            }
+        }
+        return count;
+    }
+}
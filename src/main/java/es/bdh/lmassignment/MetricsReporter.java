@@ -0,0 +1,19 @@
+package es.bdh.lmassignment;
+
+/**
+ * Publishes search metrics to a monitoring system (see JmxMetricsReporter).
+ */
+interface MetricsReporter {
+
+    /**
+     * Starts publishing metrics
+     *
+     * @param metrics Metrics to publish, read with SearchMetrics.snapshot
+     */
+    void start(SearchMetrics metrics);
+
+    /**
+     * Stops publishing the metrics
+     */
+    void stop();
+}
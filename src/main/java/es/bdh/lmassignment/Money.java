@@ -0,0 +1,41 @@
+package es.bdh.lmassignment;
+
+import java.math.BigDecimal;
+
+/**
+ * Conversions between BigDecimal amounts and scaled long amounts (cents).
+ *
+ * Prices are stored as cents so hot paths can work on primitive arrays. Amounts with more than
+ * two decimals are not accepted, as they can't be stored without losing precision.
+ */
+final class Money {
+
+    static final int SCALE = 2;
+
+    private Money() {
+    }
+
+    /**
+     * Converts an amount to cents
+     *
+     * @param amount Amount with, at most, two significant decimals
+     * @return Amount in cents
+     */
+    public static long toCents(BigDecimal amount) {
+        try {
+            return amount.movePointRight(SCALE).longValueExact();
+        } catch(ArithmeticException ex) {
+            throw new IllegalArgumentException(String.format("Amount %s can't be expressed in cents", amount));
+        }
+    }
+
+    /**
+     * Converts cents to an amount
+     *
+     * @param cents Amount in cents
+     * @return Amount with two decimals
+     */
+    public static BigDecimal fromCents(long cents) {
+        return BigDecimal.valueOf(cents, SCALE);
+    }
+}
@@ -0,0 +1,160 @@
+package es.bdh.lmassignment;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Immutable number of passengers of each type that fly together.
+ *
+ * Counts are packed in a single long, a fixed number of bits per passenger type ordinal, so a mix
+ * is as cheap to compare, hash or use as key as a long. Groups of the same type are merged, so the
+ * same passengers give the same mix whatever their order or grouping.
+ */
+public final class PassengerMix {
+
+    private static final PassengerType[] TYPES = PassengerType.values();
+    private static final int BITS = Long.SIZE / TYPES.length;
+    private static final long MASK = (1L << BITS) - 1;
+
+    /** Maximum number of passengers of each type */
+    public static final int MAX_COUNT = (int) Math.min(MASK, Integer.MAX_VALUE);
+
+    /** No passengers */
+    public static final PassengerMix EMPTY = new PassengerMix(0);
+
+    private final long packed;
+
+    private PassengerMix(long packed) {
+        this.packed = packed;
+    }
+
+    /**
+     * Creates a mix of passengers of one type
+     *
+     * @param type Passenger type
+     * @param count Number of passengers, from 0 to MAX_COUNT
+     * @return Passenger mix
+     */
+    public static PassengerMix of(PassengerType type, int count) {
+        return EMPTY.plus(type, count);
+    }
+
+    /**
+     * Creates a mix from groups of passengers, adding the groups of the same type
+     *
+     * @param passengers Collection of [Type, Num. of passengers] tuples describing the people flying.
+     * @return Passenger mix
+     */
+    public static PassengerMix of(Collection<PassengersByType> passengers) {
+        if(passengers == null) { throw new IllegalArgumentException("Passengers are mandatory"); }
+        PassengerMix mix = EMPTY;
+        for(PassengersByType group : passengers) {
+            if(group == null) { throw new IllegalArgumentException("Null passenger group"); }
+            mix = mix.plus(group.getType(), group.getNumber());
+        }
+        return mix;
+    }
+
+    /**
+     * Recreates a mix from its packed form
+     *
+     * @param packed Packed counts (see toLong)
+     * @return Passenger mix
+     */
+    public static PassengerMix fromLong(long packed) {
+        if(TYPES.length * BITS < Long.SIZE && (packed >>> (TYPES.length * BITS)) != 0) {
+            throw new IllegalArgumentException("Not a packed passenger mix: " + packed);
+        }
+        return (packed == 0) ? EMPTY : new PassengerMix(packed);
+    }
+
+    /**
+     * Adds passengers of a type
+     *
+     * @param type Passenger type
+     * @param count Number of passengers to add
+     * @return New mix with the passengers of both
+     */
+    public PassengerMix plus(PassengerType type, int count) {
+        if(type == null) { throw new IllegalArgumentException("Passenger type is mandatory"); }
+        if(count < 0) { throw new IllegalArgumentException("Negative number of passengers not allowed"); }
+        long total = count(type.ordinal()) + (long) count;
+        if(total > MAX_COUNT) { throw new IllegalArgumentException("Too many passengers of type " + type); }
+        int shift = type.ordinal() * BITS;
+        return new PassengerMix((packed & ~(MASK << shift)) | (total << shift));
+    }
+
+    /**
+     * @param type Passenger type
+     * @return Number of passengers of the type
+     */
+    public int count(PassengerType type) {
+        return count(type.ordinal());
+    }
+
+    /**
+     * @param ordinal Passenger type ordinal
+     * @return Number of passengers of the type
+     */
+    int count(int ordinal) {
+        return (int) ((packed >>> (ordinal * BITS)) & MASK);
+    }
+
+    /**
+     * @return Number of passengers of all types
+     */
+    public int total() {
+        int total = 0;
+        for(int t = 0; t < TYPES.length; t++) {
+            total += count(t);
+        }
+        return total;
+    }
+
+    /**
+     * @return Whether there are no passengers
+     */
+    public boolean isEmpty() {
+        return packed == 0;
+    }
+
+    /**
+     * @return Counts packed in a long (see fromLong)
+     */
+    public long toLong() {
+        return packed;
+    }
+
+    /**
+     * @return One group for each type with passengers, by type ordinal
+     */
+    public List<PassengersByType> toGroups() {
+        List<PassengersByType> groups = new ArrayList<>(TYPES.length);
+        for(PassengerType type : TYPES) {
+            if(count(type) > 0) { groups.add(new PassengersByType(type, count(type))); }
+        }
+        return groups;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof PassengerMix && ((PassengerMix) o).packed == packed;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(packed);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("{");
+        for(PassengerType type : TYPES) {
+            if(count(type) == 0) { continue; }
+            if(result.length() > 1) { result.append(", "); }
+            result.append(type).append('=').append(count(type));
+        }
+        return result.append('}').toString();
+    }
+}
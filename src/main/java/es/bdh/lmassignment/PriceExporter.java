@@ -0,0 +1,326 @@
+package es.bdh.lmassignment;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Exports the price of every flight of a database, for a range of days to departure and a set of
+ * passenger mixes, to a file.
+ *
+ * Routes are priced one at a time and their prices written as they are calculated through a
+ * buffered channel (see ChannelOutput), so memory doesn't depend on the size of the network.
+ * Rules are resolved once per day and passenger mix for the whole export, and prices are calculated
+ * in cents (see PricingContext.priceCents), so they aren't cached. Prices that need BigDecimals are,
+ * so contexts are forked again every CONTEXT_ROUTES routes to keep those caches bounded.
+ *
+ * Formats:
+ * - CSV: one row per price, originCode,destCode,flightCode,daysToDeparture,adults,children,infants,price
+ *   (a count for each passenger type, in PassengerType order). No header nor quoting.
+ * - Binary (big-endian, strings as int length + UTF-8 bytes, prices in cents), by columns:
+ *   - Header: magic, version, first days to departure, number of days, number of mixes and each mix (see PassengerMix.toLong)
+ *   - Routes: byte 1, origin and destination codes, number of flights, their codes, and then a
+ *     column with the prices of all the flights for each day and mix (days first)
+ *   - End: byte 0
+ *
+ * The file is written to a temporary file, forced to disk and moved to its place when it's complete.
+ * The temporary file is deleted if the export fails. An exporter can run several exports at once.
+ */
+class PriceExporter {
+
+    private static final int MAGIC = 0x4C4D5058; // "LMPX"
+    private static final int VERSION = 1;
+    private static final long PROGRESS_INTERVAL_NANOS = 1000000000L;
+    private static final int CONTEXT_ROUTES = 1024;
+
+    /** Usual passenger groups: one adult, a couple, and families with children and infants */
+    public static final List<PassengerMix> STANDARD_MIXES = Collections.unmodifiableList(Arrays.asList(
+            PassengerMix.of(PassengerType.ADULT, 1),
+            PassengerMix.of(PassengerType.ADULT, 2),
+            PassengerMix.of(PassengerType.ADULT, 2).plus(PassengerType.CHILD, 1),
+            PassengerMix.of(PassengerType.ADULT, 2).plus(PassengerType.CHILD, 2),
+            PassengerMix.of(PassengerType.ADULT, 2).plus(PassengerType.CHILD, 1).plus(PassengerType.INFANT, 1)));
+
+    /**
+     * File formats
+     */
+    public enum Format {
+        CSV, BINARY
+    }
+
+    /**
+     * Progress and results of an export
+     */
+    static class Report {
+
+        private final Path file;
+        private long routes;
+        private long prices;
+        private long bytes;
+        private long nanos;
+
+        private Report(Path file) {
+            this.file = file;
+        }
+
+        /**
+         * @return Exported file
+         */
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * @return Number of routes exported so far
+         */
+        public long getRoutes() {
+            return routes;
+        }
+
+        /**
+         * @return Number of prices exported so far
+         */
+        public long getPrices() {
+            return prices;
+        }
+
+        /**
+         * @return Number of bytes written so far
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return Time spent so far, in nanoseconds
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return Prices exported per second
+         */
+        public double getPricesPerSecond() {
+            return (nanos == 0) ? 0 : prices * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d routes, %d prices, %d bytes in %d ms, %.0f prices/s",
+                    file, routes, prices, bytes, nanos / 1000000, getPricesPerSecond());
+        }
+    }
+
+    private final PriceService priceService;
+    private final int firstDaysToDeparture;
+    private final int days;
+    private final List<PassengerMix> mixes;
+
+    /**
+     * Creates an exporter
+     *
+     * @param priceService Price calculating engine
+     * @param firstDaysToDeparture First days to departure to price
+     * @param days Number of consecutive days to departure to price
+     * @param mixes Passengers to price (see STANDARD_MIXES)
+     */
+    public PriceExporter(PriceService priceService, int firstDaysToDeparture, int days, List<PassengerMix> mixes) {
+        if(priceService == null || mixes == null || mixes.isEmpty()) { throw new IllegalArgumentException("Price service and passenger mixes are mandatory"); }
+        if(firstDaysToDeparture < 0 || days < 1) { throw new IllegalArgumentException("At least one day to departure is needed, from 0"); }
+        this.priceService = priceService;
+        this.firstDaysToDeparture = firstDaysToDeparture;
+        this.days = days;
+        this.mixes = new ArrayList<>(mixes);
+    }
+
+    /**
+     * Exports the prices of all the routes of a database
+     *
+     * @param db Database
+     * @param file File to write. It's replaced if it exists.
+     * @param format File format
+     * @return Export results
+     * @throws IOException If the file can't be written
+     */
+    public Report export(Database db, Path file, Format format) throws IOException {
+        return export(new Database.Snapshot[] {db.snapshot()}, file, format, null);
+    }
+
+    /**
+     * Exports the prices of all the routes of some snapshots (the shards of a ShardedDatabase, for instance)
+     *
+     * @param snapshots Snapshots, exported one after another
+     * @param file File to write. It's replaced if it exists.
+     * @param format File format
+     * @param progress Receives the report while the export runs, about once per second, null for none
+     * @return Export results
+     * @throws IOException If the file can't be written
+     */
+    public Report export(Database.Snapshot[] snapshots, Path file, Format format, Consumer<Report> progress) throws IOException {
+        Report report = new Report(file);
+        long start = System.nanoTime();
+        long lastProgress = start;
+
+        // Contexts for each day and mix
+        PriceService.PricingContext[][] templates = new PriceService.PricingContext[days][mixes.size()];
+        for(int d = 0; d < days; d++) {
+            for(int m = 0; m < mixes.size(); m++) {
+                templates[d][m] = priceService.createContext(firstDaysToDeparture + d, mixes.get(m));
+            }
+        }
+        PriceService.PricingContext[][] contexts = new PriceService.PricingContext[days][mixes.size()];
+
+        // Scratch buffer to write numbers, of this export (exports may run at the same time)
+        byte[] digits = new byte[20];
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        boolean moved = false;
+        try {
+            try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ChannelOutput out = new ChannelOutput(channel);
+                if(format == Format.BINARY) {
+                    out.putInt(MAGIC);
+                    out.putInt(VERSION);
+                    out.putInt(firstDaysToDeparture);
+                    out.putInt(days);
+                    out.putInt(mixes.size());
+                    for(PassengerMix mix : mixes) {
+                        out.putLong(mix.toLong());
+                    }
+                }
+
+                for(Database.Snapshot snapshot : snapshots) {
+                    FixedPriceTable fixedPrices = snapshot.getFixedPrices();
+                    for(long routeKey : snapshot.routeKeys()) {
+                        if(report.routes % CONTEXT_ROUTES == 0) { fork(templates, contexts); }
+                        RouteTable route = snapshot.route(routeKey);
+                        String originCode = snapshot.airportCode((int) (routeKey >>> 32));
+                        String destCode = snapshot.airportCode((int) routeKey);
+                        if(format == Format.BINARY) {
+                            writeRoute(out, snapshot, route, fixedPrices, originCode, destCode, contexts);
+                        } else {
+                            writeRouteCsv(out, snapshot, route, fixedPrices, originCode, destCode, contexts, digits);
+                        }
+                        report.routes++;
+                        report.prices += (long) route.size() * days * mixes.size();
+
+                        long now = System.nanoTime();
+                        if(progress != null && now - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+                            report.bytes = out.position();
+                            report.nanos = now - start;
+                            progress.accept(report);
+                            lastProgress = now;
+                        }
+                    }
+                }
+                if(format == Format.BINARY) { out.putByte(0); }
+                out.flush();
+                report.bytes = out.position();
+                // On disk before it gets the real name, so a crash can't leave a truncated file under it
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if(!moved) { Files.deleteIfExists(temp); }
+        }
+        report.nanos = System.nanoTime() - start;
+        if(progress != null) { progress.accept(report); }
+        return report;
+    }
+
+    private void writeRoute(ChannelOutput out, Database.Snapshot snapshot, RouteTable route, FixedPriceTable fixedPrices,
+                            String originCode, String destCode, PriceService.PricingContext[][] contexts) throws IOException {
+        out.putByte(1);
+        out.putString(originCode);
+        out.putString(destCode);
+        out.putInt(route.size());
+        for(int i = 0; i < route.size(); i++) {
+            out.putString(snapshot.getFlightCode(route.flightId(i)));
+        }
+        for(int d = 0; d < days; d++) {
+            for(int m = 0; m < mixes.size(); m++) {
+                PriceService.PricingContext pricing = contexts[d][m];
+                for(int i = 0; i < route.size(); i++) {
+                    out.putLong(pricing.priceCents(route.basePrice(i), route.airlineId(i), fixedPrices));
+                }
+            }
+        }
+    }
+
+    private void writeRouteCsv(ChannelOutput out, Database.Snapshot snapshot, RouteTable route, FixedPriceTable fixedPrices,
+                               String originCode, String destCode, PriceService.PricingContext[][] contexts,
+                               byte[] digits) throws IOException {
+        byte[] routePrefix = (originCode + ',' + destCode + ',').getBytes(StandardCharsets.UTF_8);
+        byte[][] flightCodes = new byte[route.size()][];
+        for(int i = 0; i < flightCodes.length; i++) {
+            flightCodes[i] = snapshot.getFlightCode(route.flightId(i)).getBytes(StandardCharsets.UTF_8);
+        }
+        for(int d = 0; d < days; d++) {
+            for(int m = 0; m < mixes.size(); m++) {
+                PriceService.PricingContext pricing = contexts[d][m];
+                PassengerMix mix = mixes.get(m);
+                for(int i = 0; i < flightCodes.length; i++) {
+                    long price = pricing.priceCents(route.basePrice(i), route.airlineId(i), fixedPrices);
+                    out.putBytes(routePrefix);
+                    out.putBytes(flightCodes[i]);
+                    out.putByte(',');
+                    putDecimal(out, firstDaysToDeparture + d, digits);
+                    for(PassengerType type : PassengerType.values()) {
+                        out.putByte(',');
+                        putDecimal(out, mix.count(type), digits);
+                    }
+                    out.putByte(',');
+                    putCents(out, price, digits);
+                    out.putByte('\n');
+                }
+            }
+        }
+    }
+
+    private static void fork(PriceService.PricingContext[][] templates, PriceService.PricingContext[][] contexts) {
+        for(int d = 0; d < templates.length; d++) {
+            for(int m = 0; m < templates[d].length; m++) {
+                contexts[d][m] = templates[d][m].fork();
+            }
+        }
+    }
+
+    // Writes the digits of a number, without creating a String (digits is a scratch buffer of 20 bytes)
+    private static void putDecimal(ChannelOutput out, long value, byte[] digits) throws IOException {
+        if(value < 0) {
+            out.putByte('-');
+            value = -value;
+        }
+        int length = 0;
+        do {
+            digits[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while(value > 0);
+        while(length > 0) {
+            out.putByte(digits[--length]);
+        }
+    }
+
+    // Writes an amount in cents with two decimals, as Money.fromCents(cents).toPlainString()
+    private static void putCents(ChannelOutput out, long cents, byte[] digits) throws IOException {
+        if(cents < 0) {
+            out.putByte('-');
+            cents = -cents;
+        }
+        putDecimal(out, cents / 100, digits);
+        out.putByte('.');
+        out.putByte('0' + (int) (cents % 100 / 10));
+        out.putByte('0' + (int) (cents % 10));
+    }
+}
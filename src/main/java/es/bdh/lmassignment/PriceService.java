@@ -1,6 +1,7 @@
 package es.bdh.lmassignment;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.*;
 
 /**
@@ -10,27 +11,393 @@ import java.util.*;
  * - Fixed prices (external) -> Fixes the price for a passenger if it's type has a fixed price
  * - Days to departure (internal) -> Applies a coefficient if the days to departure is inside a given range
  * - Passenger type (internal) -> Applies a coefficient if the passenger type matches
+ *
+ * Prices can be calculated with BigDecimal or with scaled long arithmetic (see calculatePriceCents).
+ * Both give exactly the same results.
+ *
+ * Rules can be added while prices are calculated in other threads: each price (and each pricing
+ * context) uses the rules of one version, see getRulesVersion.
  */
 class PriceService {
 
-    private class DaysRule {
+    /** Marks a passenger type without fixed price in fixed price arrays */
+    static final long NO_FIXED_PRICE = Long.MIN_VALUE;
+
+    // Coefficients are converted to longs with this number of decimals
+    private static final int COEFFICIENT_SCALE = 4;
+    private static final long COEFFICIENT_ONE = 10000L;
+    // Fixed-point amounts are cents multiplied by a days and a type coefficient
+    private static final long AMOUNT_TO_CENTS = COEFFICIENT_ONE * COEFFICIENT_ONE;
+    private static final long INEXACT = -1L;
+    // Days to departure covered by the direct-index table, longer ones are looked up by intervals
+    private static final int DAYS_TABLE_HORIZON = 365;
+
+    private static class DaysRule {
         private final int min;
         private final int max;
         private final BigDecimal coefficient;
+        private final long fixedCoefficient;
 
         DaysRule(int min, int max, BigDecimal coefficient) {
             this.min = min;
             this.max = max;
             this.coefficient = coefficient;
+            this.fixedCoefficient = toFixedCoefficient(coefficient);
+        }
+    }
+
+    /**
+     * Prices flights for one search, where days to departure and passengers don't change.
+     *
+     * Days and passenger type rules are resolved once, so each price is reduced to
+     * 'base price * factor + fixed prices', with factor and fixed prices computed once per airline.
+     * Results are cached by airline and base price for the lifetime of the context.
+     *
+     * A context is not thread-safe: to price in parallel, each thread uses a fork of it.
+     */
+    class PricingContext {
+
+        private final int[] passengers;
+        private final BigDecimal[] typeFactors;
+        private final long[] fixedTypeFactors;
+        private final boolean fixedPoint;
+        private AirlinePricing[] airlines;
+        // Counts of the forks added to this context (see addCounts)
+        private long forkedFlights;
+        private long forkedFixedPriceHits;
+        private long forkedRuleEvaluations;
+
+        private PricingContext(int daysToDeparture, PassengerMix mix) {
+            int types = PassengerType.values().length;
+            passengers = new int[types];
+            for(int t = 0; t < types; t++) {
+                passengers[t] = mix.count(t);
+            }
+
+            // Days coefficient * type coefficient * number of passengers, by passenger type
+            Rules rules = PriceService.this.rules;
+            DaysRule daysRule = rules.findDaysRule(daysToDeparture);
+            typeFactors = new BigDecimal[types];
+            fixedTypeFactors = new long[types];
+            boolean exact = rules.fixedPointExact;
+            for(PassengerType type : PassengerType.values()) {
+                int t = type.ordinal();
+                BigDecimal factor = BigDecimal.valueOf(passengers[t]);
+                if(daysRule != null) { factor = factor.multiply(daysRule.coefficient); }
+                if(rules.typeCoefficients[t] != null) { factor = factor.multiply(rules.typeCoefficients[t]); }
+                typeFactors[t] = factor;
+                if(exact) {
+                    try {
+                        long daysCoefficient = (daysRule == null) ? COEFFICIENT_ONE : daysRule.fixedCoefficient;
+                        fixedTypeFactors[t] = multiplyExact(multiplyExact(daysCoefficient, rules.fixedTypeCoefficients[t]), passengers[t]);
+                    } catch(ArithmeticException ex) {
+                        exact = false;
+                    }
+                }
+            }
+            fixedPoint = exact;
+            airlines = new AirlinePricing[8];
+        }
+
+        private PricingContext(PricingContext parent) {
+            // Resolved rules are never modified, so they are shared
+            passengers = parent.passengers;
+            typeFactors = parent.typeFactors;
+            fixedTypeFactors = parent.fixedTypeFactors;
+            fixedPoint = parent.fixedPoint;
+            airlines = new AirlinePricing[parent.airlines.length];
+        }
+
+        /**
+         * Creates a context with the same rules and parameters as this one, to price flights in other thread.
+         *
+         * @return New context, with its own cache of prices
+         */
+        public PricingContext fork() {
+            return new PricingContext(this);
+        }
+
+        /**
+         * Adds the flights priced by a fork to the counts of this context
+         *
+         * @param fork Context created with fork, not used any more
+         */
+        public void addCounts(PricingContext fork) {
+            forkedFlights += fork.pricedFlights();
+            forkedFixedPriceHits += fork.fixedPriceHits();
+            forkedRuleEvaluations += fork.ruleEvaluations();
+        }
+
+        /**
+         * Calculates a flight price. Same result as calculatePrice with the context parameters.
+         *
+         * @param basePriceCents Price used as base to apply the rules, in cents.
+         * @param airlineId Id of the airline, used to reuse calculations for flights of the same airline.
+         * @param fixedPrices Fixed prices of all the airlines, read once per airline.
+         * @return Price for all passengers
+         */
+        public BigDecimal price(long basePriceCents, int airlineId, FixedPriceTable fixedPrices) {
+            AirlinePricing airline = (airlineId < airlines.length) ? airlines[airlineId] : null;
+            if(airline == null) {
+                airline = airline(airlineId, fixedPrices.cents(), FixedPriceTable.offset(airlineId));
+            }
+            return price(basePriceCents, airline);
+        }
+
+        /**
+         * Calculates a flight price in cents. Same result as price, without creating nor caching
+         * BigDecimals when the price can be calculated with longs.
+         *
+         * @param basePriceCents Price used as base to apply the rules, in cents.
+         * @param airlineId Id of the airline, used to reuse calculations for flights of the same airline.
+         * @param fixedPrices Fixed prices of all the airlines, read once per airline.
+         * @return Price for all passengers, in cents
+         */
+        public long priceCents(long basePriceCents, int airlineId, FixedPriceTable fixedPrices) {
+            AirlinePricing airline = (airlineId < airlines.length) ? airlines[airlineId] : null;
+            if(airline == null) {
+                airline = airline(airlineId, fixedPrices.cents(), FixedPriceTable.offset(airlineId));
+            }
+            if(airline.fixedPoint) {
+                try {
+                    long amount = addExact(multiplyExact(basePriceCents, airline.factor), airline.fixedAmount);
+                    airline.flights++;
+                    return roundHalfEven(amount, AMOUNT_TO_CENTS);
+                } catch(ArithmeticException ex) {
+                    // Overflow: amounts too big for longs
+                }
+            }
+            return Money.toCents(price(basePriceCents, airline));
+        }
+
+        private BigDecimal price(long basePriceCents, AirlinePricing airline) {
+            airline.flights++;
+            BigDecimal price = (basePriceCents < 0) ? null : airline.prices.get(basePriceCents);
+            if(price == null) {
+                if(airline.fixedPoint) {
+                    try {
+                        long amount = addExact(multiplyExact(basePriceCents, airline.factor), airline.fixedAmount);
+                        price = Money.fromCents(roundHalfEven(amount, AMOUNT_TO_CENTS));
+                    } catch(ArithmeticException ex) {
+                        // Overflow: amounts too big for longs
+                    }
+                }
+                if(price == null) {
+                    price = Money.fromCents(basePriceCents).multiply(airline.factorBig).add(airline.fixedAmountBig)
+                            .setScale(2, RoundingMode.HALF_EVEN);
+                }
+                if(basePriceCents >= 0) { airline.prices.put(basePriceCents, price); }
+            }
+            return price;
+        }
+
+        /**
+         * Calculates a lower bound for the price of any flight with a base price, whatever its airline.
+         *
+         * Prices never decrease when base prices increase (coefficients can't be negative), so the
+         * bound of a base price is also valid for all the flights with higher base prices.
+         *
+         * @param basePriceCents Base price, in cents.
+         * @param minFixedPriceCents Lowest fixed price of the airlines by passenger type ordinal, NO_FIXED_PRICE if none has one.
+         * @return Price in cents that no flight with that base price is cheaper than, Long.MIN_VALUE if it can't be calculated.
+         */
+        public long lowerBoundCents(long basePriceCents, long[] minFixedPriceCents) {
+            if(!fixedPoint) { return Long.MIN_VALUE; }
+            try {
+                long amount = 0;
+                for(int t = 0; t < passengers.length; t++) {
+                    if(passengers[t] == 0) { continue; }
+                    long price = multiplyExact(basePriceCents, fixedTypeFactors[t]);
+                    if(minFixedPriceCents[t] != NO_FIXED_PRICE) {
+                        price = Math.min(price, multiplyExact(multiplyExact(minFixedPriceCents[t], AMOUNT_TO_CENTS), passengers[t]));
+                    }
+                    amount = addExact(amount, price);
+                }
+                return roundHalfEven(amount, AMOUNT_TO_CENTS);
+            } catch(ArithmeticException ex) {
+                return Long.MIN_VALUE;
+            }
+        }
+
+        /**
+         * @return Number of flights priced with this context
+         */
+        public long pricedFlights() {
+            long flights = forkedFlights;
+            for(AirlinePricing airline : airlines) {
+                if(airline != null) { flights += airline.flights; }
+            }
+            return flights;
+        }
+
+        /**
+         * @return Number of passenger types with a fixed price, added for all the flights priced
+         */
+        public long fixedPriceHits() {
+            long hits = forkedFixedPriceHits;
+            for(AirlinePricing airline : airlines) {
+                if(airline != null) { hits += airline.flights * airline.fixedTypes; }
+            }
+            return hits;
+        }
+
+        /**
+         * @return Number of passenger types priced with the rules, added for all the flights priced
+         */
+        public long ruleEvaluations() {
+            long evaluations = forkedRuleEvaluations;
+            for(AirlinePricing airline : airlines) {
+                if(airline != null) { evaluations += airline.flights * airline.ruleTypes; }
+            }
+            return evaluations;
+        }
+
+        // Sums the factors of the passengers without fixed price and the fixed prices of the rest.
+        // Fixed prices of the airline start at offset.
+        private AirlinePricing airline(int airlineId, long[] fixedPriceCents, int offset) {
+            if(airlineId >= airlines.length) {
+                airlines = Arrays.copyOf(airlines, Math.max(airlines.length * 2, airlineId + 1));
+            }
+            AirlinePricing airline = airlines[airlineId];
+            if(airline == null) {
+                airline = new AirlinePricing();
+                airline.factorBig = BigDecimal.ZERO;
+                airline.fixedAmountBig = BigDecimal.ZERO;
+                airline.fixedPoint = fixedPoint;
+                for(int t = 0; t < passengers.length; t++) {
+                    if(passengers[t] == 0) { continue; }
+                    if(fixedPriceCents[offset + t] != NO_FIXED_PRICE) {
+                        airline.fixedAmountBig = airline.fixedAmountBig.add(
+                                Money.fromCents(fixedPriceCents[offset + t]).multiply(BigDecimal.valueOf(passengers[t])));
+                        airline.fixedTypes++;
+                    } else {
+                        airline.factorBig = airline.factorBig.add(typeFactors[t]);
+                        airline.ruleTypes++;
+                    }
+                    if(airline.fixedPoint) {
+                        try {
+                            if(fixedPriceCents[offset + t] != NO_FIXED_PRICE) {
+                                long amount = multiplyExact(multiplyExact(fixedPriceCents[offset + t], AMOUNT_TO_CENTS), passengers[t]);
+                                airline.fixedAmount = addExact(airline.fixedAmount, amount);
+                            } else {
+                                airline.factor = addExact(airline.factor, fixedTypeFactors[t]);
+                            }
+                        } catch(ArithmeticException ex) {
+                            airline.fixedPoint = false;
+                        }
+                    }
+                }
+                airline.prices = new LongObjectMap<>();
+                airlines[airlineId] = airline;
+            }
+            return airline;
+        }
+    }
+
+    private static class AirlinePricing {
+        private boolean fixedPoint;
+        private long factor;
+        private long fixedAmount;
+        private BigDecimal factorBig;
+        private BigDecimal fixedAmountBig;
+        private LongObjectMap<BigDecimal> prices;
+        // Passenger types with fixed price and with rules, and flights priced (for metrics)
+        private int fixedTypes;
+        private int ruleTypes;
+        private long flights;
+    }
+
+    /**
+     * All the rules at some point, with their version. Never modified: adding a rule replaces the
+     * whole object, so a price is always calculated with the rules and version of one of them.
+     */
+    private static final class Rules {
+
+        private final DaysRule[] daysRules;
+        // Days rules compiled for lookup, keeping first-match-wins: rule by day up to the horizon, and
+        // rule by sorted disjoint intervals covering all days (start of each interval, null rule if none matches)
+        private final DaysRule[] daysTable;
+        private final int[] daysIntervalStarts;
+        private final DaysRule[] daysIntervalRules;
+        // Passenger type coefficients by type ordinal, null if the type has no rule
+        private final BigDecimal[] typeCoefficients;
+        private final long[] fixedTypeCoefficients;
+        private final boolean fixedPointExact;
+        private final long version;
+
+        Rules(DaysRule[] daysRules, BigDecimal[] typeCoefficients, long version) {
+            this.daysRules = daysRules;
+            this.typeCoefficients = typeCoefficients;
+            this.version = version;
+
+            // Splits the days axis at every rule boundary. Inside each piece the same rules match,
+            // so the first matching rule is resolved once per piece.
+            TreeSet<Integer> boundaries = new TreeSet<>();
+            boundaries.add(0);
+            for(DaysRule daysRule : daysRules) {
+                boundaries.add(daysRule.min);
+                if(daysRule.max < Integer.MAX_VALUE) { boundaries.add(daysRule.max + 1); }
+            }
+            Integer[] starts = boundaries.toArray(new Integer[boundaries.size()]);
+
+            DaysRule[] table = new DaysRule[DAYS_TABLE_HORIZON + 1];
+            List<Integer> intervalStarts = new ArrayList<>();
+            List<DaysRule> intervalRules = new ArrayList<>();
+            for(int i = 0; i < starts.length; i++) {
+                int start = starts[i];
+                int end = (i + 1 < starts.length) ? starts[i + 1] - 1 : Integer.MAX_VALUE;
+                DaysRule match = null;
+                for(DaysRule daysRule : daysRules) {
+                    if(start >= daysRule.min && start <= daysRule.max) {
+                        match = daysRule;
+                        break;
+                    }
+                }
+                if(start <= DAYS_TABLE_HORIZON) {
+                    Arrays.fill(table, start, Math.min(end, DAYS_TABLE_HORIZON) + 1, match);
+                }
+                if(intervalRules.isEmpty() || intervalRules.get(intervalRules.size() - 1) != match) {
+                    intervalStarts.add(start);
+                    intervalRules.add(match);
+                }
+            }
+            daysTable = table;
+            daysIntervalStarts = new int[intervalStarts.size()];
+            for(int i = 0; i < daysIntervalStarts.length; i++) {
+                daysIntervalStarts[i] = intervalStarts.get(i);
+            }
+            daysIntervalRules = intervalRules.toArray(new DaysRule[intervalRules.size()]);
+
+            boolean exact = true;
+            for(DaysRule daysRule : daysRules) {
+                exact &= daysRule.fixedCoefficient != INEXACT;
+            }
+            fixedTypeCoefficients = new long[typeCoefficients.length];
+            for(int t = 0; t < typeCoefficients.length; t++) {
+                fixedTypeCoefficients[t] = (typeCoefficients[t] == null) ? COEFFICIENT_ONE
+                        : toFixedCoefficient(typeCoefficients[t]);
+                exact &= fixedTypeCoefficients[t] != INEXACT;
+            }
+            fixedPointExact = exact;
+        }
+
+        private DaysRule findDaysRule(int daysToDeparture) {
+            if(daysToDeparture < 0) { return null; }
+            if(daysToDeparture <= DAYS_TABLE_HORIZON) { return daysTable[daysToDeparture]; }
+            return daysIntervalRules[daysIntervalIndex(daysToDeparture)];
+        }
+
+        private int daysIntervalIndex(int daysToDeparture) {
+            int index = Arrays.binarySearch(daysIntervalStarts, daysToDeparture);
+            return (index < 0) ? -index - 2 : index; // Interval starting before daysToDeparture
         }
     }
 
-    private final List<DaysRule> daysRules;
-    private final Map<PassengerType, BigDecimal> typeRules;
+    // Replaced (not modified) by each rule added, under the lock of this service
+    private volatile Rules rules;
 
     public PriceService() {
-        daysRules = new LinkedList<>();
-        typeRules = new HashMap<>();
+        rules = new Rules(new DaysRule[0], new BigDecimal[PassengerType.values().length], 0);
     }
 
     /**
@@ -42,14 +409,16 @@ class PriceService {
      * @param max Maximum for the day range
      * @param coefficient Coefficient to be applied
      */
-    public void addDaysToDepartureRule(int min, int max, BigDecimal coefficient) {
+    public synchronized void addDaysToDepartureRule(int min, int max, BigDecimal coefficient) {
         if(min > max) { throw new IllegalArgumentException("in must be <= max"); }
         if(min < 0) { throw new IllegalArgumentException("Negative days to departure not allowed"); }
         if(coefficient == null) { throw new IllegalArgumentException("Percentage is mandatory"); }
         if(coefficient.compareTo(BigDecimal.ZERO) < 0) { throw new IllegalArgumentException("Negative percentages not allowed"); }
 
-        DaysRule rule = new DaysRule(min, max, coefficient);
-        daysRules.add(rule);
+        Rules current = rules;
+        DaysRule[] daysRules = Arrays.copyOf(current.daysRules, current.daysRules.length + 1);
+        daysRules[daysRules.length - 1] = new DaysRule(min, max, coefficient);
+        rules = new Rules(daysRules, current.typeCoefficients, current.version + 1);
     }
 
     /**
@@ -60,12 +429,25 @@ class PriceService {
      * @param type Passenger type
      * @param coefficient Coefficient to be applied
      */
-    public void addPassengerTypeRule(PassengerType type, BigDecimal coefficient) {
+    public synchronized void addPassengerTypeRule(PassengerType type, BigDecimal coefficient) {
         if(type == null) { throw new IllegalArgumentException("Passenger type is mandatory"); }
         if(coefficient == null) { throw new IllegalArgumentException("Percentage is mandatory"); }
         if(coefficient.compareTo(BigDecimal.ZERO) < 0) { throw new IllegalArgumentException("Negative percentages not allowed"); }
 
-        typeRules.put(type, coefficient);
+        Rules current = rules;
+        BigDecimal[] typeCoefficients = current.typeCoefficients.clone();
+        typeCoefficients[type.ordinal()] = coefficient;
+        rules = new Rules(current.daysRules, typeCoefficients, current.version + 1);
+    }
+
+    /**
+     * Retrieves the version of the rules, that changes each time a rule is added. Prices calculated
+     * with other version may be different.
+     *
+     * @return Rules version
+     */
+    public long getRulesVersion() {
+        return rules.version;
     }
 
     /**
@@ -89,34 +471,210 @@ class PriceService {
      */
     public BigDecimal calculatePrice(BigDecimal basePrice, Map<PassengerType, BigDecimal> fixedPrices,
                                      int daysToDeparture, Collection<PassengersByType> passengers) {
+        return calculatePrice(basePrice, fixedPrices, daysToDeparture, PassengerMix.of(passengers));
+    }
+
+    /**
+     * Calculates a flight price based on price rules and flight data.
+     *
+     * Same as calculatePrice with a collection of passenger groups.
+     *
+     * @param basePrice Price used as base to apply the rules.
+     * @param fixedPrices Map of fixed prices indexed by passenger type.
+     * @param daysToDeparture Number of days to departure (used to match the 'days to departure' rules)
+     * @param passengers Number of passengers of each type
+     * @return Price for all passengers
+     */
+    public BigDecimal calculatePrice(BigDecimal basePrice, Map<PassengerType, BigDecimal> fixedPrices,
+                                     int daysToDeparture, PassengerMix passengers) {
+        return calculatePrice(rules, basePrice, fixedPrices, daysToDeparture, passengers);
+    }
+
+    private static BigDecimal calculatePrice(Rules rules, BigDecimal basePrice, Map<PassengerType, BigDecimal> fixedPrices,
+                                             int daysToDeparture, PassengerMix passengers) {
 
         BigDecimal result = BigDecimal.ZERO;
+        DaysRule daysRule = rules.findDaysRule(daysToDeparture);
 
-        for(PassengersByType passengersByType : passengers) {
+        for(PassengerType type : PassengerType.values()) {
 
-            PassengerType type = passengersByType.getType();
-            BigDecimal price;
-            if(fixedPrices.containsKey(type)) {
-                // Fixed prices override other calculations
-                price = fixedPrices.get(type);
-            } else {
+            int number = passengers.count(type);
+            if(number == 0) { continue; }
+            // Fixed prices override other calculations
+            BigDecimal price = fixedPrices.get(type);
+            if(price == null) {
                 // Apply rules
                 price = basePrice;
-                for(DaysRule daysRule : daysRules) {
-                    if(daysToDeparture >= daysRule.min && daysToDeparture <= daysRule.max) {
-                        price = price.multiply(daysRule.coefficient);
-                        break;
-                    }
+                if(daysRule != null) {
+                    price = price.multiply(daysRule.coefficient);
                 }
-                if(typeRules.containsKey(type)) {
-                    price = price.multiply(typeRules.get(type));
+                if(rules.typeCoefficients[type.ordinal()] != null) {
+                    price = price.multiply(rules.typeCoefficients[type.ordinal()]);
                 }
             }
             // Multiplied price by
-            price = price.multiply(BigDecimal.valueOf(passengersByType.getNumber()));
+            price = price.multiply(BigDecimal.valueOf(number));
             result = result.add(price);
         }
-        return result.setScale(2, BigDecimal.ROUND_HALF_EVEN);
+        return result.setScale(2, RoundingMode.HALF_EVEN);
+    }
+
+    /**
+     * Creates a context to calculate the prices of a search
+     *
+     * @param daysToDeparture Number of days to departure (used to match the 'days to departure' rules)
+     * @param passengers Collection of [Type, Num. of passengers] tuples describing the people flying.
+     * @return Pricing context. Rules added after its creation are not applied by it.
+     */
+    public PricingContext createContext(int daysToDeparture, Collection<PassengersByType> passengers) {
+        return new PricingContext(daysToDeparture, PassengerMix.of(passengers));
+    }
+
+    /**
+     * Creates a context to calculate the prices of a search
+     *
+     * @param daysToDeparture Number of days to departure (used to match the 'days to departure' rules)
+     * @param passengers Number of passengers of each type
+     * @return Pricing context. Rules added after its creation are not applied by it.
+     */
+    public PricingContext createContext(int daysToDeparture, PassengerMix passengers) {
+        return new PricingContext(daysToDeparture, passengers);
+    }
+
+    /**
+     * Calculates a flight price based on price rules and flight data, using scaled long arithmetic.
+     *
+     * Rules and precedence are the same as in calculatePrice, and so is the result (rounded half-even
+     * to cents), but it doesn't create objects when all coefficients have, at most, four decimals.
+     * Otherwise, or if the amounts are too big to be represented, it falls back to BigDecimal.
+     *
+     * @param basePriceCents Price used as base to apply the rules, in cents.
+     * @param fixedPriceCents Fixed prices in cents indexed by passenger type ordinal, NO_FIXED_PRICE if none.
+     * @param daysToDeparture Number of days to departure (used to match the 'days to departure' rules)
+     * @param passengers Collection of [Type, Num. of passengers] tuples describing the people flying.
+     * @return Price for all passengers, in cents
+     * @see #fixedPriceCents(Map)
+     */
+    public long calculatePriceCents(long basePriceCents, long[] fixedPriceCents,
+                                    int daysToDeparture, Collection<PassengersByType> passengers) {
+        return calculatePriceCents(basePriceCents, fixedPriceCents, daysToDeparture, PassengerMix.of(passengers));
+    }
+
+    /**
+     * Calculates a flight price based on price rules and flight data, using scaled long arithmetic.
+     *
+     * Same as calculatePriceCents with a collection of passenger groups.
+     *
+     * @param basePriceCents Price used as base to apply the rules, in cents.
+     * @param fixedPriceCents Fixed prices in cents indexed by passenger type ordinal, NO_FIXED_PRICE if none.
+     * @param daysToDeparture Number of days to departure (used to match the 'days to departure' rules)
+     * @param passengers Number of passengers of each type
+     * @return Price for all passengers, in cents
+     */
+    public long calculatePriceCents(long basePriceCents, long[] fixedPriceCents,
+                                    int daysToDeparture, PassengerMix passengers) {
+        Rules rules = this.rules;
+        if(rules.fixedPointExact) {
+            try {
+                return calculateFixedPoint(rules, basePriceCents, fixedPriceCents, daysToDeparture, passengers);
+            } catch(ArithmeticException ex) {
+                // Overflow: amounts too big for longs
+            }
+        }
+        Map<PassengerType, BigDecimal> fixedPrices = new EnumMap<>(PassengerType.class);
+        for(PassengerType type : PassengerType.values()) {
+            if(fixedPriceCents[type.ordinal()] != NO_FIXED_PRICE) {
+                fixedPrices.put(type, Money.fromCents(fixedPriceCents[type.ordinal()]));
+            }
+        }
+        return Money.toCents(calculatePrice(rules, Money.fromCents(basePriceCents), fixedPrices, daysToDeparture, passengers));
+    }
+
+    /**
+     * Converts a map of fixed prices to the array form used by calculatePriceCents
+     *
+     * @param fixedPrices Map of fixed prices indexed by passenger type. At most two decimals.
+     * @return Fixed prices in cents indexed by passenger type ordinal, NO_FIXED_PRICE if none.
+     */
+    public static long[] fixedPriceCents(Map<PassengerType, BigDecimal> fixedPrices) {
+        long[] result = new long[PassengerType.values().length];
+        for(PassengerType type : PassengerType.values()) {
+            BigDecimal price = fixedPrices.get(type);
+            result[type.ordinal()] = (price == null) ? NO_FIXED_PRICE : Money.toCents(price);
+        }
+        return result;
+    }
+
+    private static long calculateFixedPoint(Rules rules, long basePriceCents, long[] fixedPriceCents,
+                                            int daysToDeparture, PassengerMix passengers) {
+        DaysRule daysRule = rules.findDaysRule(daysToDeparture);
+        long daysCoefficient = (daysRule == null) ? COEFFICIENT_ONE : daysRule.fixedCoefficient;
+
+        // Amounts are cents * 10^8 (a days coefficient and a type coefficient), so products are exact
+        long result = 0;
+        for(int type = 0; type < fixedPriceCents.length; type++) {
+            int number = passengers.count(type);
+            if(number == 0) { continue; }
+            long price;
+            if(fixedPriceCents[type] != NO_FIXED_PRICE) {
+                price = multiplyExact(fixedPriceCents[type], AMOUNT_TO_CENTS);
+            } else {
+                price = multiplyExact(multiplyExact(basePriceCents, daysCoefficient), rules.fixedTypeCoefficients[type]);
+            }
+            price = multiplyExact(price, number);
+            result = addExact(result, price);
+        }
+        return roundHalfEven(result, AMOUNT_TO_CENTS);
+    }
+
+    /**
+     * Retrieves until when the 'days to departure' rule applied to a number of days keeps being the same.
+     *
+     * Prices only depend on the days to departure through that rule, so they are the same for
+     * all the days between daysToDeparture and the returned value.
+     *
+     * @param daysToDeparture Number of days to departure
+     * @return Last number of days (greater or equal to daysToDeparture) with the same rule applied
+     */
+    public int daysRuleEnd(int daysToDeparture) {
+        if(daysToDeparture < 0) { return -1; } // No rule applies to negative days
+        Rules rules = this.rules;
+        int next = rules.daysIntervalIndex(daysToDeparture) + 1;
+        return (next < rules.daysIntervalStarts.length) ? rules.daysIntervalStarts[next] - 1 : Integer.MAX_VALUE;
+    }
+
+    private static long toFixedCoefficient(BigDecimal coefficient) {
+        try {
+            return coefficient.movePointRight(COEFFICIENT_SCALE).longValueExact();
+        } catch(ArithmeticException ex) {
+            return INEXACT; // Too many decimals (or too big) to be used in fixed-point
+        }
+    }
+
+    // Same rounding as BigDecimal.ROUND_HALF_EVEN on value / divisor (divisor > 0)
+    private static long roundHalfEven(long value, long divisor) {
+        long quotient = value / divisor;
+        long remainder = Math.abs(value % divisor);
+        if(remainder > divisor - remainder || (remainder == divisor - remainder && (quotient & 1) != 0)) {
+            quotient += (value < 0) ? -1 : 1;
+        }
+        return quotient;
+    }
+
+    private static long multiplyExact(long a, long b) {
+        long result = a * b;
+        if(((Math.abs(a) | Math.abs(b)) >>> 31) != 0) {
+            if((b != 0 && result / b != a) || (a == Long.MIN_VALUE && b == -1)) {
+                throw new ArithmeticException("long overflow");
+            }
+        }
+        return result;
+    }
+
+    private static long addExact(long a, long b) {
+        long result = a + b;
+        if(((a ^ result) & (b ^ result)) < 0) { throw new ArithmeticException("long overflow"); }
+        return result;
     }
 
 }
@@ -0,0 +1,287 @@
+package es.bdh.lmassignment;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Columnar storage for the flights of a route.
+ *
+ * Each flight is a position in parallel primitive arrays (flight id, airline id, base price in cents),
+ * so iterating a route is a linear scan over contiguous memory. Tables are immutable: they are
+ * created through a Builder once the route has been loaded, or read from a mapped snapshot file
+ * (see SnapshotFile). Changing a route creates a new table with a higher version.
+ */
+abstract class RouteTable {
+
+    static final RouteTable EMPTY = new ArrayTable(new int[0], new int[0], new long[0], 0);
+
+    private static final long NOT_CALCULATED = Long.MIN_VALUE;
+
+    // Positions sorted by base price and lowest base price, computed when first needed
+    private volatile int[] priceOrder;
+    private volatile long minBasePrice = NOT_CALCULATED;
+
+    /**
+     * @return Number of flights in the route
+     */
+    public abstract int size();
+
+    /**
+     * @param index Position of the flight in the route
+     * @return Id of the flight code
+     */
+    public abstract int flightId(int index);
+
+    /**
+     * @param index Position of the flight in the route
+     * @return Id of the airline that operates the flight
+     */
+    public abstract int airlineId(int index);
+
+    /**
+     * @param index Position of the flight in the route
+     * @return Base price in cents
+     */
+    public abstract long basePrice(int index);
+
+    /**
+     * Retrieves the version of the table: the version of the database snapshot where the route
+     * last changed (see Database.Snapshot.version).
+     *
+     * @return Version, 0 for routes not changed since they were loaded from a file
+     */
+    public long version() {
+        return 0;
+    }
+
+    /**
+     * Finds the position of a flight
+     *
+     * @param flightId Id of the flight code
+     * @return Position of the flight in the route, -1 if it's not in the route
+     */
+    public int indexOf(int flightId) {
+        for(int i = 0; i < size(); i++) {
+            if(flightId(i) == flightId) { return i; }
+        }
+        return -1;
+    }
+
+    /**
+     * Retrieves the positions of the flights sorted by base price, cheapest first (same prices
+     * keep their order in the table). It's calculated once per table.
+     *
+     * @return Positions of the flights. Must not be modified.
+     */
+    public int[] priceOrder() {
+        int[] order = priceOrder;
+        if(order == null) {
+            Integer[] positions = new Integer[size()];
+            for(int i = 0; i < positions.length; i++) {
+                positions[i] = i;
+            }
+            // Stable sort
+            Arrays.sort(positions, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(basePrice(a), basePrice(b));
+                }
+            });
+            order = new int[positions.length];
+            for(int i = 0; i < order.length; i++) {
+                order[i] = positions[i];
+            }
+            priceOrder = order;
+        }
+        return order;
+    }
+
+    /**
+     * Retrieves the lowest base price of the flights, to bound the prices of the route without
+     * sorting nor pricing its flights. It's calculated once per table.
+     *
+     * @return Lowest base price in cents, Long.MAX_VALUE if there are no flights
+     */
+    public long minBasePrice() {
+        long min = minBasePrice;
+        if(min == NOT_CALCULATED) {
+            int[] order = priceOrder;
+            if(order != null) {
+                min = (order.length == 0) ? Long.MAX_VALUE : basePrice(order[0]);
+            } else {
+                min = Long.MAX_VALUE;
+                for(int i = 0; i < size(); i++) {
+                    min = Math.min(min, basePrice(i));
+                }
+            }
+            minBasePrice = min;
+        }
+        return min;
+    }
+
+    // Table stored in heap arrays
+    private static final class ArrayTable extends RouteTable {
+
+        private final int[] flightIds;
+        private final int[] airlineIds;
+        private final long[] basePrices;
+        private final long version;
+
+        private ArrayTable(int[] flightIds, int[] airlineIds, long[] basePrices, long version) {
+            this.flightIds = flightIds;
+            this.airlineIds = airlineIds;
+            this.basePrices = basePrices;
+            this.version = version;
+        }
+
+        @Override
+        public int size() {
+            return flightIds.length;
+        }
+
+        @Override
+        public int flightId(int index) {
+            return flightIds[index];
+        }
+
+        @Override
+        public int airlineId(int index) {
+            return airlineIds[index];
+        }
+
+        @Override
+        public long basePrice(int index) {
+            return basePrices[index];
+        }
+
+        @Override
+        public long version() {
+            return version;
+        }
+    }
+
+    /**
+     * Accumulates the flights of a route while it's being loaded or changed
+     */
+    static class Builder {
+
+        private int[] flightIds;
+        private int[] airlineIds;
+        private long[] basePrices;
+        private int size;
+
+        public Builder() {
+            flightIds = new int[4];
+            airlineIds = new int[4];
+            basePrices = new long[4];
+        }
+
+        /**
+         * Creates a builder that starts with the flights of an existing table
+         *
+         * @param table Table to copy
+         */
+        public Builder(RouteTable table) {
+            int capacity = Math.max(4, table.size() + table.size() / 2);
+            if(table instanceof ArrayTable) {
+                ArrayTable arrays = (ArrayTable) table;
+                flightIds = Arrays.copyOf(arrays.flightIds, capacity);
+                airlineIds = Arrays.copyOf(arrays.airlineIds, capacity);
+                basePrices = Arrays.copyOf(arrays.basePrices, capacity);
+                size = table.size();
+            } else {
+                flightIds = new int[capacity];
+                airlineIds = new int[capacity];
+                basePrices = new long[capacity];
+                for(int i = 0; i < table.size(); i++) {
+                    add(table.flightId(i), table.airlineId(i), table.basePrice(i));
+                }
+            }
+        }
+
+        /**
+         * Appends a flight to the route
+         *
+         * @param flightId Id of the flight code
+         * @param airlineId Id of the airline
+         * @param basePrice Base price in cents
+         */
+        public void add(int flightId, int airlineId, long basePrice) {
+            if(size == flightIds.length) {
+                int capacity = size * 2;
+                flightIds = Arrays.copyOf(flightIds, capacity);
+                airlineIds = Arrays.copyOf(airlineIds, capacity);
+                basePrices = Arrays.copyOf(basePrices, capacity);
+            }
+            flightIds[size] = flightId;
+            airlineIds[size] = airlineId;
+            basePrices[size] = basePrice;
+            size++;
+        }
+
+        /**
+         * Removes a flight, keeping the order of the rest
+         *
+         * @param index Position of the flight
+         */
+        public void remove(int index) {
+            if(index < 0 || index >= size) { throw new IndexOutOfBoundsException("Flight not found: " + index); }
+            int moved = size - index - 1;
+            System.arraycopy(flightIds, index + 1, flightIds, index, moved);
+            System.arraycopy(airlineIds, index + 1, airlineIds, index, moved);
+            System.arraycopy(basePrices, index + 1, basePrices, index, moved);
+            size--;
+        }
+
+        /**
+         * Changes the base price of a flight
+         *
+         * @param index Position of the flight
+         * @param basePrice Base price in cents
+         */
+        public void setBasePrice(int index, long basePrice) {
+            if(index < 0 || index >= size) { throw new IndexOutOfBoundsException("Flight not found: " + index); }
+            basePrices[index] = basePrice;
+        }
+
+        /**
+         * Finds the position of a flight
+         *
+         * @param flightId Id of the flight code
+         * @return Position of the flight, -1 if it's not in the route
+         */
+        public int indexOf(int flightId) {
+            for(int i = 0; i < size; i++) {
+                if(flightIds[i] == flightId) { return i; }
+            }
+            return -1;
+        }
+
+        /**
+         * @return Number of flights in the route
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Freezes the flights added so far into a compact table
+         *
+         * @return Immutable table, with arrays trimmed to the number of flights
+         */
+        public RouteTable build() {
+            return build(0);
+        }
+
+        /**
+         * Freezes the flights added so far into a compact table
+         *
+         * @param version Version of the table (see RouteTable.version)
+         * @return Immutable table, with arrays trimmed to the number of flights
+         */
+        public RouteTable build(long version) {
+            return new ArrayTable(Arrays.copyOf(flightIds, size), Arrays.copyOf(airlineIds, size),
+                    Arrays.copyOf(basePrices, size), version);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package es.bdh.lmassignment;
+
+import java.util.Arrays;
+
+/**
+ * Secondary indexes of a database snapshot: the destinations with flights from each airport, the
+ * origins with flights to each airport, and the flights of each airline.
+ *
+ * Each index keeps a bucket of sorted ids for each airport or airline id, so a query returns its
+ * ids without looking at any other route or flight. Buckets are grouped in chunks of CHUNK_SIZE ids.
+ *
+ * Indexes are immutable: commits derive the next one (see update) copying the array of chunks, the
+ * chunks they change and the buckets they change, and the rest are shared with the previous
+ * snapshot. Ids added after the last one of a bucket (new flights of an airline, as flight ids only
+ * grow) are appended to the array of the bucket when it has room, and the new bucket shares it:
+ * buckets only read their own size, so the previous snapshot doesn't see them. Arrays are grown by
+ * half when they are full, so adding flights one commit at a time doesn't copy all the flights of
+ * the airline each time. Removing ids copies the bucket.
+ */
+final class ScheduleIndex {
+
+    private static final int CHUNK_BITS = 6;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int[] NONE = new int[0];
+
+    /** Index without routes */
+    static final ScheduleIndex EMPTY = new ScheduleIndex(new Bucket[0][], new Bucket[0][], new Bucket[0][]);
+
+    private final Bucket[][] destinations;
+    private final Bucket[][] origins;
+    private final Bucket[][] flights;
+    // Only the first index derived from this one may append to its buckets (used only by writers)
+    private boolean updated;
+
+    private ScheduleIndex(Bucket[][] destinations, Bucket[][] origins, Bucket[][] flights) {
+        this.destinations = destinations;
+        this.origins = origins;
+        this.flights = flights;
+    }
+
+    // Ids of an airport or airline: the first size values of the array
+    private static final class Bucket {
+        private final int[] values;
+        private final int size;
+
+        Bucket(int[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Indexes all the routes and flights of a snapshot
+     *
+     * @param snapshot Snapshot
+     * @return Index
+     */
+    static ScheduleIndex build(Database.Snapshot snapshot) {
+        Changes changes = new Changes();
+        for(long routeKey : snapshot.routeKeys()) {
+            changes.addRoute(routeKey);
+            RouteTable route = snapshot.route(routeKey);
+            for(int i = 0; i < route.size(); i++) {
+                changes.addFlight(route.airlineId(i), route.flightId(i));
+            }
+        }
+        return EMPTY.update(changes);
+    }
+
+    /**
+     * @param originId Id of the origin airport
+     * @return Ids of the airports with flights from the origin, sorted. Must not be modified.
+     */
+    public int[] destinations(int originId) {
+        return get(destinations, originId);
+    }
+
+    /**
+     * @param destId Id of the destination airport
+     * @return Ids of the airports with flights to the destination, sorted. Must not be modified.
+     */
+    public int[] origins(int destId) {
+        return get(origins, destId);
+    }
+
+    /**
+     * @param airlineId Airline id
+     * @return Ids of the flights of the airline, sorted. Must not be modified.
+     */
+    public int[] flights(int airlineId) {
+        return get(flights, airlineId);
+    }
+
+    /**
+     * Creates the index with some changes applied. The first index created from this one appends
+     * to the arrays of its buckets; indexes created from it afterwards copy them.
+     *
+     * @param changes Routes and flights added and removed
+     * @return New index, this one if there are no changes
+     */
+    ScheduleIndex update(Changes changes) {
+        if(changes.isEmpty()) { return this; }
+        boolean append = !updated;
+        updated = true;
+        return new ScheduleIndex(
+                update(destinations, changes.addedRoutes, changes.addedRouteCount, changes.removedRoutes,
+                        changes.removedRouteCount, append),
+                update(origins, reverse(changes.addedRoutes, changes.addedRouteCount), changes.addedRouteCount,
+                        reverse(changes.removedRoutes, changes.removedRouteCount), changes.removedRouteCount, append),
+                update(flights, changes.addedFlights, changes.addedFlightCount, changes.removedFlights,
+                        changes.removedFlightCount, append));
+    }
+
+    /**
+     * Routes and flights added and removed by a commit. Routes are added when they get their first
+     * flight and removed when they lose their last one.
+     */
+    static final class Changes {
+
+        // (key << 32 | value) pairs: origin and destination ids for routes (as route keys),
+        // airline and flight ids for flights
+        private long[] addedRoutes = new long[4];
+        private int addedRouteCount;
+        private long[] removedRoutes = new long[4];
+        private int removedRouteCount;
+        private long[] addedFlights = new long[4];
+        private int addedFlightCount;
+        private long[] removedFlights = new long[4];
+        private int removedFlightCount;
+
+        /**
+         * @param routeKey Key of a route that got its first flight
+         */
+        public void addRoute(long routeKey) {
+            addedRoutes = append(addedRoutes, addedRouteCount++, routeKey);
+        }
+
+        /**
+         * @param routeKey Key of a route that lost its last flight
+         */
+        public void removeRoute(long routeKey) {
+            removedRoutes = append(removedRoutes, removedRouteCount++, routeKey);
+        }
+
+        /**
+         * @param airlineId Id of the airline of the flight
+         * @param flightId Id of the flight added
+         */
+        public void addFlight(int airlineId, int flightId) {
+            addedFlights = append(addedFlights, addedFlightCount++, pair(airlineId, flightId));
+        }
+
+        /**
+         * @param airlineId Id of the airline of the flight
+         * @param flightId Id of the flight removed
+         */
+        public void removeFlight(int airlineId, int flightId) {
+            removedFlights = append(removedFlights, removedFlightCount++, pair(airlineId, flightId));
+        }
+
+        /**
+         * @return Whether nothing changed
+         */
+        public boolean isEmpty() {
+            return addedRouteCount == 0 && removedRouteCount == 0 && addedFlightCount == 0 && removedFlightCount == 0;
+        }
+
+        private static long[] append(long[] pairs, int index, long pair) {
+            if(index == pairs.length) { pairs = Arrays.copyOf(pairs, index * 2); }
+            pairs[index] = pair;
+            return pairs;
+        }
+    }
+
+    private static int[] get(Bucket[][] index, int id) {
+        Bucket bucket = bucket(index, id);
+        if(bucket == null) { return NONE; }
+        return (bucket.size == bucket.values.length) ? bucket.values : Arrays.copyOf(bucket.values, bucket.size);
+    }
+
+    private static Bucket bucket(Bucket[][] index, int id) {
+        int chunk = id >>> CHUNK_BITS;
+        if(id < 0 || chunk >= index.length || index[chunk] == null) { return null; }
+        return index[chunk][id & (CHUNK_SIZE - 1)];
+    }
+
+    private static long pair(int key, int value) {
+        return ((long) key << 32) | (value & 0xFFFFFFFFL);
+    }
+
+    // Route keys with origin and destination swapped
+    private static long[] reverse(long[] routeKeys, int count) {
+        long[] reversed = new long[count];
+        for(int i = 0; i < count; i++) {
+            reversed[i] = pair((int) routeKeys[i], (int) (routeKeys[i] >>> 32));
+        }
+        return reversed;
+    }
+
+    // Copies an index adding and removing values, merging the changes of each key at once
+    private static Bucket[][] update(Bucket[][] index, long[] added, int addedCount, long[] removed, int removedCount,
+                                     boolean append) {
+        if(addedCount == 0 && removedCount == 0) { return index; }
+        added = Arrays.copyOf(added, addedCount);
+        removed = Arrays.copyOf(removed, removedCount);
+        Arrays.sort(added);
+        Arrays.sort(removed);
+        int chunks = index.length;
+        if(addedCount > 0) { chunks = Math.max(chunks, ((int) (added[addedCount - 1] >>> 32) >>> CHUNK_BITS) + 1); }
+        Bucket[][] result = Arrays.copyOf(index, chunks);
+
+        int a = 0;
+        int r = 0;
+        while(a < addedCount || r < removedCount) {
+            int key = (int) (Math.min(a < addedCount ? added[a] : Long.MAX_VALUE, r < removedCount ? removed[r] : Long.MAX_VALUE) >>> 32);
+            int addedEnd = a;
+            while(addedEnd < addedCount && (int) (added[addedEnd] >>> 32) == key) { addedEnd++; }
+            int removedEnd = r;
+            while(removedEnd < removedCount && (int) (removed[removedEnd] >>> 32) == key) { removedEnd++; }
+
+            // Chunks of the previous index are copied once
+            int chunk = key >>> CHUNK_BITS;
+            if(result[chunk] == null) {
+                result[chunk] = new Bucket[CHUNK_SIZE];
+            } else if(chunk < index.length && result[chunk] == index[chunk]) {
+                result[chunk] = index[chunk].clone();
+            }
+            int position = key & (CHUNK_SIZE - 1);
+            result[chunk][position] = update(result[chunk][position], added, a, addedEnd, removed, r, removedEnd, append);
+            a = addedEnd;
+            r = removedEnd;
+        }
+        return result;
+    }
+
+    // Bucket with the values added and removed (pairs of the same key, sorted), null if it's empty
+    private static Bucket update(Bucket bucket, long[] added, int addedStart, int addedEnd,
+                                 long[] removed, int removedStart, int removedEnd, boolean append) {
+        int size = (bucket == null) ? 0 : bucket.size;
+        int[] values = (bucket == null) ? NONE : bucket.values;
+        if(removedStart == removedEnd && (size == 0 || (int) added[addedStart] > values[size - 1])) {
+            // Only values after the last one: appended, in place if there's room
+            int count = addedEnd - addedStart;
+            int[] target = (append && values.length >= size + count) ? values
+                    : Arrays.copyOf(values, Math.max(size + count, size + size / 2));
+            int newSize = size;
+            for(int i = addedStart; i < addedEnd; i++) {
+                int value = (int) added[i];
+                if(newSize == size || target[newSize - 1] != value) { target[newSize++] = value; }
+            }
+            return new Bucket(target, newSize);
+        }
+        int[] merged = merge(values, size, added, addedStart, addedEnd, removed, removedStart, removedEnd);
+        return (merged == null) ? null : new Bucket(merged, merged.length);
+    }
+
+    // Sorted values plus the added ones minus the removed ones (pairs of the same key, sorted)
+    private static int[] merge(int[] values, int valueCount, long[] added, int addedStart, int addedEnd,
+                               long[] removed, int removedStart, int removedEnd) {
+        int[] result = new int[valueCount + addedEnd - addedStart];
+        int size = 0;
+        int v = 0;
+        int a = addedStart;
+        int r = removedStart;
+        while(v < valueCount || a < addedEnd) {
+            int next;
+            if(a == addedEnd || (v < valueCount && values[v] <= (int) added[a])) {
+                next = values[v++];
+            } else {
+                next = (int) added[a++];
+            }
+            while(r < removedEnd && (int) removed[r] < next) { r++; }
+            if(r < removedEnd && (int) removed[r] == next) { continue; }
+            if(size > 0 && result[size - 1] == next) { continue; }
+            result[size++] = next;
+        }
+        return (size == 0) ? null : (size == result.length) ? result : Arrays.copyOf(result, size);
+    }
+}
@@ -0,0 +1,241 @@
+package es.bdh.lmassignment;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of search results, by route, days to departure and passengers of each type.
+ *
+ * Each entry remembers what its results were calculated from: the route table, the airlines of the
+ * snapshot and the version of the price rules. Tables and airlines are never modified but replaced
+ * when they change, so an entry is only used while the current ones are the same objects: adding
+ * a flight invalidates the entries of its route and no other, changing an airline invalidates all
+ * of them, and so does adding a price rule. Entries also expire after a time to live.
+ *
+ * Entries are split in segments by key hash, each one with its own lock and least recently used
+ * order, so the least recently used entry of a full segment is evicted to add a new one.
+ */
+class SearchCache {
+
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_ENTRIES = 64;
+
+    /**
+     * Canonical search: same key for the same prices, whatever the order and grouping of passengers
+     * or the dates used
+     */
+    static final class Key {
+        private final String originCode;
+        private final String destCode;
+        private final int daysToDeparture;
+        private final long passengers;
+        private final int hash;
+
+        /**
+         * @param originCode IATA code for origin airport
+         * @param destCode IATA code for destination airport
+         * @param daysToDeparture Days from today to departure
+         * @param passengers Number of passengers of each type
+         */
+        Key(String originCode, String destCode, int daysToDeparture, PassengerMix passengers) {
+            this.originCode = originCode;
+            this.destCode = destCode;
+            this.daysToDeparture = daysToDeparture;
+            this.passengers = passengers.toLong();
+            int h = originCode.hashCode();
+            h = 31 * h + destCode.hashCode();
+            h = 31 * h + daysToDeparture;
+            this.hash = 31 * h + Long.hashCode(this.passengers);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)) { return false; }
+            Key other = (Key) o;
+            return hash == other.hash && daysToDeparture == other.daysToDeparture && originCode.equals(other.originCode)
+                    && destCode.equals(other.destCode) && passengers == other.passengers;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        private final Collection<SearchService.SearchResult> results;
+        private final RouteTable route;
+        private final Airline[] airlines;
+        private final long rulesVersion;
+        private final long expiresAt;
+
+        Entry(Collection<SearchService.SearchResult> results, RouteTable route, Airline[] airlines, long rulesVersion,
+              long expiresAt) {
+            this.results = results;
+            this.route = route;
+            this.airlines = airlines;
+            this.rulesVersion = rulesVersion;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // Entries of a range of key hashes in least recently used order, guarded by the segment lock
+    private static final class Segment {
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    private final Segment[] segments;
+    private final int segmentCapacity;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Creates a cache
+     *
+     * @param maxEntries Maximum number of entries
+     * @param ttl Time to live of the entries
+     * @param unit Unit of the time to live
+     */
+    public SearchCache(int maxEntries, long ttl, TimeUnit unit) {
+        this(maxEntries, ttl, unit, System::nanoTime);
+    }
+
+    /**
+     * Creates a cache with a custom clock (for testing)
+     *
+     * @param maxEntries Maximum number of entries
+     * @param ttl Time to live of the entries
+     * @param unit Unit of the time to live
+     * @param clock Current time in nanoseconds
+     */
+    SearchCache(int maxEntries, long ttl, TimeUnit unit, LongSupplier clock) {
+        if(maxEntries < 1) { throw new IllegalArgumentException("At least one entry is needed"); }
+        if(ttl <= 0 || unit == null) { throw new IllegalArgumentException("Time to live must be positive"); }
+        // Power of two segments, with at least MIN_SEGMENT_ENTRIES each (small caches are exact LRU)
+        int segmentCount = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, maxEntries / MIN_SEGMENT_ENTRIES)));
+        this.segmentCapacity = maxEntries / segmentCount;
+        this.segments = new Segment[segmentCount];
+        for(int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment();
+        }
+        this.ttlNanos = unit.toNanos(ttl);
+        this.clock = clock;
+    }
+
+    /**
+     * Retrieves the results of a search, if they were calculated from the same data
+     *
+     * @param key Search
+     * @param route Current route table of the search
+     * @param airlines Current airlines (see Database.Snapshot.airlines)
+     * @param rulesVersion Current version of the price rules
+     * @return Results, null if they aren't cached or they are stale
+     */
+    public Collection<SearchService.SearchResult> get(Key key, RouteTable route, Airline[] airlines, long rulesVersion) {
+        Segment segment = segment(key);
+        synchronized(segment) {
+            Entry entry = segment.entries.get(key);
+            if(entry != null) {
+                if(entry.route == route && entry.airlines == airlines && entry.rulesVersion == rulesVersion
+                        && clock.getAsLong() - entry.expiresAt < 0) {
+                    hits.increment();
+                    return entry.results;
+                }
+                segment.entries.remove(key);
+                invalidations.increment();
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Stores the results of a search
+     *
+     * @param key Search
+     * @param route Route table used to calculate the results
+     * @param airlines Airlines used to calculate the results
+     * @param rulesVersion Version of the price rules read before calculating the results
+     * @param results Results. Must not be modified after this.
+     */
+    public void put(Key key, RouteTable route, Airline[] airlines, long rulesVersion,
+                    Collection<SearchService.SearchResult> results) {
+        Entry entry = new Entry(results, route, airlines, rulesVersion, clock.getAsLong() + ttlNanos);
+        Segment segment = segment(key);
+        synchronized(segment) {
+            if(segment.entries.put(key, entry) == null && segment.entries.size() > segmentCapacity) {
+                Iterator<Map.Entry<Key, Entry>> eldest = segment.entries.entrySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Removes all the entries
+     */
+    public void invalidateAll() {
+        for(Segment segment : segments) {
+            synchronized(segment) {
+                invalidations.add(segment.entries.size());
+                segment.entries.clear();
+            }
+        }
+    }
+
+    /**
+     * @return Number of entries
+     */
+    public int size() {
+        int size = 0;
+        for(Segment segment : segments) {
+            synchronized(segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return Number of searches found in the cache
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return Number of searches not found in the cache, or found stale
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return Number of entries removed to make room for others
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return Number of entries removed because they were stale or expired, or by invalidateAll
+     */
+    public long invalidations() {
+        return invalidations.sum();
+    }
+
+    private Segment segment(Key key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+}
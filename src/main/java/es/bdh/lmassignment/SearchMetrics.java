@@ -0,0 +1,147 @@
+package es.bdh.lmassignment;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of searches, by stage.
+ *
+ * Searches record them when the metrics are set in the SearchService (see SearchService.setMetrics).
+ * Without them, searches don't even read the clock. Counters are LongAdders and histograms are
+ * lock-free, so searches from many threads don't contend on them.
+ *
+ * Reporters (see MetricsReporter) read copies of them with snapshot.
+ */
+class SearchMetrics {
+
+    /**
+     * Stages of a search, timed separately
+     */
+    public enum Stage {
+        /** Getting the snapshot and the route table */
+        ROUTE_LOOKUP,
+        /** Pricing the flights of the route */
+        PRICING,
+        /** Creating the results from the prices */
+        RESULT_BUILDING,
+        /** Whole search, including the cache */
+        SEARCH
+    }
+
+    /**
+     * Immutable copy of the metrics at a point in time
+     */
+    static final class Snapshot {
+        private final long searches;
+        private final long flightsPriced;
+        private final long fixedPriceHits;
+        private final long ruleEvaluations;
+        private final Histogram.Snapshot flightsPerSearch;
+        private final Map<Stage, Histogram.Snapshot> latencies;
+
+        private Snapshot(long searches, long flightsPriced, long fixedPriceHits, long ruleEvaluations,
+                         Histogram.Snapshot flightsPerSearch, Map<Stage, Histogram.Snapshot> latencies) {
+            this.searches = searches;
+            this.flightsPriced = flightsPriced;
+            this.fixedPriceHits = fixedPriceHits;
+            this.ruleEvaluations = ruleEvaluations;
+            this.flightsPerSearch = flightsPerSearch;
+            this.latencies = latencies;
+        }
+
+        /**
+         * @return Number of searches
+         */
+        public long getSearches() {
+            return searches;
+        }
+
+        /**
+         * @return Number of flights priced (not cached)
+         */
+        public long getFlightsPriced() {
+            return flightsPriced;
+        }
+
+        /**
+         * @return Number of passenger types of priced flights that had a fixed price
+         */
+        public long getFixedPriceHits() {
+            return fixedPriceHits;
+        }
+
+        /**
+         * @return Number of passenger types of priced flights that were priced with the rules
+         */
+        public long getRuleEvaluations() {
+            return ruleEvaluations;
+        }
+
+        /**
+         * @return Flights priced by each search that priced flights
+         */
+        public Histogram.Snapshot getFlightsPerSearch() {
+            return flightsPerSearch;
+        }
+
+        /**
+         * @param stage Search stage
+         * @return Latencies of the stage, in nanoseconds
+         */
+        public Histogram.Snapshot getLatency(Stage stage) {
+            return latencies.get(stage);
+        }
+    }
+
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder flightsPriced = new LongAdder();
+    private final LongAdder fixedPriceHits = new LongAdder();
+    private final LongAdder ruleEvaluations = new LongAdder();
+    private final Histogram flightsPerSearch = new Histogram();
+    private final Histogram[] latencies;
+
+    public SearchMetrics() {
+        latencies = new Histogram[Stage.values().length];
+        for(int i = 0; i < latencies.length; i++) {
+            latencies[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Records the latency of a stage of a search
+     *
+     * @param stage Search stage
+     * @param nanos Latency, in nanoseconds
+     */
+    public void recordLatency(Stage stage, long nanos) {
+        latencies[stage.ordinal()].record(nanos);
+        if(stage == Stage.SEARCH) { searches.increment(); }
+    }
+
+    /**
+     * Records the flights priced by a search
+     *
+     * @param flights Number of flights priced
+     * @param fixedPrices Number of passenger types of those flights with a fixed price
+     * @param rules Number of passenger types of those flights priced with the rules
+     */
+    public void recordPricing(long flights, long fixedPrices, long rules) {
+        flightsPerSearch.record(flights);
+        flightsPriced.add(flights);
+        fixedPriceHits.add(fixedPrices);
+        ruleEvaluations.add(rules);
+    }
+
+    /**
+     * @return Copy of the current metrics
+     */
+    public Snapshot snapshot() {
+        Map<Stage, Histogram.Snapshot> latencySnapshots = new EnumMap<>(Stage.class);
+        for(Stage stage : Stage.values()) {
+            latencySnapshots.put(stage, latencies[stage.ordinal()].snapshot());
+        }
+        return new Snapshot(searches.sum(), flightsPriced.sum(), fixedPriceHits.sum(), ruleEvaluations.sum(),
+                flightsPerSearch.snapshot(), latencySnapshots);
+    }
+}
@@ -0,0 +1,39 @@
+package es.bdh.lmassignment;
+
+import java.util.Map;
+
+/**
+ * Management interface of the search metrics (see JmxMetricsReporter). Latencies are in microseconds.
+ */
+public interface SearchMetricsMXBean {
+
+    /**
+     * @return Number of searches
+     */
+    long getSearches();
+
+    /**
+     * @return Number of flights priced (not cached)
+     */
+    long getFlightsPriced();
+
+    /**
+     * @return Number of passenger types of priced flights that had a fixed price
+     */
+    long getFixedPriceHits();
+
+    /**
+     * @return Number of passenger types of priced flights that were priced with the rules
+     */
+    long getRuleEvaluations();
+
+    /**
+     * @return Count, mean, p50, p90, p99, p999 and max of the flights priced per search
+     */
+    Map<String, Double> getFlightsPerSearch();
+
+    /**
+     * @return Count, mean, p50, p90, p99, p999 and max latency of each stage, as "stage.statistic"
+     */
+    Map<String, Double> getLatencyMicros();
+}
@@ -1,16 +1,44 @@
 package es.bdh.lmassignment;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.ZoneId;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.LongSupplier;
 
 /**
  * Flight search facade
  */
 public class SearchService {
 
-    private final Database db;
+    /** Maximum number of stops of connection searches */
+    public static final int MAX_STOPS = 2;
+
+    /**
+     * Default number of asynchronous searches running at the same time
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_SEARCHES = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Default number of asynchronous searches waiting to run before new ones are rejected
+     */
+    public static final int DEFAULT_MAX_QUEUED_SEARCHES = 1024;
+
+    // Parallel tasks per thread of the pool, so threads that finish early take work from the rest
+    private static final int PARALLEL_TASKS_PER_THREAD = 4;
+
+    private final ShardedDatabase db;
     private final PriceService priceService;
+    private final BoundedExecutor asyncExecutor;
+    private volatile SearchCache cache;
+    private volatile EpochDays days = new EpochDays(ZoneId.systemDefault());
+    private volatile SearchMetrics metrics;
+    private volatile ForkJoinPool parallelPool;
+    // Parallel pricing is disabled until it's set up with a measured threshold (see setParallelPricing)
+    private volatile int parallelThreshold = Integer.MAX_VALUE;
 
     public class SearchResult {
 
@@ -31,6 +59,294 @@ public class SearchService {
         }
     }
 
+    /**
+     * Parameters of a search, for batch searches
+     */
+    public static class SearchQuery {
+
+        private final String originCode;
+        private final String destCode;
+        private final Date departure;
+        private final Collection<PassengersByType> passengers;
+        private final PassengerMix passengerMix;
+
+        /**
+         * Creates a new query
+         *
+         * @param originCode IATA code for origin airport
+         * @param destCode IATA code for destination airport
+         * @param departure Departure date
+         * @param passengers Collection of [Type, Num. of passengers] tuples describing the people flying.
+         */
+        public SearchQuery(String originCode, String destCode, Date departure, Collection<PassengersByType> passengers) {
+            this.originCode = originCode;
+            this.destCode = destCode;
+            this.departure = departure;
+            this.passengers = passengers;
+            this.passengerMix = PassengerMix.of(passengers);
+        }
+
+        /**
+         * Creates a new query
+         *
+         * @param originCode IATA code for origin airport
+         * @param destCode IATA code for destination airport
+         * @param departure Departure date
+         * @param passengers Number of passengers of each type
+         */
+        public SearchQuery(String originCode, String destCode, Date departure, PassengerMix passengers) {
+            this.originCode = originCode;
+            this.destCode = destCode;
+            this.departure = departure;
+            this.passengers = passengers.toGroups();
+            this.passengerMix = passengers;
+        }
+
+        public String getOriginCode() {
+            return originCode;
+        }
+
+        public String getDestCode() {
+            return destCode;
+        }
+
+        public Date getDeparture() {
+            return departure;
+        }
+
+        public Collection<PassengersByType> getPassengers() {
+            return passengers;
+        }
+
+        public PassengerMix getPassengerMix() {
+            return passengerMix;
+        }
+    }
+
+    // Queries of a route with the same days to departure and passengers get the same prices
+    private static class PricingKey {
+        private final int daysToDeparture;
+        private final long passengers;
+
+        PricingKey(int daysToDeparture, PassengerMix passengers) {
+            this.daysToDeparture = daysToDeparture;
+            this.passengers = passengers.toLong();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof PricingKey)) { return false; }
+            PricingKey other = (PricingKey) o;
+            return daysToDeparture == other.daysToDeparture && passengers == other.passengers;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * daysToDeparture + Long.hashCode(passengers);
+        }
+    }
+
+    // Flight kept while looking for the cheapest ones
+    private static class Candidate implements Comparable<Candidate> {
+        private final BigDecimal price;
+        private final int rank;
+        private final int index;
+
+        Candidate(BigDecimal price, int rank, int index) {
+            this.price = price;
+            this.rank = rank;
+            this.index = index;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            int result = price.compareTo(other.price);
+            return (result != 0) ? result : Integer.compare(rank, other.rank);
+        }
+    }
+
+    // Prices a range of the flights of a route into an array, splitting it in halves down to leafSize
+    // flights. Contexts aren't thread-safe: halves run by other threads use forks of it.
+    // Run in a ForkJoinPool through ForkJoinTask.adapt (tasks are not serializable).
+    private static class PricingTask implements Runnable {
+        private final RouteTable route;
+        private final FixedPriceTable fixedPrices;
+        private final PriceService.PricingContext pricing;
+        private final BigDecimal[] prices;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+
+        PricingTask(RouteTable route, FixedPriceTable fixedPrices, PriceService.PricingContext pricing,
+                    BigDecimal[] prices, int from, int to, int leafSize) {
+            this.route = route;
+            this.fixedPrices = fixedPrices;
+            this.pricing = pricing;
+            this.prices = prices;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+        }
+
+        @Override
+        public void run() {
+            if(to - from <= leafSize) {
+                for(int i = from; i < to; i++) {
+                    prices[i] = pricing.price(route.basePrice(i), route.airlineId(i), fixedPrices);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            PricingTask left = new PricingTask(route, fixedPrices, pricing.fork(), prices, from, mid, leafSize);
+            ForkJoinTask<?> leftTask = ForkJoinTask.adapt(left).fork();
+            new PricingTask(route, fixedPrices, pricing, prices, mid, to, leafSize).run();
+            leftTask.join();
+            pricing.addCounts(left.pricing);
+        }
+    }
+
+    // Cheapest flight of a route, for connection searches
+    private static class Leg {
+        private final Database.Snapshot data;
+        private final RouteTable route;
+        private final long lowerBound;
+        private BigDecimal price;
+        private long priceCents;
+        private int flightId;
+
+        Leg(Database.Snapshot data, RouteTable route, long lowerBound) {
+            this.data = data;
+            this.route = route;
+            this.lowerBound = lowerBound;
+        }
+    }
+
+    // Itinerary kept while looking for the cheapest ones
+    private static class Connection implements Comparable<Connection> {
+        private final long priceCents;
+        private final int[] airportIds;
+        private final Leg[] legs;
+        private final int sequence;
+
+        Connection(long priceCents, int[] airportIds, Leg[] legs, int sequence) {
+            this.priceCents = priceCents;
+            this.airportIds = airportIds;
+            this.legs = legs;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Connection other) {
+            int result = Long.compare(priceCents, other.priceCents);
+            if(result == 0) { result = Integer.compare(legs.length, other.legs.length); }
+            return (result != 0) ? result : Integer.compare(sequence, other.sequence);
+        }
+    }
+
+    // State of a connection search: legs already priced and best itineraries found
+    private class ConnectionSearch {
+        private final Database.Snapshot[] snapshots;
+        private final PriceService.PricingContext pricing;
+        private final long maxPriceCents;
+        private final int limit;
+        private final LongObjectMap<Leg> legs;
+        private final PriorityQueue<Connection> best;
+        private int sequence;
+
+        ConnectionSearch(Database.Snapshot[] snapshots, PriceService.PricingContext pricing, long maxPriceCents, int limit) {
+            this.snapshots = snapshots;
+            this.pricing = pricing;
+            this.maxPriceCents = maxPriceCents;
+            this.limit = limit;
+            this.legs = new LongObjectMap<>();
+            // Worst itinerary on top
+            this.best = new PriorityQueue<>(Math.min(limit, 64) + 1, Collections.reverseOrder());
+        }
+
+        // Snapshot of the shard with the routes from an airport. Ids are the same in all the shards.
+        Database.Snapshot data(int airportId) {
+            return (snapshots.length == 1) ? snapshots[0] : snapshots[db.shardIndex(snapshots[0].airportCode(airportId))];
+        }
+
+        // Route between two airports (that must have one), with the lower bound of its prices
+        Leg leg(int originId, int destId) {
+            long routeKey = Database.routeKey(originId, destId);
+            Leg leg = legs.get(routeKey);
+            if(leg == null) {
+                Database.Snapshot data = data(originId);
+                RouteTable route = data.route(routeKey);
+                leg = new Leg(data, route, pricing.lowerBoundCents(route.minBasePrice(), data.getMinFixedPriceCents()));
+                legs.put(routeKey, leg);
+            }
+            return leg;
+        }
+
+        // Whether an itinerary with that price (or lower bound of it) could be a result
+        boolean mayAccept(long priceCents) {
+            if(priceCents == Long.MIN_VALUE) { return true; } // Unknown
+            // Itineraries found later lose ties
+            return priceCents <= maxPriceCents && (best.size() < limit || priceCents < best.peek().priceCents);
+        }
+
+        void offer(int... airportIds) {
+            Leg[] path = new Leg[airportIds.length - 1];
+            long lowerBound = 0;
+            for(int i = 0; i < path.length; i++) {
+                path[i] = leg(airportIds[i], airportIds[i + 1]);
+                lowerBound = addBounds(lowerBound, path[i].lowerBound);
+            }
+            if(!mayAccept(lowerBound)) { return; }
+
+            long priceCents = 0;
+            for(Leg leg : path) {
+                if(leg.price == null) {
+                    Candidate cheapest = cheapest(leg.data, leg.route, pricing, 1)[0];
+                    leg.price = cheapest.price;
+                    leg.priceCents = Money.toCents(cheapest.price);
+                    leg.flightId = leg.route.flightId(cheapest.index);
+                }
+                // Saturated if it doesn't fit in a long, so it never wraps to a low price and passes the checks
+                try {
+                    priceCents = Math.addExact(priceCents, leg.priceCents);
+                } catch(ArithmeticException ex) {
+                    priceCents = Long.MAX_VALUE;
+                }
+            }
+            if(!mayAccept(priceCents)) { return; }
+            best.add(new Connection(priceCents, airportIds, path, sequence++));
+            if(best.size() > limit) { best.poll(); }
+        }
+
+        // Sum of two lower bounds, unknown (Long.MIN_VALUE) if any of them is or if it doesn't fit in a long
+        private static long addBounds(long a, long b) {
+            if(a == Long.MIN_VALUE || b == Long.MIN_VALUE) { return Long.MIN_VALUE; }
+            try {
+                return Math.addExact(a, b);
+            } catch(ArithmeticException ex) {
+                return Long.MIN_VALUE;
+            }
+        }
+
+        List<Itinerary> results() {
+            Itinerary[] result = new Itinerary[best.size()];
+            for(int r = result.length - 1; r >= 0; r--) {
+                Connection connection = best.poll();
+                String[] airportCodes = new String[connection.airportIds.length];
+                for(int i = 0; i < airportCodes.length; i++) {
+                    airportCodes[i] = snapshots[0].airportCode(connection.airportIds[i]);
+                }
+                String[] flightCodes = new String[connection.legs.length];
+                BigDecimal price = BigDecimal.ZERO;
+                for(int i = 0; i < flightCodes.length; i++) {
+                    flightCodes[i] = connection.legs[i].data.getFlightCode(connection.legs[i].flightId);
+                    price = price.add(connection.legs[i].price);
+                }
+                result[r] = new Itinerary(airportCodes, flightCodes, price);
+            }
+            return Arrays.asList(result);
+        }
+    }
+
     /**
      * Creates an instance of the service
      *
@@ -38,8 +354,113 @@ public class SearchService {
      * @param priceService Price calculating engine
      */
     public SearchService(Database db, PriceService priceService) {
+        this(new ShardedDatabase(db), priceService);
+    }
+
+    /**
+     * Creates an instance of the service on a sharded database. Each query is answered by the
+     * shard of its origin.
+     *
+     * @param db Sharded database with flights, airlines, airports...
+     * @param priceService Price calculating engine
+     */
+    public SearchService(ShardedDatabase db, PriceService priceService) {
+        this(db, priceService, DEFAULT_MAX_CONCURRENT_SEARCHES, DEFAULT_MAX_QUEUED_SEARCHES);
+    }
+
+    /**
+     * Creates an instance of the service on a sharded database, with limits for asynchronous searches.
+     *
+     * @param db Sharded database with flights, airlines, airports...
+     * @param priceService Price calculating engine
+     * @param maxConcurrentSearches Maximum number of asynchronous searches running at the same time
+     * @param maxQueuedSearches Maximum number of asynchronous searches waiting to run
+     * @see #searchAsync(String, String, Date, Collection)
+     */
+    public SearchService(ShardedDatabase db, PriceService priceService, int maxConcurrentSearches, int maxQueuedSearches) {
         this.db = db;
         this.priceService = priceService;
+        this.asyncExecutor = new BoundedExecutor(maxConcurrentSearches, maxQueuedSearches);
+    }
+
+    /**
+     * Caches the results of search (and searchAsync). Cached results are shared by searches, so
+     * they are returned unmodifiable.
+     *
+     * @param cache Cache to use, null to disable caching
+     * @see SearchCache
+     */
+    public void setCache(SearchCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return Cache of search results, null if there is none
+     */
+    public SearchCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Records metrics of search and searchCheapest (latency of each stage, flights priced...).
+     * Without metrics, searches don't spend any time on them.
+     *
+     * @param metrics Metrics to record, null to disable them
+     * @see SearchMetrics
+     */
+    public void setMetrics(SearchMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return Metrics recorded by searches, null if they are disabled
+     */
+    public SearchMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Prices the flights of big routes in parallel, in search and searchBatch. Prices are the same
+     * and keep the order of the flights; routes (or batches) with fewer flights than the threshold
+     * are priced sequentially, as without parallel pricing. It's disabled by default.
+     *
+     * Where parallel pricing starts to pay off depends on the cores and the pool, so there is no
+     * default threshold: measure it with ParallelPricingBenchmark on the target hardware.
+     *
+     * @param pool Pool whose threads price the flights, null to disable parallel pricing
+     * @param threshold Minimum number of flights to price in parallel
+     */
+    public void setParallelPricing(ForkJoinPool pool, int threshold) {
+        if(threshold < 2) { throw new IllegalArgumentException("Parallel pricing needs at least two flights"); }
+        this.parallelThreshold = threshold;
+        this.parallelPool = pool;
+    }
+
+    /**
+     * Sets the time zone of the dates, used to count the days to departure. By default it's the
+     * system one.
+     *
+     * @param zone Time zone
+     */
+    public void setZone(ZoneId zone) {
+        this.days = new EpochDays(zone);
+    }
+
+    /**
+     * Sets the time zone of the dates and the clock that tells the current date (for testing)
+     *
+     * @param zone Time zone
+     * @param clock Current time in milliseconds since 1970-01-01T00:00:00Z
+     */
+    void setZone(ZoneId zone, LongSupplier clock) {
+        this.days = new EpochDays(zone, clock);
+    }
+
+    /**
+     * @return Time zone of the dates
+     */
+    public ZoneId getZone() {
+        return days.getZone();
     }
 
     /**
@@ -52,7 +473,36 @@ public class SearchService {
      * @return Collection of SearchResult (Flight code + price)
      */
     public Collection<SearchResult> search(String originCode, String destCode, Date departure, Collection<PassengersByType> passengers) {
-        return search(originCode, destCode, new Date(), departure, passengers);
+        EpochDays days = this.days;
+        return searchDays(originCode, destCode, (int) (days.of(departure) - days.today()), PassengerMix.of(passengers));
+    }
+
+    /**
+     * Search flights for a give route, day and passenger set.
+     *
+     * @param originCode IATA code for origin airport
+     * @param destCode IATA code for destination airport
+     * @param departureEpochDay Departure day, as days since 1970-01-01 (see LocalDate.toEpochDay)
+     * @param passengers Collection of [Type, Num. of passengers] tuples describing the people flying.
+     * @return Collection of SearchResult (Flight code + price)
+     */
+    public Collection<SearchResult> search(String originCode, String destCode, long departureEpochDay,
+                                           Collection<PassengersByType> passengers) {
+        return search(originCode, destCode, departureEpochDay, PassengerMix.of(passengers));
+    }
+
+    /**
+     * Search flights for a give route, day and passenger set.
+     *
+     * @param originCode IATA code for origin airport
+     * @param destCode IATA code for destination airport
+     * @param departureEpochDay Departure day, as days since 1970-01-01 (see LocalDate.toEpochDay)
+     * @param passengers Number of passengers of each type
+     * @return Collection of SearchResult (Flight code + price)
+     */
+    public Collection<SearchResult> search(String originCode, String destCode, long departureEpochDay,
+                                           PassengerMix passengers) {
+        return searchDays(originCode, destCode, (int) (departureEpochDay - days.today()), passengers);
     }
 
     /**
@@ -69,34 +519,612 @@ public class SearchService {
      * @return Collection of SearchResult (Flight code + price)
      */
     Collection<SearchResult> search(String originCode, String destCode, Date today, Date departure, Collection<PassengersByType> passengers) {
-        List<SearchResult> result = new LinkedList<>();
-        Collection<Flight> flights = db.getFlights(originCode, destCode);
+        return searchDays(originCode, destCode, days.daysBetween(today, departure), PassengerMix.of(passengers));
+    }
 
-        int daysToDeparture = calcDaysBetweenDates(today, departure);
+    private Collection<SearchResult> searchDays(String originCode, String destCode, int daysToDeparture,
+                                                PassengerMix passengers) {
+        SearchMetrics metrics = this.metrics;
+        long start = (metrics == null) ? 0 : System.nanoTime();
+        Database.Snapshot data = db.shardFor(originCode).snapshot();
+        RouteTable route = data.getRoute(originCode, destCode);
+        if(metrics != null) { metrics.recordLatency(SearchMetrics.Stage.ROUTE_LOOKUP, System.nanoTime() - start); }
 
-        if(flights != null) {
-            for(Flight flight : flights) {
-                BigDecimal price = priceService.calculatePrice(flight.getBasePrice(), flight.getAirline().getFixedPricesByPassengerType(), daysToDeparture, passengers);
-                result.add(new SearchResult(flight.getFlightCode(), price));
+        Collection<SearchResult> result;
+        SearchCache cache = this.cache;
+        if(cache == null) {
+            result = search(data, route, daysToDeparture, passengers, metrics);
+        } else {
+            // Version read before pricing: if rules change meanwhile, the entry is already stale
+            long rulesVersion = priceService.getRulesVersion();
+            SearchCache.Key key = new SearchCache.Key(originCode, destCode, daysToDeparture, passengers);
+            result = cache.get(key, route, data.airlines(), rulesVersion);
+            if(result == null) {
+                result = Collections.unmodifiableList(search(data, route, daysToDeparture, passengers, metrics));
+                cache.put(key, route, data.airlines(), rulesVersion, result);
             }
         }
+        if(metrics != null) { metrics.recordLatency(SearchMetrics.Stage.SEARCH, System.nanoTime() - start); }
         return result;
     }
 
-    private int calcDaysBetweenDates(Date today, Date departure) {
-        Date todayNoon = startOfDay(today);
-        long diff = departure.getTime() - todayNoon.getTime();
-        return (int) TimeUnit.DAYS.convert(diff, TimeUnit.MILLISECONDS);
+    private List<SearchResult> search(Database.Snapshot data, RouteTable route, int daysToDeparture,
+                                      PassengerMix passengers, SearchMetrics metrics) {
+        long start = (metrics == null) ? 0 : System.nanoTime();
+        PriceService.PricingContext pricing = priceService.createContext(daysToDeparture, passengers);
+        FixedPriceTable fixedPrices = data.getFixedPrices();
+        if(metrics == null && (parallelPool == null || route.size() < parallelThreshold)) {
+            // No stages to time: prices go straight to the results
+            List<SearchResult> result = new ArrayList<>(route.size());
+            for(int i = 0; i < route.size(); i++) {
+                result.add(new SearchResult(data.getFlightCode(route.flightId(i)),
+                        pricing.price(route.basePrice(i), route.airlineId(i), fixedPrices)));
+            }
+            return result;
+        }
+        BigDecimal[] prices = price(route, fixedPrices, pricing);
+        long priced = (metrics == null) ? 0 : System.nanoTime();
+
+        List<SearchResult> result = new ArrayList<>(prices.length);
+        for(int i = 0; i < prices.length; i++) {
+            result.add(new SearchResult(data.getFlightCode(route.flightId(i)), prices[i]));
+        }
+        if(metrics != null) { recordPricing(metrics, pricing, start, priced); }
+        return result;
     }
 
-    private Date startOfDay(Date date) {
-        GregorianCalendar cal = new GregorianCalendar();
-        cal.setTime(date);
-        cal.set(Calendar.HOUR, 0);
-        cal.set(Calendar.MINUTE, 0);
-        cal.set(Calendar.SECOND, 0);
-        cal.set(Calendar.MILLISECOND, 0);
-        return cal.getTime();
+    // Prices all the flights of a route, in parallel if there are enough of them (see setParallelPricing)
+    private BigDecimal[] price(RouteTable route, FixedPriceTable fixedPrices, PriceService.PricingContext pricing) {
+        BigDecimal[] prices = new BigDecimal[route.size()];
+        ForkJoinPool pool = parallelPool;
+        if(pool != null && prices.length >= parallelThreshold) {
+            int tasks = pool.getParallelism() * PARALLEL_TASKS_PER_THREAD;
+            int leafSize = Math.max(parallelThreshold / 2, (prices.length + tasks - 1) / tasks);
+            pool.invoke(ForkJoinTask.adapt(new PricingTask(route, fixedPrices, pricing, prices, 0, prices.length, leafSize)));
+        } else {
+            for(int i = 0; i < prices.length; i++) {
+                prices[i] = pricing.price(route.basePrice(i), route.airlineId(i), fixedPrices);
+            }
+        }
+        return prices;
+    }
+
+    private static void recordPricing(SearchMetrics metrics, PriceService.PricingContext pricing, long start, long priced) {
+        metrics.recordLatency(SearchMetrics.Stage.PRICING, priced - start);
+        metrics.recordLatency(SearchMetrics.Stage.RESULT_BUILDING, System.nanoTime() - priced);
+        metrics.recordPricing(pricing.pricedFlights(), pricing.fixedPriceHits(), pricing.ruleEvaluations());
+    }
+
+    /**
+     * Search flights for a give route, day and passenger set without blocking the caller.
+     *
+     * Searches run on virtual threads, at most maxConcurrentSearches at a time. When there are
+     * already maxQueuedSearches waiting to run, the search is rejected at once.
+     *
+     * @param originCode IATA code for origin airport
+     * @param destCode IATA code for destination airport
+     * @param departure Departure date
+     * @param passengers Collection of [Type, Num. of passengers] tuples describing the people flying.
+     * @return Future with the collection of SearchResult (Flight code + price). Failed with a
+     *         RejectedExecutionException if there are too many searches waiting.
+     */
+    public CompletableFuture<Collection<SearchResult>> searchAsync(String originCode, String destCode, Date departure,
+                                                                   Collection<PassengersByType> passengers) {
+        return searchAsync(originCode, destCode, new Date(), departure, passengers);
+    }
+
+    /**
+     * Search flights for a give route, day and passenger set without blocking the caller.
+     *
+     * This method adds a 'today' parameter to be used as today date for calculations.
+     * It is not expected to be the interface, but it's provided with package visibily to make testing easier.
+     *
+     * @param originCode IATA code for origin airport
+     * @param destCode IATA code for destination airport
+     * @param today Date used as today date
+     * @param departure Departure date
+     * @param passengers Collection of [Type, Num. of passengers] tuples describing the people flying.
+     * @return Future with the collection of SearchResult (Flight code + price)
+     */
+    CompletableFuture<Collection<SearchResult>> searchAsync(String originCode, String destCode, Date today, Date departure,
+                                                            Collection<PassengersByType> passengers) {
+        return asyncExecutor.submit(() -> search(originCode, destCode, today, departure, passengers));
+    }
+
+    /**
+     * Search the cheapest flights for a give route, day and passenger set.
+     *
+     * @param originCode IATA code for origin airport
+     * @param destCode IATA code for destination airport
+     * @param departure Departure date
+     * @param passengers Collection of [Type, Num. of passengers] tuples describing the people flying.
+     * @param limit Maximum number of results
+     * @return Up to limit results (Flight code + price), cheapest first
+     */
+    public List<SearchResult> searchCheapest(String originCode, String destCode, Date departure,
+                                             Collection<PassengersByType> passengers, int limit) {
+        EpochDays days = this.days;
+        return searchCheapestDays(originCode, destCode, (int) (days.of(departure) - days.today()),
+                PassengerMix.of(passengers), limit);
+    }
+
+    /**
+     * Search the cheapest flights for a give route, day and passenger set.
+     *
+     * @param originCode IATA code for origin airport
+     * @param destCode IATA code for destination airport
+     * @param departureEpochDay Departure day, as days since 1970-01-01 (see LocalDate.toEpochDay)
+     * @param passengers Collection of [Type, Num. of passengers] tuples describing the people flying.
+     * @param limit Maximum number of results
+     * @return Up to limit results (Flight code + price), cheapest first
+     */
+    public List<SearchResult> searchCheapest(String originCode, String destCode, long departureEpochDay,
+                                             Collection<PassengersByType> passengers, int limit) {
+        return searchCheapest(originCode, destCode, departureEpochDay, PassengerMix.of(passengers), limit);
+    }
+
+    /**
+     * Search the cheapest flights for a give route, day and passenger set.
+     *
+     * @param originCode IATA code for origin airport
+     * @param destCode IATA code for destination airport
+     * @param departureEpochDay Departure day, as days since 1970-01-01 (see LocalDate.toEpochDay)
+     * @param passengers Number of passengers of each type
+     * @param limit Maximum number of results
+     * @return Up to limit results (Flight code + price), cheapest first
+     */
+    public List<SearchResult> searchCheapest(String originCode, String destCode, long departureEpochDay,
+                                             PassengerMix passengers, int limit) {
+        return searchCheapestDays(originCode, destCode, (int) (departureEpochDay - days.today()), passengers, limit);
+    }
+
+    /**
+     * Search the cheapest flights for a give route, day and passenger set.
+     *
+     * Flights are priced in base price order, keeping the best ones found in a bounded heap. Prices
+     * never decrease with the base price for the same airline, so once a lower bound of the price for
+     * the next base price (with the cheapest fixed prices of any airline) can't beat the worst result
+     * kept, the rest of the flights are not priced. Same prices are ordered by base price, and then
+     * as in search.
+     *
+     * This method adds a 'today' parameter to be used as today date for calculations.
+     * It is not expected to be the interface, but it's provided with package visibily to make testing easier.
+     *
+     * @param originCode IATA code for origin airport
+     * @param destCode IATA code for destination airport
+     * @param today Date used as today date
+     * @param departure Departure date
+     * @param passengers Collection of [Type, Num. of passengers] tuples describing the people flying.
+     * @param limit Maximum number of results
+     * @return Up to limit results (Flight code + price), cheapest first
+     */
+    List<SearchResult> searchCheapest(String originCode, String destCode, Date today, Date departure,
+                                      Collection<PassengersByType> passengers, int limit) {
+        return searchCheapestDays(originCode, destCode, days.daysBetween(today, departure), PassengerMix.of(passengers), limit);
+    }
+
+    private List<SearchResult> searchCheapestDays(String originCode, String destCode, int daysToDeparture,
+                                                  PassengerMix passengers, int limit) {
+        if(limit < 0) { throw new IllegalArgumentException("Negative limit not allowed"); }
+        SearchMetrics metrics = this.metrics;
+        long start = (metrics == null) ? 0 : System.nanoTime();
+        Database.Snapshot data = db.shardFor(originCode).snapshot();
+        RouteTable route = data.getRoute(originCode, destCode);
+        long found = (metrics == null) ? 0 : System.nanoTime();
+        if(metrics != null) { metrics.recordLatency(SearchMetrics.Stage.ROUTE_LOOKUP, found - start); }
+        if(limit == 0 || route.size() == 0) {
+            if(metrics != null) { metrics.recordLatency(SearchMetrics.Stage.SEARCH, System.nanoTime() - start); }
+            return new ArrayList<>(0);
+        }
+
+        PriceService.PricingContext pricing = priceService.createContext(daysToDeparture, passengers);
+        Candidate[] cheapest = cheapest(data, route, pricing, limit);
+        long priced = (metrics == null) ? 0 : System.nanoTime();
+        SearchResult[] result = new SearchResult[cheapest.length];
+        for(int r = 0; r < result.length; r++) {
+            result[r] = new SearchResult(data.getFlightCode(route.flightId(cheapest[r].index)), cheapest[r].price);
+        }
+        if(metrics != null) {
+            recordPricing(metrics, pricing, found, priced);
+            metrics.recordLatency(SearchMetrics.Stage.SEARCH, System.nanoTime() - start);
+        }
+        return Arrays.asList(result);
+    }
+
+    /**
+     * Search itineraries for a give route, day and passenger set, with direct flights or with stops.
+     *
+     * @param originCode IATA code for origin airport
+     * @param destCode IATA code for destination airport
+     * @param departure Departure date (of all the flights)
+     * @param passengers Collection of [Type, Num. of passengers] tuples describing the people flying.
+     * @param maxStops Maximum number of stops, from 0 (only direct flights) to MAX_STOPS
+     * @param maxPrice Maximum price of the itineraries, null for no maximum
+     * @param limit Maximum number of results
+     * @return Up to limit itineraries, cheapest first
+     */
+    public List<Itinerary> searchConnections(String originCode, String destCode, Date departure,
+                                             Collection<PassengersByType> passengers, int maxStops, BigDecimal maxPrice, int limit) {
+        return searchConnections(originCode, destCode, new Date(), departure, passengers, maxStops, maxPrice, limit);
+    }
+
+    /**
+     * Search itineraries for a give route, day and passenger set, with direct flights or with stops.
+     *
+     * Each sequence of airports gives one itinerary, with the cheapest flight of each leg. Airports
+     * are not visited twice. Connections are found in the connection index of the database: airports
+     * reachable from the origin for one stop, and also airports with routes to the destination for two
+     * stops, so only routes between them are looked up. Sequences are discarded with the lower bound of
+     * the price of their legs before pricing them, when it's over maxPrice or it can't beat the results
+     * already found, and each leg is priced once per search.
+     *
+     * Same prices are ordered by number of stops, and then in the order they are found.
+     *
+     * This method adds a 'today' parameter to be used as today date for calculations.
+     * It is not expected to be the interface, but it's provided with package visibily to make testing easier.
+     *
+     * @param originCode IATA code for origin airport
+     * @param destCode IATA code for destination airport
+     * @param today Date used as today date
+     * @param departure Departure date (of all the flights)
+     * @param passengers Collection of [Type, Num. of passengers] tuples describing the people flying.
+     * @param maxStops Maximum number of stops, from 0 (only direct flights) to MAX_STOPS
+     * @param maxPrice Maximum price of the itineraries, null for no maximum
+     * @param limit Maximum number of results
+     * @return Up to limit itineraries, cheapest first
+     */
+    List<Itinerary> searchConnections(String originCode, String destCode, Date today, Date departure,
+                                      Collection<PassengersByType> passengers, int maxStops, BigDecimal maxPrice, int limit) {
+        if(maxStops < 0 || maxStops > MAX_STOPS) { throw new IllegalArgumentException("Stops must be between 0 and " + MAX_STOPS); }
+        if(limit < 0) { throw new IllegalArgumentException("Negative limit not allowed"); }
+        Database.Snapshot[] snapshots = db.snapshots();
+        int originId = snapshots[0].airportId(originCode);
+        int destId = snapshots[0].airportId(destCode);
+        if(limit == 0 || originId == CodeTable.NOT_FOUND || destId == CodeTable.NOT_FOUND || originId == destId) {
+            return new ArrayList<>(0);
+        }
+
+        int daysToDeparture = days.daysBetween(today, departure);
+        long maxPriceCents = (maxPrice == null) ? Long.MAX_VALUE : Money.toCents(maxPrice.setScale(2, RoundingMode.FLOOR));
+        ConnectionSearch search = new ConnectionSearch(snapshots, priceService.createContext(daysToDeparture, passengers),
+                maxPriceCents, limit);
+        // Routes leaving an airport are in the index of its shard
+        ConnectionIndex connections = search.data(originId).getConnections();
+
+        if(connections.hasRoute(originId, destId)) {
+            search.offer(originId, destId);
+        }
+        if(maxStops >= 1) {
+            for(int p = connections.firstOutgoing(originId); p < connections.endOutgoing(originId); p++) {
+                int stop = connections.destination(p);
+                if(stop != originId && stop != destId && search.data(stop).getConnections().hasRoute(stop, destId)) {
+                    search.offer(originId, stop, destId);
+                }
+            }
+        }
+        if(maxStops >= 2) {
+            for(int p = connections.firstOutgoing(originId); p < connections.endOutgoing(originId); p++) {
+                int firstStop = connections.destination(p);
+                if(firstStop == originId || firstStop == destId || !search.mayAccept(search.leg(originId, firstStop).lowerBound)) {
+                    continue;
+                }
+                ConnectionIndex firstStopConnections = search.data(firstStop).getConnections();
+                // Routes arriving to the destination are in the index of the shard of their origin
+                for(Database.Snapshot shard : snapshots) {
+                    ConnectionIndex incoming = shard.getConnections();
+                    for(int q = incoming.firstIncoming(destId); q < incoming.endIncoming(destId); q++) {
+                        int secondStop = incoming.origin(q);
+                        if(secondStop != originId && secondStop != destId && secondStop != firstStop
+                                && firstStopConnections.hasRoute(firstStop, secondStop)) {
+                            search.offer(originId, firstStop, secondStop, destId);
+                        }
+                    }
+                }
+            }
+        }
+        return search.results();
+    }
+
+    /**
+     * Search the cheapest destinations from an airport, for a day and passenger set: the cheapest
+     * direct flight to each airport with flights from the origin, and the cheapest of them first.
+     *
+     * @param originCode IATA code for origin airport
+     * @param departure Departure date
+     * @param passengers Collection of [Type, Num. of passengers] tuples describing the people flying.
+     * @param limit Maximum number of results (destinations)
+     * @return Up to limit itineraries, one per destination, cheapest first
+     */
+    public List<Itinerary> searchAnywhere(String originCode, Date departure, Collection<PassengersByType> passengers, int limit) {
+        return searchAnywhere(originCode, new Date(), departure, passengers, limit);
+    }
+
+    /**
+     * Search the cheapest destinations from an airport, for a day and passenger set.
+     *
+     * @param originCode IATA code for origin airport
+     * @param departureEpochDay Departure day, as days since 1970-01-01 (see LocalDate.toEpochDay)
+     * @param passengers Number of passengers of each type
+     * @param limit Maximum number of results (destinations)
+     * @return Up to limit itineraries, one per destination, cheapest first
+     * @see #searchAnywhere(String, Date, Collection, int)
+     */
+    public List<Itinerary> searchAnywhere(String originCode, long departureEpochDay, PassengerMix passengers, int limit) {
+        return searchAnywhereDays(originCode, (int) (departureEpochDay - days.today()), passengers, limit);
+    }
+
+    /**
+     * Search the cheapest destinations from an airport, for a day and passenger set.
+     *
+     * Destinations are found in the schedule index of the database. The lower bound of the price of
+     * each route is calculated from its lowest base price (see RouteTable.minBasePrice), without
+     * pricing its flights, and routes are searched from the lowest bound up as in searchConnections:
+     * once the bound of a route can't beat the worst destination kept, no other route can either.
+     * Same prices are ordered by lower bound and then by airport id.
+     *
+     * This method adds a 'today' parameter to be used as today date for calculations.
+     * It is not expected to be the interface, but it's provided with package visibily to make testing easier.
+     *
+     * @param originCode IATA code for origin airport
+     * @param today Date used as today date
+     * @param departure Departure date
+     * @param passengers Collection of [Type, Num. of passengers] tuples describing the people flying.
+     * @param limit Maximum number of results (destinations)
+     * @return Up to limit itineraries, one per destination, cheapest first
+     */
+    List<Itinerary> searchAnywhere(String originCode, Date today, Date departure,
+                                   Collection<PassengersByType> passengers, int limit) {
+        return searchAnywhereDays(originCode, days.daysBetween(today, departure), PassengerMix.of(passengers), limit);
+    }
+
+    private List<Itinerary> searchAnywhereDays(String originCode, int daysToDeparture, PassengerMix passengers, int limit) {
+        if(limit < 0) { throw new IllegalArgumentException("Negative limit not allowed"); }
+        SearchMetrics metrics = this.metrics;
+        long start = (metrics == null) ? 0 : System.nanoTime();
+        // Routes from an airport are all in its shard
+        Database.Snapshot data = db.shardFor(originCode).snapshot();
+        int originId = data.airportId(originCode);
+        int[] destinations = (originId == CodeTable.NOT_FOUND) ? new int[0] : data.getSchedule().destinations(originId);
+        long found = (metrics == null) ? 0 : System.nanoTime();
+        if(metrics != null) { metrics.recordLatency(SearchMetrics.Stage.ROUTE_LOOKUP, found - start); }
+        if(limit == 0 || destinations.length == 0) {
+            if(metrics != null) { metrics.recordLatency(SearchMetrics.Stage.SEARCH, System.nanoTime() - start); }
+            return new ArrayList<>(0);
+        }
+
+        PriceService.PricingContext pricing = priceService.createContext(daysToDeparture, passengers);
+        ConnectionSearch search = new ConnectionSearch(new Database.Snapshot[] {data}, pricing, Long.MAX_VALUE, limit);
+        long[] lowerBounds = new long[destinations.length];
+        for(int d = 0; d < destinations.length; d++) {
+            lowerBounds[d] = search.leg(originId, destinations[d]).lowerBound;
+        }
+        // By bound, unknown bounds (Long.MIN_VALUE) first, and by position for the same bound: the rank of
+        // each bound (its position among the sorted bounds) packed with the position, to sort without boxing
+        long[] sortedBounds = lowerBounds.clone();
+        Arrays.sort(sortedBounds);
+        long[] order = new long[destinations.length];
+        for(int d = 0; d < destinations.length; d++) {
+            order[d] = ((long) Arrays.binarySearch(sortedBounds, lowerBounds[d]) << 32) | d;
+        }
+        Arrays.sort(order);
+        for(long rankAndPosition : order) {
+            int d = (int) rankAndPosition;
+            if(!search.mayAccept(lowerBounds[d])) { break; }
+            search.offer(originId, destinations[d]);
+        }
+        long priced = (metrics == null) ? 0 : System.nanoTime();
+        List<Itinerary> result = search.results();
+        if(metrics != null) {
+            recordPricing(metrics, pricing, found, priced);
+            metrics.recordLatency(SearchMetrics.Stage.SEARCH, System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    // Cheapest flights of a route (see searchCheapest), cheapest first
+    private Candidate[] cheapest(Database.Snapshot data, RouteTable route, PriceService.PricingContext pricing, int limit) {
+        FixedPriceTable fixedPrices = data.getFixedPrices();
+        long[] minFixedPriceCents = fixedPrices.getMinCents();
+
+        // Worst candidate on top: highest price, and latest in price order among the same prices
+        PriorityQueue<Candidate> best = new PriorityQueue<>(Math.min(limit, route.size()) + 1, Collections.reverseOrder());
+        long worstCents = 0;
+        int[] order = route.priceOrder();
+        for(int rank = 0; rank < order.length; rank++) {
+            int i = order[rank];
+            long basePrice = route.basePrice(i);
+            if(best.size() == limit) {
+                long lowerBound = pricing.lowerBoundCents(basePrice, minFixedPriceCents);
+                if(lowerBound != Long.MIN_VALUE && lowerBound >= worstCents) { break; } // Can't enter
+            }
+            BigDecimal price = pricing.price(basePrice, route.airlineId(i), fixedPrices);
+            if(best.size() < limit) {
+                best.add(new Candidate(price, rank, i));
+            } else if(price.compareTo(best.peek().price) < 0) {
+                best.poll();
+                best.add(new Candidate(price, rank, i));
+            } else {
+                continue;
+            }
+            if(best.size() == limit) { worstCents = Money.toCents(best.peek().price); }
+        }
+
+        Candidate[] result = new Candidate[best.size()];
+        for(int r = result.length - 1; r >= 0; r--) {
+            result[r] = best.poll();
+        }
+        return result;
+    }
+
+    /**
+     * Search flights for many routes, days and passenger sets at once.
+     *
+     * Each route is retrieved once, and queries for the same route, days to departure and passengers
+     * are priced together. Results are the same as calling search for each query.
+     *
+     * @param queries Search parameters
+     * @return Results of each query, in the same order as the queries
+     */
+    public List<Collection<SearchResult>> searchBatch(List<SearchQuery> queries) {
+        return searchBatch(new Date(), queries);
+    }
+
+    /**
+     * Search flights for many routes, days and passenger sets at once.
+     *
+     * This method adds a 'today' parameter to be used as today date for calculations.
+     * It is not expected to be the interface, but it's provided with package visibily to make testing easier.
+     *
+     * @param today Date used as today date
+     * @param queries Search parameters
+     * @return Results of each query, in the same order as the queries
+     */
+    List<Collection<SearchResult>> searchBatch(Date today, List<SearchQuery> queries) {
+        Database.Snapshot[] snapshots = db.snapshots();
+        List<Collection<SearchResult>> results = new ArrayList<>(queries.size());
+
+        // Group query positions by route (tables are shared, so by identity) and by pricing parameters
+        Map<RouteTable, Map<PricingKey, List<Integer>>> groups = new IdentityHashMap<>();
+        Map<RouteTable, Database.Snapshot> routeData = new IdentityHashMap<>();
+        for(int q = 0; q < queries.size(); q++) {
+            SearchQuery query = queries.get(q);
+            Database.Snapshot data = snapshots[db.shardIndex(query.getOriginCode())];
+            RouteTable route = data.getRoute(query.getOriginCode(), query.getDestCode());
+            results.add(new ArrayList<SearchResult>(route.size()));
+
+            Map<PricingKey, List<Integer>> routeGroups = groups.get(route);
+            if(routeGroups == null) {
+                routeGroups = new HashMap<>();
+                groups.put(route, routeGroups);
+                routeData.put(route, data);
+            }
+            PricingKey key = new PricingKey(days.daysBetween(today, query.getDeparture()), query.getPassengerMix());
+            List<Integer> group = routeGroups.get(key);
+            if(group == null) {
+                group = new ArrayList<>();
+                routeGroups.put(key, group);
+            }
+            group.add(q);
+        }
+
+        // Each group fills the results of its own queries, so groups can be priced in parallel
+        List<Runnable> pricingGroups = new ArrayList<>();
+        long flights = 0;
+        for(Map.Entry<RouteTable, Map<PricingKey, List<Integer>>> routeGroups : groups.entrySet()) {
+            RouteTable route = routeGroups.getKey();
+            Database.Snapshot data = routeData.get(route);
+            for(Map.Entry<PricingKey, List<Integer>> group : routeGroups.getValue().entrySet()) {
+                PricingKey key = group.getKey();
+                List<Integer> positions = group.getValue();
+                pricingGroups.add(() -> priceGroup(data, route, key.daysToDeparture,
+                        queries.get(positions.get(0)).getPassengerMix(), positions, results));
+                flights += route.size();
+            }
+        }
+
+        ForkJoinPool pool = parallelPool;
+        if(pool != null && pricingGroups.size() > 1 && flights >= parallelThreshold) {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(pricingGroups.size());
+            for(Runnable pricingGroup : pricingGroups) {
+                tasks.add(ForkJoinTask.adapt(pricingGroup));
+            }
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        } else {
+            for(Runnable pricingGroup : pricingGroups) {
+                pricingGroup.run();
+            }
+        }
+        return results;
+    }
+
+    // Prices a route for the queries of a group, adding the same results to all of them
+    private void priceGroup(Database.Snapshot data, RouteTable route, int daysToDeparture, PassengerMix passengers,
+                            List<Integer> positions, List<Collection<SearchResult>> results) {
+        PriceService.PricingContext pricing = priceService.createContext(daysToDeparture, passengers);
+        BigDecimal[] prices = price(route, data.getFixedPrices(), pricing);
+        for(int i = 0; i < prices.length; i++) {
+            SearchResult result = new SearchResult(data.getFlightCode(route.flightId(i)), prices[i]);
+            for(int q : positions) {
+                results.get(q).add(result);
+            }
+        }
+    }
+
+    /**
+     * Prices a route for a range of consecutive departure days.
+     *
+     * @param originCode IATA code for origin airport
+     * @param destCode IATA code for destination airport
+     * @param firstDeparture First departure date of the calendar
+     * @param days Number of days of the calendar
+     * @param passengers Collection of [Type, Num. of passengers] tuples describing the people flying.
+     * @param allPrices Whether to keep the price of every flight or only the cheapest one of each day
+     * @return Calendar with the prices of each day
+     */
+    public FareCalendar searchCalendar(String originCode, String destCode, Date firstDeparture, int days,
+                                       Collection<PassengersByType> passengers, boolean allPrices) {
+        return searchCalendar(originCode, destCode, new Date(), firstDeparture, days, passengers, allPrices);
+    }
+
+    /**
+     * Prices a route for a range of consecutive departure days.
+     *
+     * Prices only change between days when the 'days to departure' rule changes, so the route is priced
+     * once for each range of days with the same rule instead of once per day.
+     *
+     * This method adds a 'today' parameter to be used as today date for calculations.
+     * It is not expected to be the interface, but it's provided with package visibily to make testing easier.
+     *
+     * @param originCode IATA code for origin airport
+     * @param destCode IATA code for destination airport
+     * @param today Date used as today date
+     * @param firstDeparture First departure date of the calendar
+     * @param days Number of days of the calendar
+     * @param passengers Collection of [Type, Num. of passengers] tuples describing the people flying.
+     * @param allPrices Whether to keep the price of every flight or only the cheapest one of each day
+     * @return Calendar with the prices of each day
+     */
+    FareCalendar searchCalendar(String originCode, String destCode, Date today, Date firstDeparture, int days,
+                                Collection<PassengersByType> passengers, boolean allPrices) {
+        if(days < 0) { throw new IllegalArgumentException("Negative number of days not allowed"); }
+        Database.Snapshot data = db.shardFor(originCode).snapshot();
+        RouteTable route = data.getRoute(originCode, destCode);
+        int firstDaysToDeparture = this.days.daysBetween(today, firstDeparture);
+
+        int[] segments = new int[days];
+        List<BigDecimal> minPrices = new ArrayList<>();
+        List<String> cheapestFlightCodes = new ArrayList<>();
+        List<List<SearchResult>> results = allPrices ? new ArrayList<List<SearchResult>>() : null;
+
+        int day = 0;
+        while(day < days) {
+            int daysToDeparture = firstDaysToDeparture + day;
+            // Last day of the calendar priced with the same rule
+            int end = (int) Math.min(days - 1, (long) priceService.daysRuleEnd(daysToDeparture) - firstDaysToDeparture);
+
+            PriceService.PricingContext pricing = priceService.createContext(daysToDeparture, passengers);
+            List<SearchResult> segmentResults = allPrices ? new ArrayList<SearchResult>(route.size()) : null;
+            BigDecimal minPrice = null;
+            String cheapestFlightCode = null;
+            for(int i = 0; i < route.size(); i++) {
+                BigDecimal price = pricing.price(route.basePrice(i), route.airlineId(i), data.getFixedPrices());
+                if(minPrice == null || price.compareTo(minPrice) < 0) {
+                    minPrice = price;
+                    cheapestFlightCode = data.getFlightCode(route.flightId(i));
+                }
+                if(allPrices) {
+                    segmentResults.add(new SearchResult(data.getFlightCode(route.flightId(i)), price));
+                }
+            }
+
+            Arrays.fill(segments, day, end + 1, minPrices.size());
+            minPrices.add(minPrice);
+            cheapestFlightCodes.add(cheapestFlightCode);
+            if(allPrices) { results.add(segmentResults); }
+            day = end + 1;
+        }
+        return new FareCalendar(segments, minPrices.toArray(new BigDecimal[minPrices.size()]),
+                cheapestFlightCodes.toArray(new String[cheapestFlightCodes.size()]), results);
     }
 
 }
@@ -0,0 +1,310 @@
+package es.bdh.lmassignment;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Database partitioned by origin airport.
+ *
+ * Routes are split by a hash of the origin airport code into independent Database shards, each
+ * with its own snapshots, route tables, flight codes and write lock. Changing the flights of an
+ * origin (for instance, reloading them in a batch of its shard) only copies and publishes that
+ * shard, while writers of other shards work at the same time and readers are not affected.
+ *
+ * Airport and airline codes are shared, so ids are the same in all the shards. Airlines and their
+ * fixed prices are reference data needed by all the routes: they are added to every shard.
+ *
+ * The snapshots of all the shards are published together too (see snapshots): changes of airlines
+ * and fixed prices take the write locks of all the shards, commit them and publish the new
+ * snapshots at once, so searches that read several shards never mix old and new airline data.
+ * Commits of a single shard replace only its snapshot.
+ */
+class ShardedDatabase {
+
+    private final Database[] shards;
+    // Current snapshot of each shard, replaced (not modified) with publishLock
+    private volatile Database.Snapshot[] snapshots;
+    // Snapshots committed by a change of all the shards, published when all of them are committed
+    private Database.Snapshot[] pending;
+    private final Object publishLock = new Object();
+
+    /**
+     * Creates an empty database
+     *
+     * @param shardCount Number of shards
+     */
+    public ShardedDatabase(int shardCount) {
+        if(shardCount < 1) { throw new IllegalArgumentException("At least one shard is needed"); }
+        CodeTable airportIds = new CodeTable();
+        CodeTable airlineIds = new CodeTable();
+        ConcurrentHashMap<String, String> airports = new ConcurrentHashMap<>();
+        shards = new Database[shardCount];
+        snapshots = new Database.Snapshot[shardCount];
+        for(int i = 0; i < shardCount; i++) {
+            final int shard = i;
+            shards[i] = new Database(airportIds, airlineIds, airports, snapshot -> published(shard, snapshot));
+            snapshots[i] = shards[i].snapshot();
+        }
+    }
+
+    /**
+     * Uses a database as the only shard
+     *
+     * @param db Database
+     */
+    public ShardedDatabase(Database db) {
+        shards = new Database[] {db};
+        snapshots = null; // A single shard is always consistent with itself
+    }
+
+    /**
+     * @return Number of shards
+     */
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @param index Shard number, from 0 to shardCount - 1
+     * @return Shard
+     */
+    public Database shard(int index) {
+        return shards[index];
+    }
+
+    /**
+     * Retrieves the number of the shard that owns the routes from an airport
+     *
+     * @param originCode IATA code of the origin airport
+     * @return Shard number
+     */
+    public int shardIndex(String originCode) {
+        if(shards.length == 1) { return 0; }
+        int hash = originCode.hashCode();
+        hash ^= (hash >>> 16); // Codes differ in their last characters
+        return (hash & Integer.MAX_VALUE) % shards.length;
+    }
+
+    /**
+     * Retrieves the shard that owns the routes from an airport, to read them or to change them
+     *
+     * @param originCode IATA code of the origin airport
+     * @return Shard
+     */
+    public Database shardFor(String originCode) {
+        return shards[shardIndex(originCode)];
+    }
+
+    /**
+     * Retrieves the current state of all the shards, to read them consistently shard by shard.
+     *
+     * Snapshots are taken at once: all of them have the changes of airlines and fixed prices or none.
+     *
+     * @return Current snapshot of each shard, by shard number
+     */
+    public Database.Snapshot[] snapshots() {
+        Database.Snapshot[] snapshots = this.snapshots;
+        return (snapshots == null) ? new Database.Snapshot[] {shards[0].snapshot()} : snapshots.clone();
+    }
+
+    /**
+     * Creates a new airline in all the shards at once
+     *
+     * @param code IATA assigned code.
+     * @param name Descriptive name.
+     * @see Airline
+     */
+    public void addAirline(String code, String name) {
+        updateAll(batch -> batch.addAirline(code, name));
+    }
+
+    /**
+     * Adds a new fixed price for an specific airline and passenger type in all the shards at once
+     *
+     * @param airlineCode IATA code of the airline
+     * @param type Passenger type
+     * @param price Fixed price. At most two decimals (cents).
+     */
+    public void addPassengerTypeFixedPrice(String airlineCode, PassengerType type, BigDecimal price) {
+        updateAll(batch -> batch.addPassengerTypeFixedPrice(airlineCode, type, price));
+    }
+
+    /**
+     * Removes the fixed price of an specific airline and passenger type in all the shards at once
+     *
+     * @param airlineCode IATA code of the airline
+     * @param type Passenger type
+     */
+    public void removePassengerTypeFixedPrice(String airlineCode, PassengerType type) {
+        updateAll(batch -> batch.removePassengerTypeFixedPrice(airlineCode, type));
+    }
+
+    /**
+     * Creates a new airport. Airports are shared by all the shards.
+     *
+     * @param code IATA assigned code
+     * @param name Descriptive name
+     */
+    public void addAirport(String code, String name) {
+        shardFor(code).addAirport(code, name);
+    }
+
+    /**
+     * Creates a new flight in the shard of its origin
+     *
+     * @param originCode IATA code of the origin airport
+     * @param destCode IATA code of the destination airport
+     * @param flightCode IATA code of the flight. Assumes AAN* (AA -> airline, N* -> rest of identifier)
+     * @param basePrice Base price for price rules. At most two decimals (cents).
+     */
+    public void addFlight(String originCode, String destCode, String flightCode, BigDecimal basePrice) {
+        shardFor(originCode).addFlight(originCode, destCode, flightCode, basePrice);
+    }
+
+    /**
+     * Removes a flight from the shard that has it
+     *
+     * @param flightCode IATA code of the flight
+     * @throws IllegalArgumentException if there is no flight with that code
+     */
+    public void removeFlight(String flightCode) {
+        try(Database.Batch batch = batchWithFlight(flightCode)) {
+            batch.removeFlight(flightCode);
+            batch.commit();
+        }
+    }
+
+    /**
+     * Changes the base price of a flight in the shard that has it
+     *
+     * @param flightCode IATA code of the flight
+     * @param basePrice Base price for price rules. At most two decimals (cents).
+     * @throws IllegalArgumentException if there is no flight with that code
+     */
+    public void updateBasePrice(String flightCode, BigDecimal basePrice) {
+        try(Database.Batch batch = batchWithFlight(flightCode)) {
+            batch.updateBasePrice(flightCode, basePrice);
+            batch.commit();
+        }
+    }
+
+    /**
+     * Retrieves the flights for a specific route
+     *
+     * @param originCode IATA code of the origin airport
+     * @param destCode IATA code of the destination airport
+     * @return Flights that match that route (no order guaranteed)
+     * @see Database#getFlights(String, String)
+     */
+    public Collection<Flight> getFlights(String originCode, String destCode) {
+        return shardFor(originCode).getFlights(originCode, destCode);
+    }
+
+    /**
+     * Retrieves the flights for a specific route in columnar form
+     *
+     * @param originCode IATA code of the origin airport
+     * @param destCode IATA code of the destination airport
+     * @return Flights that match that route (no order guaranteed). Empty table if there are none.
+     */
+    public RouteTable getRoute(String originCode, String destCode) {
+        return shardFor(originCode).getRoute(originCode, destCode);
+    }
+
+    /**
+     * Retrieves the airports with flights from an airport, from the shard of the origin
+     *
+     * @param originCode IATA code of the origin airport
+     * @return IATA codes of the destination airports (no order guaranteed). Empty if there are none.
+     */
+    public List<String> getDestinations(String originCode) {
+        return shardFor(originCode).getDestinations(originCode);
+    }
+
+    /**
+     * Retrieves the airports with flights to an airport, from all the shards
+     *
+     * @param destCode IATA code of the destination airport
+     * @return IATA codes of the origin airports (no order guaranteed). Empty if there are none.
+     */
+    public List<String> getOrigins(String destCode) {
+        if(shards.length == 1) { return shards[0].getOrigins(destCode); }
+        // Each origin is in a single shard, so there are no duplicates
+        List<String> origins = new ArrayList<>();
+        for(Database shard : shards) {
+            origins.addAll(shard.getOrigins(destCode));
+        }
+        return origins;
+    }
+
+    /**
+     * Retrieves the flights of an airline, from all the shards
+     *
+     * @param airlineCode IATA code of the airline
+     * @return IATA codes of the flights (no order guaranteed). Empty if there are none.
+     */
+    public List<String> getAirlineFlights(String airlineCode) {
+        if(shards.length == 1) { return shards[0].getAirlineFlights(airlineCode); }
+        List<String> flights = new ArrayList<>();
+        for(Database shard : shards) {
+            flights.addAll(shard.getAirlineFlights(airlineCode));
+        }
+        return flights;
+    }
+
+    // Applies a change to a batch of each shard, and publishes the snapshots of all of them at once.
+    // Write locks are taken in shard order, so this doesn't deadlock with other writers.
+    private synchronized void updateAll(Consumer<Database.Batch> change) {
+        Database.Batch[] batches = new Database.Batch[shards.length];
+        try {
+            for(int i = 0; i < shards.length; i++) {
+                batches[i] = shards[i].batch();
+                change.accept(batches[i]);
+            }
+            synchronized(publishLock) {
+                if(snapshots != null) { pending = snapshots.clone(); }
+            }
+            for(Database.Batch batch : batches) {
+                batch.commit();
+            }
+        } finally {
+            synchronized(publishLock) {
+                if(pending != null) {
+                    snapshots = pending;
+                    pending = null;
+                }
+            }
+            for(Database.Batch batch : batches) {
+                if(batch != null) { batch.close(); }
+            }
+        }
+    }
+
+    // Called by a shard with each snapshot it commits (with its write lock)
+    private void published(int shard, Database.Snapshot snapshot) {
+        synchronized(publishLock) {
+            if(pending != null) {
+                pending[shard] = snapshot;
+            } else {
+                Database.Snapshot[] changed = snapshots.clone();
+                changed[shard] = snapshot;
+                snapshots = changed;
+            }
+        }
+    }
+
+    // Batch of the shard with a flight (flight codes don't tell their origin), last shard if none has it
+    private Database.Batch batchWithFlight(String flightCode) {
+        if(flightCode == null) { throw new IllegalArgumentException("Flight code is mandatory"); }
+        for(int i = 0; i < shards.length - 1; i++) {
+            Database.Batch batch = shards[i].batch();
+            if(batch.containsFlight(flightCode)) { return batch; }
+            batch.close();
+        }
+        return shards[shards.length - 1].batch();
+    }
+}
@@ -0,0 +1,394 @@
+package es.bdh.lmassignment;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Binary snapshot of a Database, read through a memory-mapped file.
+ *
+ * Airports and airlines are few, so they are decoded when the file is opened. Flight codes and
+ * route tables are read straight from the mapped file when they are accessed, so opening a
+ * snapshot takes about the same time whatever the number of flights, and the JVMs of a host that
+ * open the same file share its pages.
+ *
+ * Layout (big-endian, strings as int length + UTF-8 bytes, prices in cents):
+ * - Header: magic, version, counts and offsets of the sections below
+ * - Airports: code and name (empty if it has none) by airport id
+ * - Airlines: code by airline id, and if the airline exists its name and fixed prices (type name, cents)
+ * - Flight codes: UTF-8 bytes of all the codes, then the offset of each one by flight id (and the end)
+ * - Route keys: sorted, to find routes with a binary search
+ * - Route starts: position of the first flight of each route in the columns (and the end)
+ * - Columns: flight ids, airline ids and base prices of the flights, grouped by route
+ *
+ * The whole file is mapped at once, so it can't be bigger than 2 GB.
+ */
+final class SnapshotFile {
+
+    private static final int MAGIC = 0x4C4D5342; // "LMSB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 128;
+
+    private final ByteBuffer buffer;
+    private final String[] airportCodes;
+    private final String[] airportNames;
+    private final String[] airlineCodes;
+    private final Airline[] airlines;
+    private final int flightCount;
+    private final int routeCount;
+    private final int codesOffset;
+    private final int codeOffsetsOffset;
+    private final int routeKeysOffset;
+    private final int routeStartsOffset;
+    private final int flightIdsOffset;
+    private final int airlineIdsOffset;
+    private final int basePricesOffset;
+    // Tables created for the routes already accessed, by route position
+    private final RouteTable[] routes;
+
+    private SnapshotFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if(buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) { throw new IOException("Not a snapshot file"); }
+        if(buffer.getInt(4) != VERSION) { throw new IOException("Unsupported snapshot version " + buffer.getInt(4)); }
+        int airportCount = buffer.getInt(8);
+        int airlineCount = buffer.getInt(12);
+        flightCount = buffer.getInt(16);
+        routeCount = buffer.getInt(20);
+        int airportsOffset = offset(24);
+        int airlinesOffset = offset(32);
+        codesOffset = offset(40);
+        codeOffsetsOffset = offset(48);
+        routeKeysOffset = offset(56);
+        routeStartsOffset = offset(64);
+        flightIdsOffset = offset(72);
+        airlineIdsOffset = offset(80);
+        basePricesOffset = offset(88);
+        routes = new RouteTable[routeCount];
+
+        ByteBuffer in = buffer.duplicate();
+        in.position(airportsOffset);
+        airportCodes = new String[airportCount];
+        airportNames = new String[airportCount];
+        for(int i = 0; i < airportCount; i++) {
+            airportCodes[i] = readString(in);
+            String name = readString(in);
+            airportNames[i] = name.isEmpty() ? null : name;
+        }
+
+        in.position(airlinesOffset);
+        airlineCodes = new String[airlineCount];
+        airlines = new Airline[airlineCount];
+        for(int i = 0; i < airlineCount; i++) {
+            airlineCodes[i] = readString(in);
+            if(in.get() == 0) { continue; }
+            Airline airline = new Airline(airlineCodes[i], readString(in));
+            int fixedPrices = in.getInt();
+            for(int j = 0; j < fixedPrices; j++) {
+                String type = readString(in);
+                long cents = in.getLong();
+                try {
+                    airline.setFixedPriceByPassengerType(PassengerType.valueOf(type), Money.fromCents(cents));
+                } catch(IllegalArgumentException ex) {
+                    throw new IOException("Unknown passenger type " + type);
+                }
+            }
+            airlines[i] = airline;
+        }
+    }
+
+    /**
+     * Opens a snapshot file, mapping it in memory
+     *
+     * @param file Snapshot file
+     * @return Opened snapshot. The mapping is released when it's garbage collected.
+     * @throws IOException If the file can't be read or it's not a valid snapshot
+     */
+    public static SnapshotFile open(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE) { throw new IOException("Snapshot too big to be mapped: " + file); }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new SnapshotFile(buffer);
+        }
+    }
+
+    /**
+     * Writes the data of a database snapshot to a file.
+     *
+     * The file is written aside, forced to disk and then moved to its place, so it can be replaced
+     * while other processes have it open and it's never left incomplete. The temporary file is
+     * deleted if the write fails.
+     *
+     * @param snapshot Data to write
+     * @param file Snapshot file
+     * @throws IOException If the file can't be written
+     */
+    public static void write(Database.Snapshot snapshot, Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        boolean moved = false;
+        try {
+            try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ChannelOutput out = new ChannelOutput(channel);
+                out.position(HEADER_SIZE);
+
+                long airportsOffset = out.position();
+                int airportCount = snapshot.airportCount();
+                for(int i = 0; i < airportCount; i++) {
+                    String code = snapshot.airportCode(i);
+                    String name = snapshot.airportName(code);
+                    out.putString(code);
+                    out.putString(name == null ? "" : name);
+                }
+
+                long airlinesOffset = out.position();
+                int airlineCount = snapshot.airlineCount();
+                for(int i = 0; i < airlineCount; i++) {
+                    out.putString(snapshot.airlineCode(i));
+                    Airline airline = snapshot.findAirline(i);
+                    out.putByte(airline == null ? 0 : 1);
+                    if(airline == null) { continue; }
+                    out.putString(airline.getName());
+                    Map<PassengerType, BigDecimal> fixedPrices = airline.getFixedPricesByPassengerType();
+                    out.putInt(fixedPrices.size());
+                    for(PassengerType type : fixedPrices.keySet()) {
+                        out.putString(type.name());
+                        out.putLong(airline.getFixedPriceCents()[type.ordinal()]);
+                    }
+                }
+
+                int flightCount = snapshot.flightCount();
+                int[] codeOffsets = new int[flightCount + 1];
+                long codesOffset = out.position();
+                for(int i = 0; i < flightCount; i++) {
+                    codeOffsets[i] = (int) (out.position() - codesOffset);
+                    out.putBytes(snapshot.getFlightCode(i).getBytes(StandardCharsets.UTF_8));
+                }
+                codeOffsets[flightCount] = (int) (out.position() - codesOffset);
+                long codeOffsetsOffset = out.align();
+                for(int codeOffset : codeOffsets) {
+                    out.putInt(codeOffset);
+                }
+
+                long[] routeKeys = snapshot.routeKeys();
+                RouteTable[] tables = new RouteTable[routeKeys.length];
+                long routeKeysOffset = out.align();
+                for(int i = 0; i < routeKeys.length; i++) {
+                    out.putLong(routeKeys[i]);
+                    tables[i] = snapshot.route(routeKeys[i]);
+                }
+                long routeStartsOffset = out.position();
+                int routeFlights = 0;
+                for(RouteTable table : tables) {
+                    out.putInt(routeFlights);
+                    routeFlights += table.size();
+                }
+                out.putInt(routeFlights);
+                long flightIdsOffset = out.position();
+                for(RouteTable table : tables) {
+                    for(int i = 0; i < table.size(); i++) {
+                        out.putInt(table.flightId(i));
+                    }
+                }
+                long airlineIdsOffset = out.position();
+                for(RouteTable table : tables) {
+                    for(int i = 0; i < table.size(); i++) {
+                        out.putInt(table.airlineId(i));
+                    }
+                }
+                long basePricesOffset = out.align();
+                for(RouteTable table : tables) {
+                    for(int i = 0; i < table.size(); i++) {
+                        out.putLong(table.basePrice(i));
+                    }
+                }
+                out.flush();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putInt(airportCount).putInt(airlineCount)
+                        .putInt(flightCount).putInt(routeKeys.length)
+                        .putLong(airportsOffset).putLong(airlinesOffset).putLong(codesOffset).putLong(codeOffsetsOffset)
+                        .putLong(routeKeysOffset).putLong(routeStartsOffset).putLong(flightIdsOffset)
+                        .putLong(airlineIdsOffset).putLong(basePricesOffset);
+                header.clear();
+                while(header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                // On disk before it gets the real name, so a crash can't leave a truncated file under it
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if(!moved) { Files.deleteIfExists(temp); }
+        }
+    }
+
+    /**
+     * @return Number of airports, ids go from 0 to count - 1
+     */
+    public int airportCount() {
+        return airportCodes.length;
+    }
+
+    /**
+     * @param airportId Airport id
+     * @return IATA code of the airport
+     */
+    public String airportCode(int airportId) {
+        return airportCodes[airportId];
+    }
+
+    /**
+     * @param airportId Airport id
+     * @return Name of the airport, null if it was only known by its flights
+     */
+    public String airportName(int airportId) {
+        return airportNames[airportId];
+    }
+
+    /**
+     * @return Number of airline codes, ids go from 0 to count - 1
+     */
+    public int airlineCount() {
+        return airlineCodes.length;
+    }
+
+    /**
+     * @param airlineId Airline id
+     * @return IATA code of the airline
+     */
+    public String airlineCode(int airlineId) {
+        return airlineCodes[airlineId];
+    }
+
+    /**
+     * @param airlineId Airline id
+     * @return Airline, null if the code was registered but the airline wasn't added
+     */
+    public Airline airline(int airlineId) {
+        return airlines[airlineId];
+    }
+
+    /**
+     * @return Number of flights, ids go from 0 to count - 1
+     */
+    public int flightCount() {
+        return flightCount;
+    }
+
+    /**
+     * Reads a flight code from the file
+     *
+     * @param flightId Flight id
+     * @return IATA code of the flight
+     */
+    public String flightCode(int flightId) {
+        if(flightId < 0 || flightId >= flightCount) { throw new IndexOutOfBoundsException("Flight not found: " + flightId); }
+        int start = buffer.getInt(codeOffsetsOffset + flightId * 4);
+        int end = buffer.getInt(codeOffsetsOffset + flightId * 4 + 4);
+        byte[] bytes = new byte[end - start];
+        for(int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(codesOffset + start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Finds a route in the file
+     *
+     * @param routeKey Key of the route, as packed by Database
+     * @return Table that reads the flights from the file, null if there is no such route
+     */
+    public RouteTable route(long routeKey) {
+        int low = 0;
+        int high = routeCount - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            long key = buffer.getLong(routeKeysOffset + mid * 8);
+            if(key < routeKey) {
+                low = mid + 1;
+            } else if(key > routeKey) {
+                high = mid - 1;
+            } else {
+                RouteTable table = routes[mid];
+                if(table == null) {
+                    // Tables are immutable, threads that race here just create equivalent ones
+                    int start = buffer.getInt(routeStartsOffset + mid * 4);
+                    int end = buffer.getInt(routeStartsOffset + mid * 4 + 4);
+                    table = new MappedRouteTable(start, end - start);
+                    routes[mid] = table;
+                }
+                return table;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Keys of all the routes in the file, sorted
+     */
+    public long[] routeKeys() {
+        long[] keys = new long[routeCount];
+        for(int i = 0; i < routeCount; i++) {
+            keys[i] = buffer.getLong(routeKeysOffset + i * 8);
+        }
+        return keys;
+    }
+
+    private int offset(int headerPosition) throws IOException {
+        long offset = buffer.getLong(headerPosition);
+        if(offset < HEADER_SIZE || offset > buffer.capacity()) { throw new IOException("Corrupted snapshot file"); }
+        return (int) offset;
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Route table that reads its columns from the mapped file
+    private final class MappedRouteTable extends RouteTable {
+
+        private final int start;
+        private final int size;
+
+        private MappedRouteTable(int start, int size) {
+            this.start = start;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int flightId(int index) {
+            return buffer.getInt(flightIdsOffset + position(index) * 4);
+        }
+
+        @Override
+        public int airlineId(int index) {
+            return buffer.getInt(airlineIdsOffset + position(index) * 4);
+        }
+
+        @Override
+        public long basePrice(int index) {
+            return buffer.getLong(basePricesOffset + position(index) * 8);
+        }
+
+        private int position(int index) {
+            if(index < 0 || index >= size) { throw new IndexOutOfBoundsException("Flight not found: " + index); }
+            return start + index;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package es.bdh.lmassignment;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the concurrency limit and the rejection of tasks when the queue is full.
+ */
+public class TestBoundedExecutor {
+
+    @Test
+    public void limitsConcurrencyAndRejectsWhenFull() throws Exception {
+
+        BoundedExecutor executor = new BoundedExecutor(2, 3);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        Callable<Integer> task = () -> {
+            int now = running.incrementAndGet();
+            maxRunning.accumulateAndGet(now, Math::max);
+            release.await();
+            running.decrementAndGet();
+            return now;
+        };
+
+        // 2 running + 3 queued are accepted, the next one is rejected without waiting
+        List<CompletableFuture<Integer>> accepted = new ArrayList<>();
+        for(int i = 0; i < 5; i++) {
+            accepted.add(executor.submit(task));
+        }
+        assertThat(executor.pending(), equalTo(5));
+        CompletableFuture<Integer> rejected = executor.submit(task);
+        assertTrue(rejected.isCompletedExceptionally());
+        try {
+            rejected.get();
+            fail("Should have been rejected");
+        } catch(ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(RejectedExecutionException.class));
+        }
+
+        release.countDown();
+        for(CompletableFuture<Integer> future : accepted) {
+            assertThat(future.get(10, TimeUnit.SECONDS), lessThanOrEqualTo(2));
+        }
+        assertThat(maxRunning.get(), lessThanOrEqualTo(2));
+
+        // Slots are freed when tasks finish
+        while(executor.pending() > 0) {
+            Thread.sleep(1);
+        }
+        assertThat(executor.submit(task).get(10, TimeUnit.SECONDS), equalTo(1));
+    }
+
+    @Test
+    public void failedTasksFailTheirFuture() throws Exception {
+
+        BoundedExecutor executor = new BoundedExecutor(1, 0);
+        CompletableFuture<Object> future = executor.submit(() -> {
+            throw new IllegalStateException("Failed");
+        });
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("Should have failed");
+        } catch(ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+        }
+        while(executor.pending() > 0) {
+            Thread.sleep(1);
+        }
+        assertThat(executor.pending(), equalTo(0));
+    }
+}
@@ -0,0 +1,89 @@
+package es.bdh.lmassignment;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Tests the CSV bulk loader
+ */
+public class TestCsvLoader {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void loadAll() throws IOException {
+        Path airlines = write("airlines.csv", "IB,Iberia\nTK,Turkish Airlines\n");
+        Path airports = write("airports.csv", "CPH,Copenhagen\r\nFCO,Rome\r\n");
+        Path fixedPrices = write("fixed.csv", "IB,INFANT,10.00\nTK,INFANT,5\n");
+        Path flights = write("flights.csv", "CPH,FCO,TK4667,137.00\n\nCPH,FCO,IB4631,268.5\nFCO,CPH,TK4668,99"); // No newline at the end
+
+        Database db = new Database();
+        try(Database.Batch batch = db.batch()) {
+            CsvLoader loader = new CsvLoader(batch);
+            assertThat(loader.loadAirlines(airlines).getRows(), equalTo(2L));
+            assertThat(loader.loadAirports(airports).getRows(), equalTo(2L));
+            assertThat(loader.loadFixedPrices(fixedPrices).getRejected(), equalTo(0L));
+            CsvLoader.Report report = loader.loadFlights(flights);
+            assertThat(report.getRows(), equalTo(3L));
+            assertThat(report.getRejected(), equalTo(0L));
+            assertThat(db.getRoute("CPH", "FCO").size(), equalTo(0)); // Not committed yet
+            batch.commit();
+        }
+
+        RouteTable route = db.getRoute("CPH", "FCO");
+        assertThat(route.size(), equalTo(2));
+        assertThat(db.getFlightCode(route.flightId(1)), equalTo("IB4631"));
+        assertThat(route.basePrice(1), equalTo(26850L));
+        assertThat(db.getAirline(route.airlineId(1)).getFixedPricesByPassengerType().get(PassengerType.INFANT),
+                equalTo(new BigDecimal("10.00")));
+        assertThat(db.getRoute("FCO", "CPH").basePrice(0), equalTo(9900L));
+    }
+
+    @Test
+    public void rejectedRows() throws IOException {
+        char[] longField = new char[100000];
+        Arrays.fill(longField, 'X');
+        Path flights = write("flights.csv",
+                "CPH,FCO,TK4667,137.00\n" +
+                "CPH,FCO,XX1234,137.00\n" +       // Unknown airline
+                "CPH,FCO,TK4667,13a.00\n" +       // Invalid price
+                "CPH,FCO,TK4667,137.001\n" +      // Not in cents
+                "CPH,FCO,TK4667\n" +              // Missing field
+                "CPH,FCO,TK4667,1,2\n" +          // Extra field
+                "CPH,FCO," + new String(longField) + ",1.00\n" + // Longer than the buffer
+                "CPHCPHCPH,FCO,TK4667,1.00\n" +   // Invalid airport code
+                "CPH,FCO,TK4669,-\n" +            // Price without digits
+                "CPH,FCO,TK4668,12.5\n");
+
+        Database db = new Database();
+        db.addAirline("TK", "Turkish Airlines");
+        try(Database.Batch batch = db.batch()) {
+            CsvLoader.Report report = new CsvLoader(batch).loadFlights(flights);
+            assertThat(report.getRows(), equalTo(10L));
+            assertThat(report.getRejected(), equalTo(8L));
+            assertThat(report.getErrors(), hasItem("Line 2: Airline XX not found"));
+            assertThat(report.getErrors(), hasItem("Line 7: Line too long"));
+            batch.commit();
+        }
+        assertThat(db.getRoute("CPH", "FCO").size(), equalTo(2));
+        assertThat(db.getRoute("CPH", "FCO").basePrice(1), equalTo(1250L));
+    }
+
+    private Path write(String name, String content) throws IOException {
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -2,19 +2,32 @@ package es.bdh.lmassignment;
 
 import org.hamcrest.Matchers;
 import org.hamcrest.beans.HasPropertyWithValue;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.Matchers.*;
-import static org.junit.Assert.assertThat;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
 
 /**
  * Tests the database
  */
 public class TestDatabase {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     // No result: it returns not null and empty
     @Test
     public void getFlightsNoResult() {
@@ -61,4 +74,533 @@ public class TestDatabase {
         assertThat(flights, hasItem(new HasPropertyWithValue<Flight>("flightCode", is("U24631"))));
     }
 
+    // Routes are directional and airports are known even if they only appear in flights
+    @Test
+    public void getFlightsByDirection() {
+
+        Database db = new Database();
+        db.addAirline("VY", "Vueling");
+        db.addAirport("MAD", "Madrid");
+        db.addFlight("LHR","LHR","VY8162", new BigDecimal("285.00"));
+        db.addFlight("LHR","BCN","VY4633", new BigDecimal("149.00"));
+
+        assertThat(db.getFlights("LHR", "LHR"), hasSize(1));
+        assertThat(db.getFlights("LHR", "BCN"), hasSize(1));
+        assertThat(db.getFlights("BCN", "LHR"), hasSize(0));
+        assertThat(db.getFlights("LHR", "MAD"), hasSize(0));
+        assertThat(db.getFlights("LHR", "CPH"), hasSize(0));
+    }
+
+    // Route tables keep insertion order and never change once published
+    @Test
+    public void getRouteColumns() {
+
+        Database db = new Database();
+        db.addAirline("U2", "EasyJet");
+        db.addAirline("TK", "Turkish Airlines");
+        db.addFlight("CPH","FCO","TK4667", new BigDecimal("137.00"));
+
+        RouteTable route = db.getRoute("CPH", "FCO");
+        assertThat(route.size(), equalTo(1));
+
+        db.addFlight("CPH","FCO","U24631", new BigDecimal("268.5"));
+        assertThat(route.size(), equalTo(1)); // Already published tables don't change
+        route = db.getRoute("CPH", "FCO");
+        assertThat(route.size(), equalTo(2));
+        assertThat(db.getFlightCode(route.flightId(1)), equalTo("U24631"));
+        assertThat(db.getAirline(route.airlineId(1)).getCode(), equalTo("U2"));
+        assertThat(route.basePrice(1), equalTo(26850L));
+        assertThat(db.getRoute("FCO", "CPH").size(), equalTo(0));
+    }
+
+    // Batch changes are published together on commit, and discarded without it
+    @Test
+    public void batchVisibility() {
+
+        Database db = new Database();
+        db.addAirline("U2", "EasyJet");
+        Database.Snapshot before = db.snapshot();
+
+        try(Database.Batch batch = db.batch()) {
+            batch.addAirline("TK", "Turkish Airlines");
+            batch.addFlight("CPH","FCO","TK4667", new BigDecimal("137.00"));
+            batch.addFlight("CPH","FCO","U24631", new BigDecimal("268.00"));
+            assertThat(db.getRoute("CPH", "FCO").size(), equalTo(0));
+            batch.commit();
+        }
+        assertThat(db.getRoute("CPH", "FCO").size(), equalTo(2));
+        assertThat(before.getRoute("CPH", "FCO").size(), equalTo(0));
+
+        try(Database.Batch batch = db.batch()) {
+            batch.addFlight("CPH","FCO","U24633", new BigDecimal("99.00"));
+            batch.addFlight("CPH","BCN","U22593", new BigDecimal("218.00"));
+        }
+        assertThat(db.getRoute("CPH", "FCO").size(), equalTo(2));
+        assertThat(db.getRoute("CPH", "BCN").size(), equalTo(0));
+
+        // Changes to airlines don't affect snapshots already published
+        Database.Snapshot published = db.snapshot();
+        db.addPassengerTypeFixedPrice("U2", PassengerType.INFANT, new BigDecimal("19.90"));
+        int airlineId = published.getRoute("CPH", "FCO").airlineId(1);
+        assertThat(published.getAirline(airlineId).getFixedPricesByPassengerType().size(), equalTo(0));
+        assertThat(db.getAirline(airlineId).getFixedPricesByPassengerType().size(), equalTo(1));
+    }
+
+    // Fixed prices are flattened by airline id, and the table is only rebuilt when an airline changes
+    @Test
+    public void fixedPriceTable() {
+
+        Database db = new Database();
+        db.addAirline("U2", "EasyJet");
+        db.addAirline("TK", "Turkish Airlines");
+        db.addPassengerTypeFixedPrice("U2", PassengerType.INFANT, new BigDecimal("19.90"));
+        db.addPassengerTypeFixedPrice("TK", PassengerType.INFANT, new BigDecimal("15.00"));
+        db.addPassengerTypeFixedPrice("TK", PassengerType.CHILD, new BigDecimal("60.50"));
+
+        Database.Snapshot published = db.snapshot();
+        FixedPriceTable fixedPrices = published.getFixedPrices();
+        db.addFlight("CPH", "FCO", "U24631", new BigDecimal("268.00"));
+        db.addFlight("CPH", "FCO", "TK4667", new BigDecimal("137.00"));
+        assertThat(db.snapshot().getFixedPrices(), sameInstance(fixedPrices));
+
+        RouteTable route = db.getRoute("CPH", "FCO");
+        int u2 = route.airlineId(0);
+        int tk = route.airlineId(1);
+        assertThat(fixedPrices.get(u2, PassengerType.INFANT.ordinal()), equalTo(1990L));
+        assertThat(fixedPrices.get(u2, PassengerType.CHILD.ordinal()), equalTo(PriceService.NO_FIXED_PRICE));
+        assertThat(fixedPrices.get(tk, PassengerType.CHILD.ordinal()), equalTo(6050L));
+        assertThat(fixedPrices.getMinCents()[PassengerType.INFANT.ordinal()], equalTo(1500L));
+        assertThat(fixedPrices.getMinCents()[PassengerType.ADULT.ordinal()], equalTo(PriceService.NO_FIXED_PRICE));
+
+        db.addPassengerTypeFixedPrice("U2", PassengerType.INFANT, new BigDecimal("9.90"));
+        assertThat(db.snapshot().getFixedPrices(), not(sameInstance(fixedPrices)));
+        assertThat(db.snapshot().getFixedPrices().get(u2, PassengerType.INFANT.ordinal()), equalTo(990L));
+        assertThat(db.snapshot().getMinFixedPriceCents()[PassengerType.INFANT.ordinal()], equalTo(990L));
+        assertThat(fixedPrices.get(u2, PassengerType.INFANT.ordinal()), equalTo(1990L));
+    }
+
+    // Readers running while flights are loaded only see whole batches
+    @Test
+    public void concurrentReaders() throws InterruptedException {
+
+        final Database db = new Database();
+        db.addAirline("U2", "EasyJet");
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicInteger errors = new AtomicInteger();
+        List<Thread> readers = new ArrayList<>();
+        for(int i = 0; i < 4; i++) {
+            Thread reader = new Thread() {
+                @Override
+                public void run() {
+                    while(running.get()) {
+                        RouteTable route = db.getRoute("CPH", "FCO");
+                        if(route.size() % 10 != 0) { errors.incrementAndGet(); }
+                        for(int j = 0; j < route.size(); j++) {
+                            if(db.getFlightCode(route.flightId(j)) == null) { errors.incrementAndGet(); }
+                        }
+                    }
+                }
+            };
+            reader.start();
+            readers.add(reader);
+        }
+
+        for(int i = 0; i < 200; i++) {
+            try(Database.Batch batch = db.batch()) {
+                for(int j = 0; j < 10; j++) {
+                    batch.addFlight("CPH","FCO","U2" + (i * 10 + j), new BigDecimal("100.00"));
+                }
+                batch.commit();
+            }
+        }
+        running.set(false);
+        for(Thread reader : readers) {
+            reader.join();
+        }
+        assertThat(errors.get(), equalTo(0));
+        assertThat(db.getRoute("CPH", "FCO").size(), equalTo(2000));
+    }
+
+    // Readers of all the shards see airline changes in all of them or in none
+    @Test
+    public void shardedAirlineChanges() throws InterruptedException {
+
+        final ShardedDatabase db = new ShardedDatabase(4);
+        db.addAirline("U2", "EasyJet");
+        final int infant = PassengerType.INFANT.ordinal();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicInteger errors = new AtomicInteger();
+        List<Thread> readers = new ArrayList<>();
+        for(int i = 0; i < 4; i++) {
+            Thread reader = new Thread() {
+                @Override
+                public void run() {
+                    while(running.get()) {
+                        Database.Snapshot[] snapshots = db.snapshots();
+                        long price = snapshots[0].getFixedPrices().get(0, infant);
+                        for(Database.Snapshot snapshot : snapshots) {
+                            if(snapshot.getFixedPrices().get(0, infant) != price) { errors.incrementAndGet(); }
+                        }
+                    }
+                }
+            };
+            reader.start();
+            readers.add(reader);
+        }
+
+        for(int i = 0; i < 500; i++) {
+            db.addPassengerTypeFixedPrice("U2", PassengerType.INFANT, new BigDecimal(i));
+            db.addFlight("CPH", "FCO", "U2" + i, new BigDecimal("100.00"));
+        }
+        running.set(false);
+        for(Thread reader : readers) {
+            reader.join();
+        }
+        assertThat(errors.get(), equalTo(0));
+        for(Database.Snapshot snapshot : db.snapshots()) {
+            assertThat(snapshot.getFixedPrices().get(0, infant), equalTo(49900L));
+        }
+        // Commits of a single shard are in the snapshots too
+        assertThat(db.snapshots()[db.shardIndex("CPH")].getRoute("CPH", "FCO").size(), equalTo(500));
+    }
+
+    // Deltas change flights by code, copying only their routes and giving them the new version
+    @Test
+    public void scheduleDeltas() {
+
+        Database db = new Database();
+        db.addAirline("U2", "EasyJet");
+        db.addAirline("TK", "Turkish Airlines");
+        db.addFlight("CPH","FCO","TK4667", new BigDecimal("137.00"));
+        db.addFlight("CPH","FCO","U24631", new BigDecimal("268.00"));
+        db.addFlight("CPH","BCN","U22593", new BigDecimal("218.00"));
+        db.addFlight("LHR","IST","TK8891", new BigDecimal("250.00"));
+        Database.Snapshot before = db.snapshot();
+
+        try(Database.Batch batch = db.batch()) {
+            batch.updateBasePrice("U24631", new BigDecimal("199.99"));
+            batch.removeFlight("TK4667");
+            batch.addFlight("CPH","FCO","U24633", new BigDecimal("99.00"));
+            batch.updateBasePrice("U24633", new BigDecimal("89.00")); // Added in the same batch
+            batch.commit();
+        }
+        Database.Snapshot after = db.snapshot();
+        assertThat(after.version(), equalTo(before.version() + 1));
+        RouteTable route = after.getRoute("CPH", "FCO");
+        assertThat(route.size(), equalTo(2));
+        assertThat(after.getFlightCode(route.flightId(0)), equalTo("U24631"));
+        assertThat(route.basePrice(0), equalTo(19999L));
+        assertThat(after.getFlightCode(route.flightId(1)), equalTo("U24633"));
+        assertThat(route.basePrice(1), equalTo(8900L));
+        assertThat(route.version(), equalTo(after.version()));
+        // Routes not changed are shared, and published snapshots don't change
+        assertThat(after.getRoute("CPH", "BCN"), sameInstance(before.getRoute("CPH", "BCN")));
+        assertThat(after.getRoute("CPH", "BCN").version(), lessThan(after.version()));
+        assertThat(before.getRoute("CPH", "FCO").size(), equalTo(2));
+        assertThat(before.getRoute("CPH", "FCO").basePrice(1), equalTo(26800L));
+
+        // Removed flights can't be changed, and routes without flights don't connect airports
+        try {
+            db.updateBasePrice("TK4667", new BigDecimal("100.00"));
+            fail("Removed flights can't be changed");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+        db.removeFlight("TK8891");
+        assertThat(db.getRoute("LHR", "IST").size(), equalTo(0));
+        assertThat(db.snapshot().routeKeys().length, equalTo(2));
+
+        // Discarded batches don't change the index
+        try(Database.Batch batch = db.batch()) {
+            batch.removeFlight("U22593");
+            assertThat(batch.containsFlight("U22593"), is(false));
+        }
+        assertThat(db.getRoute("CPH", "BCN").size(), equalTo(1));
+        db.removeFlight("U22593");
+        assertThat(db.getRoute("CPH", "BCN").size(), equalTo(0));
+    }
+
+    // Removing the last flight added with a code finds the previous one again
+    @Test
+    public void duplicateFlightCodes() throws IOException {
+
+        Database db = new Database();
+        db.addAirline("U2", "EasyJet");
+        db.addFlight("CPH","FCO","U24631", new BigDecimal("268.00"));
+        db.addFlight("CPH","BCN","U24631", new BigDecimal("218.00"));
+        db.updateBasePrice("U24631", new BigDecimal("200.00")); // Builds the index
+        assertThat(db.getRoute("CPH", "BCN").basePrice(0), equalTo(20000L));
+
+        db.removeFlight("U24631");
+        assertThat(db.getRoute("CPH", "BCN").size(), equalTo(0));
+        db.updateBasePrice("U24631", new BigDecimal("150.00"));
+        assertThat(db.getRoute("CPH", "FCO").basePrice(0), equalTo(15000L));
+
+        // Same in a batch, with a flight added by it
+        try(Database.Batch batch = db.batch()) {
+            batch.addFlight("CPH","MAD","U24631", new BigDecimal("99.00"));
+            batch.removeFlight("U24631");
+            assertThat(batch.containsFlight("U24631"), is(true));
+            batch.updateBasePrice("U24631", new BigDecimal("140.00"));
+            batch.commit();
+        }
+        assertThat(db.getRoute("CPH", "MAD").size(), equalTo(0));
+        assertThat(db.getRoute("CPH", "FCO").basePrice(0), equalTo(14000L));
+
+        // And for the flights of a file
+        db.addFlight("CPH","MAD","U24631", new BigDecimal("99.00"));
+        Path file = folder.newFile().toPath();
+        db.writeSnapshot(file);
+        Database opened = Database.openSnapshot(file);
+        opened.removeFlight("U24631");
+        opened.removeFlight("U24631");
+        assertThat(opened.getRoute("CPH", "MAD").size(), equalTo(0));
+        assertThat(opened.getRoute("CPH", "FCO").size(), equalTo(0));
+        try {
+            opened.removeFlight("U24631");
+            fail("All the flights with the code were removed");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    // Each commit shares the routes it doesn't change, even after many single changes
+    @Test
+    public void manySingleCommits() {
+
+        Database db = new Database();
+        db.addAirline("U2", "EasyJet");
+        int airports = 40;
+        for(int i = 0; i < airports * airports; i++) {
+            db.addFlight("A" + (i % airports), "B" + (i / airports), "U2" + i, Money.fromCents(10000 + i));
+        }
+        Database.Snapshot before = db.snapshot();
+        assertThat(before.routeKeys().length, equalTo(airports * airports));
+        for(int i = 0; i < airports * airports; i += 7) {
+            db.updateBasePrice("U2" + i, Money.fromCents(i));
+        }
+        db.removeFlight("U20");
+        for(int i = 0; i < airports * airports; i++) {
+            String origin = "A" + (i % airports);
+            String dest = "B" + (i / airports);
+            assertThat(before.getRoute(origin, dest).basePrice(0), equalTo(10000L + i));
+            if(i == 0) {
+                assertThat(db.getRoute(origin, dest).size(), equalTo(0));
+            } else {
+                assertThat(db.getRoute(origin, dest).basePrice(0), equalTo((i % 7 == 0) ? i : 10000L + i));
+                if(i % 7 != 0) { assertThat(db.getRoute(origin, dest), sameInstance(before.getRoute(origin, dest))); }
+            }
+        }
+        assertThat(db.snapshot().routeKeys().length, equalTo(airports * airports - 1));
+    }
+
+    @Test
+    public void removeFixedPrice() {
+
+        Database db = new Database();
+        db.addAirline("U2", "EasyJet");
+        db.addPassengerTypeFixedPrice("U2", PassengerType.INFANT, new BigDecimal("19.90"));
+        FixedPriceTable fixedPrices = db.snapshot().getFixedPrices();
+        db.removePassengerTypeFixedPrice("U2", PassengerType.CHILD); // Nothing to remove
+        assertThat(db.snapshot().getFixedPrices(), sameInstance(fixedPrices));
+        db.removePassengerTypeFixedPrice("U2", PassengerType.INFANT);
+        assertThat(db.getAirline(0).getFixedPricesByPassengerType().size(), equalTo(0));
+        assertThat(db.snapshot().getFixedPrices().get(0, PassengerType.INFANT.ordinal()), equalTo(PriceService.NO_FIXED_PRICE));
+    }
+
+    // Flight codes don't tell their shard: the one that has the flight is changed
+    @Test
+    public void shardedDeltas() {
+
+        ShardedDatabase db = new ShardedDatabase(4);
+        db.addAirline("U2", "EasyJet");
+        String[] origins = {"CPH", "BCN", "FCO", "LHR", "MAD", "IST"};
+        for(int i = 0; i < origins.length; i++) {
+            db.addFlight(origins[i], "AMS", "U2" + i, new BigDecimal("100.00"));
+        }
+        db.updateBasePrice("U23", new BigDecimal("80.00"));
+        db.removeFlight("U25");
+        assertThat(db.getRoute("LHR", "AMS").basePrice(0), equalTo(8000L));
+        assertThat(db.getRoute("IST", "AMS").size(), equalTo(0));
+        try {
+            db.removeFlight("U25");
+            fail("Removed flights can't be removed again");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    // Flights of a file are found by code, and routes emptied are hidden
+    @Test
+    public void snapshotFileDeltas() throws IOException {
+
+        Database db = new Database();
+        db.addAirline("U2", "EasyJet");
+        db.addFlight("CPH","FCO","U24631", new BigDecimal("268.00"));
+        db.addFlight("CPH","BCN","U22593", new BigDecimal("218.00"));
+        Path file = folder.newFile().toPath();
+        db.writeSnapshot(file);
+
+        Database opened = Database.openSnapshot(file);
+        opened.updateBasePrice("U24631", new BigDecimal("150.00"));
+        opened.removeFlight("U22593");
+        assertThat(opened.getRoute("CPH", "FCO").basePrice(0), equalTo(15000L));
+        assertThat(opened.getRoute("CPH", "BCN").size(), equalTo(0));
+        assertThat(opened.snapshot().routeKeys().length, equalTo(1));
+    }
+
+    // Indexes are updated by commits, and they match the ones built from all the routes
+    @Test
+    public void scheduleIndex() throws IOException {
+
+        Database db = new Database();
+        db.addAirline("U2", "EasyJet");
+        db.addAirline("TK", "Turkish Airlines");
+        try(Database.Batch batch = db.batch()) {
+            batch.addFlight("CPH","FCO","U24631", new BigDecimal("268.00"));
+            batch.addFlight("CPH","BCN","U22593", new BigDecimal("218.00"));
+            batch.addFlight("CPH","IST","TK1784", new BigDecimal("310.00"));
+            batch.addFlight("IST","FCO","TK1321", new BigDecimal("120.00"));
+            batch.commit();
+        }
+        db.addFlight("CPH","FCO","TK4667", new BigDecimal("137.00"));
+        assertThat(db.getDestinations("CPH"), containsInAnyOrder("FCO", "BCN", "IST"));
+        assertThat(db.getOrigins("FCO"), containsInAnyOrder("CPH", "IST"));
+        assertThat(db.getAirlineFlights("TK"), containsInAnyOrder("TK1784", "TK1321", "TK4667"));
+        assertThat(db.getDestinations("FCO"), hasSize(0));
+        assertThat(db.getDestinations("XXX"), hasSize(0));
+        assertThat(db.getAirlineFlights("XX"), hasSize(0));
+
+        // Routes are removed with their last flight
+        ScheduleIndex before = db.snapshot().getSchedule();
+        db.removeFlight("TK4667");
+        assertThat(db.getOrigins("FCO"), containsInAnyOrder("CPH", "IST"));
+        db.removeFlight("TK1321");
+        assertThat(db.getOrigins("FCO"), contains("CPH"));
+        assertThat(db.getAirlineFlights("TK"), contains("TK1784"));
+        assertThat(before.flights(1).length, equalTo(3)); // TK: published indexes don't change
+        db.updateBasePrice("U24631", new BigDecimal("200.00"));
+        assertIndexed(db.snapshot());
+
+        // Flights appended one commit at a time aren't seen by previous snapshots
+        Database.Snapshot appended = db.snapshot();
+        for(int i = 0; i < 100; i++) {
+            db.addFlight("IST","CPH","TK" + (2000 + i), new BigDecimal("99.00"));
+        }
+        assertThat(appended.getAirlineFlights("TK"), contains("TK1784"));
+        assertThat(db.getAirlineFlights("TK"), hasSize(101));
+        assertIndexed(db.snapshot());
+
+        // Indexes can be updated more than once, without changing each other
+        ScheduleIndex index = db.snapshot().getSchedule();
+        ScheduleIndex.Changes first = new ScheduleIndex.Changes();
+        first.addFlight(1, 1000);
+        ScheduleIndex.Changes second = new ScheduleIndex.Changes();
+        second.addFlight(1, 2000);
+        int[] firstFlights = index.update(first).flights(1);
+        int[] secondFlights = index.update(second).flights(1);
+        assertThat(firstFlights[firstFlights.length - 1], equalTo(1000));
+        assertThat(secondFlights[secondFlights.length - 1], equalTo(2000));
+        assertThat(index.update(first).flights(1)[firstFlights.length - 1], equalTo(1000));
+        assertThat(index.flights(1).length, equalTo(101));
+
+        // Indexes of files are built when first needed
+        Path file = folder.newFile().toPath();
+        db.writeSnapshot(file);
+        Database opened = Database.openSnapshot(file);
+        assertThat(opened.getDestinations("CPH"), containsInAnyOrder("FCO", "BCN", "IST"));
+        opened.addFlight("FCO","CPH","U24632", new BigDecimal("250.00"));
+        opened.removeFlight("U22593");
+        assertThat(opened.getDestinations("CPH"), containsInAnyOrder("FCO", "IST"));
+        assertThat(opened.getAirlineFlights("U2"), containsInAnyOrder("U24631", "U24632"));
+        assertIndexed(opened.snapshot());
+
+        ShardedDatabase sharded = new ShardedDatabase(4);
+        sharded.addAirline("U2", "EasyJet");
+        String[] origins = {"CPH", "BCN", "FCO", "LHR", "MAD", "IST"};
+        for(int i = 0; i < origins.length; i++) {
+            sharded.addFlight(origins[i], "AMS", "U2" + i, new BigDecimal("100.00"));
+        }
+        assertThat(sharded.getOrigins("AMS"), containsInAnyOrder(origins));
+        assertThat(sharded.getDestinations("MAD"), contains("AMS"));
+        assertThat(sharded.getAirlineFlights("U2"), hasSize(origins.length));
+    }
+
+    // The index of a snapshot is the same as the one built from its routes
+    private static void assertIndexed(Database.Snapshot snapshot) {
+        ScheduleIndex index = snapshot.getSchedule();
+        ScheduleIndex built = ScheduleIndex.build(snapshot);
+        for(int i = 0; i < snapshot.airportCount(); i++) {
+            assertThat(index.destinations(i), equalTo(built.destinations(i)));
+            assertThat(index.origins(i), equalTo(built.origins(i)));
+        }
+        for(int i = 0; i < snapshot.airlineCount(); i++) {
+            assertThat(index.flights(i), equalTo(built.flights(i)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addFlightSubCentPrice() {
+        Database db = new Database();
+        db.addAirline("U2", "EasyJet");
+        db.addFlight("CPH","FCO","U24631", new BigDecimal("268.005"));
+    }
+
+    // A database opened from a snapshot file has the same data, and it can be changed and saved again
+    @Test
+    public void snapshotFile() throws IOException {
+
+        Database db = new Database();
+        db.addAirline("U2", "EasyJet");
+        db.addAirline("TK", "Turkish Airlines");
+        db.addAirline("IB", "Iberia");
+        db.addAirport("MAD", "Madrid");
+        db.addPassengerTypeFixedPrice("IB", PassengerType.INFANT, new BigDecimal("15.00"));
+        db.addFlight("CPH","FCO","TK4667", new BigDecimal("137.00"));
+        db.addFlight("CPH","FCO","U24631", new BigDecimal("268.5"));
+        db.addFlight("FCO","CPH","IB2818", new BigDecimal("186.00"));
+        Path file = folder.getRoot().toPath().resolve("db.snapshot");
+        db.writeSnapshot(file);
+
+        Database opened = Database.openSnapshot(file);
+        RouteTable route = opened.getRoute("CPH", "FCO");
+        assertThat(route.size(), equalTo(2));
+        assertThat(opened.getFlightCode(route.flightId(1)), equalTo("U24631"));
+        assertThat(opened.getAirline(route.airlineId(1)).getName(), equalTo("EasyJet"));
+        assertThat(route.basePrice(1), equalTo(26850L));
+        assertThat(opened.getFlights("FCO", "CPH"), hasItem(new HasPropertyWithValue<Flight>("flightCode", is("IB2818"))));
+        assertThat(opened.getFlights("FCO", "CPH").iterator().next().getAirline().getFixedPricesByPassengerType().get(PassengerType.INFANT),
+                equalTo(new BigDecimal("15.00")));
+        assertThat(opened.getRoute("MAD", "CPH").size(), equalTo(0));
+
+        // Changes are kept on top of the file
+        opened.addFlight("CPH","FCO","IB4631", new BigDecimal("99.00"));
+        opened.addFlight("CPH","MAD","IB4632", new BigDecimal("49.99"));
+        assertThat(opened.getRoute("CPH", "FCO").size(), equalTo(3));
+        assertThat(opened.getFlightCode(opened.getRoute("CPH", "FCO").flightId(2)), equalTo("IB4631"));
+        assertThat(Database.openSnapshot(file).getRoute("CPH", "FCO").size(), equalTo(2));
+
+        opened.writeSnapshot(file);
+        Database reopened = Database.openSnapshot(file);
+        assertThat(reopened.getRoute("CPH", "FCO").size(), equalTo(3));
+        assertThat(reopened.getFlightCode(reopened.getRoute("CPH", "MAD").flightId(0)), equalTo("IB4632"));
+        assertThat(reopened.getRoute("CPH", "MAD").basePrice(0), equalTo(4999L));
+        assertThat(reopened.getRoute("FCO", "CPH").size(), equalTo(1));
+
+        // A failed write keeps the previous file and doesn't leave the temporary one
+        try {
+            SnapshotFile.write(null, file);
+            fail("Write of a missing snapshot should fail");
+        } catch(NullPointerException ex) {
+            // Expected
+        }
+        assertThat(Database.openSnapshot(file).getRoute("CPH", "FCO").size(), equalTo(3));
+        assertThat(Files.exists(file.resolveSibling("db.snapshot.tmp")), is(false));
+    }
+
+    @Test(expected = IOException.class)
+    public void openInvalidSnapshot() throws IOException {
+        Database.openSnapshot(folder.newFile("empty.snapshot").toPath());
+    }
+
 }
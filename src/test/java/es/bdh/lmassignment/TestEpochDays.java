@@ -0,0 +1,70 @@
+package es.bdh.lmassignment;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Date;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Tests days between dates: time of day, time zones and daylight saving changes.
+ */
+public class TestEpochDays {
+
+    private static final ZoneId MADRID = ZoneId.of("Europe/Madrid");
+    private static final ZoneId AUCKLAND = ZoneId.of("Pacific/Auckland");
+
+    @Test
+    public void timeOfDayDoesntMatter() {
+
+        EpochDays days = new EpochDays(MADRID);
+        // Morning, afternoon and last minute of the day
+        assertThat(days.daysBetween(date(MADRID, "2017-01-01T09:00"), date(MADRID, "2017-01-02T08:00")), equalTo(1));
+        assertThat(days.daysBetween(date(MADRID, "2017-01-01T15:00"), date(MADRID, "2017-01-02T10:00")), equalTo(1));
+        assertThat(days.daysBetween(date(MADRID, "2017-01-01T23:59"), date(MADRID, "2017-01-02T00:00")), equalTo(1));
+        assertThat(days.daysBetween(date(MADRID, "2017-01-01T00:00"), date(MADRID, "2017-01-01T23:59")), equalTo(0));
+        assertThat(days.daysBetween(date(MADRID, "2017-01-02T10:00"), date(MADRID, "2017-01-01T15:00")), equalTo(-1));
+        assertThat(days.of(date(MADRID, "2017-01-01T15:00")), equalTo(LocalDate.of(2017, 1, 1).toEpochDay()));
+    }
+
+    @Test
+    public void daysAreLocalToTheZone() {
+
+        // 2017-01-01T20:00Z is already the 2nd in Auckland, 2017-01-02T10:00Z still the 2nd
+        Date today = Date.from(Instant.parse("2017-01-01T20:00:00Z"));
+        Date departure = Date.from(Instant.parse("2017-01-02T10:00:00Z"));
+        assertThat(new EpochDays(ZoneId.of("UTC")).daysBetween(today, departure), equalTo(1));
+        assertThat(new EpochDays(AUCKLAND).daysBetween(today, departure), equalTo(0));
+        assertThat(new EpochDays(ZoneId.of("UTC")).of(-1L), equalTo(-1L));
+    }
+
+    @Test
+    public void daylightSavingChangesAreOneDay() {
+
+        EpochDays days = new EpochDays(MADRID);
+        // 23 hours day (2017-03-26) and 25 hours day (2017-10-29)
+        assertThat(days.daysBetween(date(MADRID, "2017-03-25T00:00"), date(MADRID, "2017-03-27T00:00")), equalTo(2));
+        assertThat(days.daysBetween(date(MADRID, "2017-03-26T00:00"), date(MADRID, "2017-03-26T23:30")), equalTo(0));
+        assertThat(days.daysBetween(date(MADRID, "2017-10-29T00:00"), date(MADRID, "2017-10-29T23:30")), equalTo(0));
+        assertThat(days.daysBetween(date(MADRID, "2017-10-28T12:00"), date(MADRID, "2017-10-30T00:00")), equalTo(2));
+    }
+
+    @Test
+    public void todayIsTheCurrentDate() {
+
+        EpochDays days = new EpochDays(AUCKLAND);
+        long today = LocalDate.now(AUCKLAND).toEpochDay();
+        assertThat(days.today(), anyOf(equalTo(today), equalTo(today + 1)));
+        assertThat(days.today(), equalTo(days.of(new Date())));
+    }
+
+    private static Date date(ZoneId zone, String localDateTime) {
+        return Date.from(ZonedDateTime.of(LocalDateTime.parse(localDateTime), zone).toInstant());
+    }
+}
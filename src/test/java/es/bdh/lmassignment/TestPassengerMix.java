@@ -0,0 +1,92 @@
+package es.bdh.lmassignment;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static es.bdh.lmassignment.PassengerType.ADULT;
+import static es.bdh.lmassignment.PassengerType.CHILD;
+import static es.bdh.lmassignment.PassengerType.INFANT;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the packed passenger mix and that it prices the same as the passenger groups
+ */
+public class TestPassengerMix {
+
+    @Test
+    public void groupsOfTheSameTypeAreMerged() {
+
+        PassengerMix mix = PassengerMix.of(Arrays.asList(
+                new PassengersByType(CHILD, 1), new PassengersByType(ADULT, 2), new PassengersByType(CHILD, 2)));
+
+        assertThat(mix.count(ADULT), equalTo(2));
+        assertThat(mix.count(CHILD), equalTo(3));
+        assertThat(mix.count(INFANT), equalTo(0));
+        assertThat(mix.total(), equalTo(5));
+        assertThat(mix, equalTo(PassengerMix.of(ADULT, 2).plus(CHILD, 3)));
+        assertThat(mix.hashCode(), equalTo(PassengerMix.of(ADULT, 2).plus(CHILD, 3).hashCode()));
+        assertThat(mix.toGroups().size(), equalTo(2));
+        assertThat(PassengerMix.of(mix.toGroups()), equalTo(mix));
+    }
+
+    @Test
+    public void packedFormRoundTrips() {
+
+        PassengerMix mix = PassengerMix.of(ADULT, PassengerMix.MAX_COUNT).plus(INFANT, 7);
+
+        assertThat(PassengerMix.fromLong(mix.toLong()), equalTo(mix));
+        assertThat(PassengerMix.fromLong(mix.toLong()).count(ADULT), equalTo(PassengerMix.MAX_COUNT));
+        assertThat(PassengerMix.fromLong(0), sameInstance(PassengerMix.EMPTY));
+        assertThat(PassengerMix.of(Collections.<PassengersByType>emptyList()).isEmpty(), is(true));
+    }
+
+    @Test
+    public void invalidCountsAreRejected() {
+
+        try {
+            PassengerMix.of(ADULT, -1);
+            fail("Negative number of passengers not allowed");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            PassengerMix.of(ADULT, PassengerMix.MAX_COUNT).plus(ADULT, 1);
+            fail("Counts over MAX_COUNT not allowed");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            PassengerMix.of(Arrays.asList(new PassengersByType(ADULT, 1), null));
+            fail("Null passenger groups not allowed");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void mixPricesLikeGroups() {
+
+        PriceService engine = new PriceService();
+        engine.addDaysToDepartureRule(0, 15, new BigDecimal("1.20"));
+        engine.addDaysToDepartureRule(16, Integer.MAX_VALUE, new BigDecimal("0.80"));
+        engine.addPassengerTypeRule(CHILD, new BigDecimal("0.67"));
+        engine.addPassengerTypeRule(INFANT, new BigDecimal("0.00"));
+
+        BigDecimal basePrice = new BigDecimal("147.00");
+        List<PassengersByType> groups = Arrays.asList(
+                new PassengersByType(ADULT, 1), new PassengersByType(CHILD, 2), new PassengersByType(ADULT, 1));
+        PassengerMix mix = PassengerMix.of(groups);
+        for(int days : new int[]{0, 15, 16, 60}) {
+            assertThat(engine.calculatePrice(basePrice, Collections.emptyMap(), days, mix),
+                    equalTo(engine.calculatePrice(basePrice, Collections.emptyMap(), days, groups)));
+            assertThat(engine.calculatePrice(basePrice, Collections.singletonMap(CHILD, new BigDecimal("10.00")), days, mix),
+                    equalTo(engine.calculatePrice(basePrice, Collections.singletonMap(CHILD, new BigDecimal("10.00")), days, groups)));
+        }
+    }
+}
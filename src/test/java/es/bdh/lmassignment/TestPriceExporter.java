@@ -0,0 +1,154 @@
+package es.bdh.lmassignment;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static es.bdh.lmassignment.PassengerType.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the price export: every route, day and mix, with the same prices as PriceService
+ */
+public class TestPriceExporter {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Database db;
+    private final PriceService priceService;
+    private final List<PassengerMix> mixes;
+
+    public TestPriceExporter() {
+        db = new Database();
+        db.addAirline("U2", "EasyJet");
+        db.addAirline("TK", "Turkish Airlines");
+        db.addPassengerTypeFixedPrice("TK", INFANT, new BigDecimal("15.50"));
+        db.addFlight("CPH", "FCO", "TK4667", new BigDecimal("137.00"));
+        db.addFlight("CPH", "FCO", "U24631", new BigDecimal("268.05"));
+        db.addFlight("FCO", "CPH", "U24632", new BigDecimal("99.99"));
+
+        priceService = new PriceService();
+        priceService.addDaysToDepartureRule(0, 2, new BigDecimal("1.50"));
+        priceService.addDaysToDepartureRule(3, 30, new BigDecimal("1.20"));
+        priceService.addPassengerTypeRule(CHILD, new BigDecimal("0.67"));
+        priceService.addPassengerTypeRule(INFANT, new BigDecimal("0.00"));
+
+        mixes = Arrays.asList(PassengerMix.of(ADULT, 1), PassengerMix.of(ADULT, 2).plus(CHILD, 1).plus(INFANT, 1));
+    }
+
+    @Test
+    public void csv() throws IOException {
+
+        Path file = folder.getRoot().toPath().resolve("prices.csv");
+        List<PriceExporter.Report> progress = new ArrayList<>();
+        PriceExporter exporter = new PriceExporter(priceService, 1, 3, mixes);
+        PriceExporter.Report report = exporter.export(new Database.Snapshot[] {db.snapshot()}, file,
+                PriceExporter.Format.CSV, progress::add);
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertThat(report.getRoutes(), equalTo(2L));
+        assertThat(report.getPrices(), equalTo(3L * 3 * 2));
+        assertThat(report.getBytes(), equalTo(Files.size(file)));
+        assertThat(lines, hasSize(18));
+        assertThat(progress, hasItem(sameInstance(report)));
+        assertThat(lines, hasItem("CPH,FCO,TK4667,1,1,0,0," + price(137.00, 1, mixes.get(0), null)));
+        assertThat(lines, hasItem("CPH,FCO,TK4667,3,2,1,1," + price(137.00, 3, mixes.get(1), new BigDecimal("15.50"))));
+        assertThat(lines, hasItem("FCO,CPH,U24632,2,2,1,1," + price(99.99, 2, mixes.get(1), null)));
+        for(String line : lines) {
+            String[] fields = line.split(",");
+            assertThat(fields.length, equalTo(8));
+            assertThat(new BigDecimal(fields[7]).scale(), equalTo(2));
+        }
+    }
+
+    @Test
+    public void binary() throws IOException {
+
+        Path file = folder.getRoot().toPath().resolve("prices.bin");
+        PriceExporter exporter = new PriceExporter(priceService, 0, 2, mixes);
+        PriceExporter.Report report = exporter.export(db, file, PriceExporter.Format.BINARY);
+        assertThat(report.getBytes(), equalTo(Files.size(file)));
+
+        try(InputStream stream = Files.newInputStream(file)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+            assertThat(in.readInt(), equalTo(0x4C4D5058));
+            assertThat(in.readInt(), equalTo(1));
+            assertThat(in.readInt(), equalTo(0));
+            assertThat(in.readInt(), equalTo(2));
+            assertThat(in.readInt(), equalTo(2));
+            assertThat(PassengerMix.fromLong(in.readLong()), equalTo(mixes.get(0)));
+            assertThat(PassengerMix.fromLong(in.readLong()), equalTo(mixes.get(1)));
+
+            assertThat(in.readByte(), equalTo((byte) 1));
+            assertThat(readString(in), equalTo("CPH"));
+            assertThat(readString(in), equalTo("FCO"));
+            assertThat(in.readInt(), equalTo(2));
+            assertThat(readString(in), equalTo("TK4667"));
+            assertThat(readString(in), equalTo("U24631"));
+            long[] prices = new long[2 * 2 * 2];
+            for(int i = 0; i < prices.length; i++) {
+                prices[i] = in.readLong();
+            }
+            // Day 1, second mix: TK4667 then U24631
+            assertThat(Money.fromCents(prices[6]), equalTo(price(137.00, 1, mixes.get(1), new BigDecimal("15.50"))));
+            assertThat(Money.fromCents(prices[7]), equalTo(price(268.05, 1, mixes.get(1), null)));
+
+            assertThat(in.readByte(), equalTo((byte) 1));
+            assertThat(readString(in), equalTo("FCO"));
+            assertThat(readString(in), equalTo("CPH"));
+            assertThat(in.readInt(), equalTo(1));
+            assertThat(readString(in), equalTo("U24632"));
+            for(int i = 0; i < 4; i++) {
+                in.readLong();
+            }
+            assertThat(in.readByte(), equalTo((byte) 0));
+            assertThat(in.read(), equalTo(-1));
+        }
+    }
+
+    // A failed export keeps the previous file and doesn't leave the temporary one
+    @Test
+    public void failedExport() throws IOException {
+
+        Path file = folder.getRoot().toPath().resolve("prices.csv");
+        PriceExporter exporter = new PriceExporter(priceService, 1, 3, mixes);
+        exporter.export(db, file, PriceExporter.Format.CSV);
+        byte[] previous = Files.readAllBytes(file);
+        try {
+            exporter.export(new Database.Snapshot[] {db.snapshot(), null}, file, PriceExporter.Format.CSV, null);
+            fail("Export of a missing snapshot should fail");
+        } catch(NullPointerException ex) {
+            // Expected
+        }
+        assertThat(Files.readAllBytes(file), equalTo(previous));
+        assertThat(Files.exists(file.resolveSibling("prices.csv.tmp")), is(false));
+    }
+
+    private BigDecimal price(double basePrice, int daysToDeparture, PassengerMix mix, BigDecimal infantPrice) {
+        return priceService.calculatePrice(BigDecimal.valueOf(basePrice).setScale(2), (infantPrice == null)
+                ? Collections.<PassengerType, BigDecimal>emptyMap() : Collections.singletonMap(INFANT, infantPrice),
+                daysToDeparture, mix);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
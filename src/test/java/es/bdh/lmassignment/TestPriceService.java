@@ -1,8 +1,8 @@
 package es.bdh.lmassignment;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertThat;
 
 import java.math.BigDecimal;
 import java.util.*;
@@ -73,6 +73,26 @@ public class TestPriceService {
         assertEquals(new BigDecimal("80.00"), price);
     }
 
+    // Overlapping rules: the first added wins, also beyond one year to departure
+    @Test
+    public void daysToDepartureFirstMatchWins() {
+        PriceService engine = new PriceService();
+        engine.addDaysToDepartureRule(10, 20, new BigDecimal("1.10"));
+        engine.addDaysToDepartureRule(0, 400, new BigDecimal("1.50"));
+        engine.addDaysToDepartureRule(350, 1000, new BigDecimal("0.90"));
+        engine.addDaysToDepartureRule(2000, Integer.MAX_VALUE, new BigDecimal("0.50"));
+
+        Set<PassengersByType> passengers = new HashSet<>();
+        passengers.add(new PassengersByType(ADULT, 1));
+
+        int[] days =         {9,        10,       20,       21,       365,      366,      400,      401,     1000,    1001,     1999,     2000,    Integer.MAX_VALUE};
+        String[] expected = {"150.00", "110.00", "110.00", "150.00", "150.00", "150.00", "150.00", "90.00", "90.00", "100.00", "100.00", "50.00", "50.00"};
+        for(int i = 0; i < days.length; i++) {
+            BigDecimal price = engine.calculatePrice(BASE_PRICE_100, Collections.EMPTY_MAP, days[i], passengers);
+            assertEquals("Days to departure: " + days[i], new BigDecimal(expected[i]), price);
+        }
+    }
+
     @Test
     public void passengerTypeDiscount() {
         PriceService engine = new PriceService();
@@ -178,6 +198,108 @@ public class TestPriceService {
         assertThat(price, equalTo(new BigDecimal("997.45")));
     }
 
+    // FIXED-POINT ENGINE
+
+    // Differential test: the long arithmetic must give the same result as BigDecimal for any input
+    @Test
+    public void fixedPointMatchesBigDecimal() {
+        Random random = new Random(1234);
+        for(int i = 0; i < 200; i++) {
+            PriceService engine = new PriceService();
+            int min = 0;
+            while(random.nextInt(4) != 0) {
+                int max = min + random.nextInt(40);
+                engine.addDaysToDepartureRule(min, max, randomCoefficient(random));
+                min = max + 1;
+            }
+            for(PassengerType type : PassengerType.values()) {
+                if(random.nextBoolean()) { engine.addPassengerTypeRule(type, randomCoefficient(random)); }
+            }
+
+            for(int j = 0; j < 50; j++) {
+                BigDecimal basePrice = BigDecimal.valueOf(random.nextInt(1000000), 2);
+                Map<PassengerType, BigDecimal> fixedPrices = new HashMap<>();
+                List<PassengersByType> passengers = new ArrayList<>();
+                for(PassengerType type : PassengerType.values()) {
+                    if(random.nextInt(4) == 0) { fixedPrices.put(type, BigDecimal.valueOf(random.nextInt(10000), 2)); }
+                    if(random.nextBoolean()) { passengers.add(new PassengersByType(type, random.nextInt(10))); }
+                }
+                int days = random.nextInt(min + 10);
+
+                BigDecimal expected = engine.calculatePrice(basePrice, fixedPrices, days, passengers);
+                long cents = engine.calculatePriceCents(Money.toCents(basePrice), PriceService.fixedPriceCents(fixedPrices), days, passengers);
+                assertEquals(expected, Money.fromCents(cents));
+            }
+        }
+    }
+
+    // Differential test: search contexts must give the same result as calculatePrice, also on cache hits
+    @Test
+    public void pricingContextMatchesCalculatePrice() {
+        Random random = new Random(4321);
+        for(int i = 0; i < 100; i++) {
+            PriceService engine = new PriceService();
+            engine.addDaysToDepartureRule(0, 10, randomCoefficient(random));
+            engine.addDaysToDepartureRule(5, 30, BigDecimal.valueOf(random.nextInt(300000), random.nextInt(7)));
+            engine.addPassengerTypeRule(CHILD, randomCoefficient(random));
+
+            List<PassengersByType> passengers = new ArrayList<>();
+            for(int j = random.nextInt(5); j >= 0; j--) {
+                passengers.add(new PassengersByType(PassengerType.values()[random.nextInt(3)], random.nextInt(4)));
+            }
+            Airline[] airlines = new Airline[3];
+            for(int j = 0; j < airlines.length; j++) {
+                airlines[j] = new Airline("A" + j, "Airline " + j);
+                if(random.nextBoolean()) { airlines[j].setFixedPriceByPassengerType(INFANT, BigDecimal.valueOf(random.nextInt(3000), 2)); }
+            }
+            FixedPriceTable fixedPrices = new FixedPriceTable(airlines);
+            int days = random.nextInt(40);
+
+            PriceService.PricingContext context = engine.createContext(days, passengers);
+            for(int j = 0; j < 30; j++) {
+                int airline = random.nextInt(airlines.length);
+                BigDecimal basePrice = BigDecimal.valueOf(random.nextInt(20) * 1000 + 99, 2);
+                BigDecimal expected = engine.calculatePrice(basePrice, airlines[airline].getFixedPricesByPassengerType(), days, passengers);
+                BigDecimal price = context.price(Money.toCents(basePrice), airline, fixedPrices);
+                assertEquals(expected, price);
+            }
+        }
+    }
+
+    // Half-even rounding of the exact result, including ties
+    @Test
+    public void fixedPointRounding() {
+        PriceService engine = new PriceService();
+        engine.addPassengerTypeRule(CHILD, new BigDecimal("0.5"));
+        long[] noFixedPrices = PriceService.fixedPriceCents(Collections.<PassengerType, BigDecimal>emptyMap());
+
+        List<PassengersByType> passengers = Collections.singletonList(new PassengersByType(CHILD, 1));
+        assertEquals(12L, engine.calculatePriceCents(25L, noFixedPrices, 1, passengers)); // 0.125 -> 0.12
+        assertEquals(18L, engine.calculatePriceCents(35L, noFixedPrices, 1, passengers)); // 0.175 -> 0.18
+        assertEquals(-12L, engine.calculatePriceCents(-25L, noFixedPrices, 1, passengers)); // -0.125 -> -0.12
+    }
+
+    // Coefficients with more decimals than supported, or overflowing amounts, fall back to BigDecimal
+    @Test
+    public void fixedPointFallback() {
+        PriceService engine = new PriceService();
+        engine.addDaysToDepartureRule(0, 10, new BigDecimal("1.00005"));
+        long[] noFixedPrices = PriceService.fixedPriceCents(Collections.<PassengerType, BigDecimal>emptyMap());
+        List<PassengersByType> passengers = Collections.singletonList(new PassengersByType(ADULT, 1));
+        assertEquals(10101L, engine.calculatePriceCents(10100L, noFixedPrices, 1, passengers)); // 101.00505 -> 101.01
+        assertEquals(10000L, engine.calculatePriceCents(10000L, noFixedPrices, 1, passengers)); // 100.005 -> 100.00
+
+        engine = new PriceService();
+        engine.addPassengerTypeRule(ADULT, new BigDecimal("1000"));
+        long basePrice = Long.MAX_VALUE / 100000000L;
+        BigDecimal expected = engine.calculatePrice(Money.fromCents(basePrice), Collections.<PassengerType, BigDecimal>emptyMap(), 1, passengers);
+        assertEquals(Money.toCents(expected), engine.calculatePriceCents(basePrice, noFixedPrices, 1, passengers));
+    }
+
+    private static BigDecimal randomCoefficient(Random random) {
+        return BigDecimal.valueOf(random.nextInt(30000), random.nextInt(5));
+    }
+
     // INVALID INPUTS
 
     @Test
@@ -0,0 +1,150 @@
+package es.bdh.lmassignment;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static es.bdh.lmassignment.PassengerType.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Tests the cache of search results: hits, eviction, expiration and invalidation.
+ */
+public class TestSearchCache {
+
+    private final Database db;
+    private final PriceService priceService;
+    private final SearchService srv;
+    private final AtomicLong now;
+    private final Date today;
+    private final Date departure;
+
+    public TestSearchCache() throws ParseException {
+        db = new Database();
+        db.addAirport("MAD", "Madrid");
+        db.addAirport("BCN", "Barcelona");
+        db.addAirport("LHR", "London");
+        db.addAirline("IB", "Iberia");
+        db.addPassengerTypeFixedPrice("IB", INFANT, new BigDecimal("10.00"));
+        db.addAirline("BA", "British Airways");
+        db.addFlight("MAD", "BCN", "IB1000", new BigDecimal("100.00"));
+        db.addFlight("MAD", "BCN", "BA2000", new BigDecimal("120.00"));
+        db.addFlight("MAD", "LHR", "BA3000", new BigDecimal("200.00"));
+
+        priceService = new PriceService();
+        priceService.addDaysToDepartureRule(0, 30, new BigDecimal("1.5"));
+        priceService.addPassengerTypeRule(CHILD, new BigDecimal("0.5"));
+
+        now = new AtomicLong();
+        srv = new SearchService(db, priceService);
+        srv.setCache(new SearchCache(100, 1, TimeUnit.MINUTES, now::get));
+
+        SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd");
+        today = df.parse("20170101");
+        departure = df.parse("20170110");
+    }
+
+    @Test
+    public void sameSearchesHit() throws ParseException {
+
+        SearchCache cache = srv.getCache();
+        Collection<SearchService.SearchResult> first = srv.search("MAD", "BCN", today, departure,
+                passengers(ADULT, 1, CHILD, 1));
+        assertThat(cache.misses(), equalTo(1L));
+
+        // Passengers in other order or groups, and other dates with the same days to departure
+        SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd");
+        assertThat(srv.search("MAD", "BCN", df.parse("20170201"), df.parse("20170210"),
+                passengers(CHILD, 1, ADULT, 1)), sameInstance(first));
+        List<PassengersByType> split = passengers(ADULT, 1);
+        split.add(new PassengersByType(CHILD, 1));
+        assertThat(srv.search("MAD", "BCN", today, departure, split), sameInstance(first));
+        assertThat(cache.hits(), equalTo(2L));
+
+        // Other searches don't
+        assertThat(srv.search("MAD", "BCN", today, departure, passengers(ADULT, 2)), not(sameInstance(first)));
+        assertThat(srv.search("MAD", "BCN", today, df.parse("20170111"), passengers(ADULT, 1, CHILD, 1)),
+                not(sameInstance(first)));
+        assertThat(cache.misses(), equalTo(3L));
+        assertThat(cache.size(), equalTo(3));
+    }
+
+    @Test
+    public void addedFlightsInvalidateTheirRoute() {
+
+        Collection<SearchService.SearchResult> toBarcelona = srv.search("MAD", "BCN", today, departure, passengers(ADULT, 1));
+        Collection<SearchService.SearchResult> toLondon = srv.search("MAD", "LHR", today, departure, passengers(ADULT, 1));
+
+        db.addFlight("MAD", "BCN", "IB1001", new BigDecimal("90.00"));
+        Collection<SearchService.SearchResult> updated = srv.search("MAD", "BCN", today, departure, passengers(ADULT, 1));
+        assertThat(updated, hasSize(toBarcelona.size() + 1));
+        assertThat(srv.getCache().invalidations(), equalTo(1L));
+        assertThat(srv.search("MAD", "LHR", today, departure, passengers(ADULT, 1)), sameInstance(toLondon));
+
+        // Also new routes
+        assertThat(srv.search("BCN", "LHR", today, departure, passengers(ADULT, 1)), hasSize(0));
+        db.addFlight("BCN", "LHR", "BA4000", new BigDecimal("150.00"));
+        assertThat(srv.search("BCN", "LHR", today, departure, passengers(ADULT, 1)), hasSize(1));
+    }
+
+    @Test
+    public void ruleAndAirlineChangesInvalidateAll() {
+
+        Collection<SearchService.SearchResult> before = srv.search("MAD", "BCN", today, departure, passengers(ADULT, 1));
+        assertThat(before.iterator().next().getPrice(), equalTo(new BigDecimal("150.00")));
+
+        priceService.addPassengerTypeRule(ADULT, new BigDecimal("2"));
+        Collection<SearchService.SearchResult> after = srv.search("MAD", "BCN", today, departure, passengers(ADULT, 1));
+        assertThat(after.iterator().next().getPrice(), equalTo(new BigDecimal("300.00")));
+
+        Collection<SearchService.SearchResult> infants = srv.search("MAD", "BCN", today, departure, passengers(INFANT, 1));
+        db.addPassengerTypeFixedPrice("IB", INFANT, new BigDecimal("5.00"));
+        assertThat(srv.search("MAD", "BCN", today, departure, passengers(INFANT, 1)), not(sameInstance(infants)));
+        assertThat(srv.search("MAD", "BCN", today, departure, passengers(INFANT, 1)).iterator().next().getPrice(),
+                equalTo(new BigDecimal("5.00")));
+    }
+
+    @Test
+    public void entriesExpire() {
+
+        Collection<SearchService.SearchResult> first = srv.search("MAD", "BCN", today, departure, passengers(ADULT, 1));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(59));
+        assertThat(srv.search("MAD", "BCN", today, departure, passengers(ADULT, 1)), sameInstance(first));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertThat(srv.search("MAD", "BCN", today, departure, passengers(ADULT, 1)), not(sameInstance(first)));
+        assertThat(srv.getCache().invalidations(), equalTo(1L));
+    }
+
+    @Test
+    public void leastRecentlyUsedAreEvicted() {
+
+        // Small caches have a single segment, so the evicted entry is known
+        srv.setCache(new SearchCache(2, 1, TimeUnit.MINUTES, now::get));
+        SearchCache cache = srv.getCache();
+        Collection<SearchService.SearchResult> one = srv.search("MAD", "BCN", today, departure, passengers(ADULT, 1));
+        Collection<SearchService.SearchResult> two = srv.search("MAD", "BCN", today, departure, passengers(ADULT, 2));
+        assertThat(srv.search("MAD", "BCN", today, departure, passengers(ADULT, 1)), sameInstance(one));
+        srv.search("MAD", "BCN", today, departure, passengers(ADULT, 3));
+        assertThat(cache.evictions(), equalTo(1L));
+        assertThat(cache.size(), equalTo(2));
+        assertThat(srv.search("MAD", "BCN", today, departure, passengers(ADULT, 1)), sameInstance(one));
+        assertThat(srv.search("MAD", "BCN", today, departure, passengers(ADULT, 2)), not(sameInstance(two)));
+
+        cache.invalidateAll();
+        assertThat(cache.size(), equalTo(0));
+    }
+
+    private static List<PassengersByType> passengers(Object... typesAndNumbers) {
+        List<PassengersByType> passengers = new ArrayList<>();
+        for(int i = 0; i < typesAndNumbers.length; i += 2) {
+            passengers.add(new PassengersByType((PassengerType) typesAndNumbers[i], (Integer) typesAndNumbers[i + 1]));
+        }
+        return passengers;
+    }
+}
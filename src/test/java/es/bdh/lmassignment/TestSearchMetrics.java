@@ -0,0 +1,122 @@
+package es.bdh.lmassignment;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+import static es.bdh.lmassignment.PassengerType.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Tests histograms, the metrics recorded by searches and their JMX reporter.
+ */
+public class TestSearchMetrics {
+
+    @Test
+    public void histogramPercentiles() {
+
+        Histogram histogram = new Histogram();
+        assertThat(histogram.snapshot().getPercentile(99), equalTo(0L));
+        for(int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount(), equalTo(1000L));
+        assertThat(snapshot.getMean(), closeTo(500500, 0.1));
+        assertThat(snapshot.getMax(), equalTo(1000000L));
+        // Values are reported with less than 1/16 of error
+        for(double percentile : new double[] {1, 50, 90, 99, 99.9, 100}) {
+            long exact = (long) Math.ceil(percentile * 10) * 1000L;
+            assertThat(snapshot.getPercentile(percentile), allOf(greaterThanOrEqualTo(exact), lessThanOrEqualTo(exact + exact / 16)));
+        }
+
+        // Each bucket holds the values up to its highest one
+        for(long value : new long[] {0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE}) {
+            int bucket = Histogram.bucket(value);
+            assertThat(Histogram.highestValue(bucket), greaterThanOrEqualTo(value));
+            if(bucket > 0) { assertThat(Histogram.highestValue(bucket - 1), lessThan(value)); }
+        }
+    }
+
+    @Test
+    public void searchesRecordStages() throws ParseException {
+
+        Database db = new Database();
+        db.addAirport("MAD", "Madrid");
+        db.addAirport("BCN", "Barcelona");
+        db.addAirline("IB", "Iberia");
+        db.addPassengerTypeFixedPrice("IB", INFANT, new BigDecimal("10.00"));
+        db.addAirline("BA", "British Airways");
+        db.addFlight("MAD", "BCN", "IB1000", new BigDecimal("100.00"));
+        db.addFlight("MAD", "BCN", "IB1001", new BigDecimal("110.00"));
+        db.addFlight("MAD", "BCN", "BA2000", new BigDecimal("120.00"));
+        SearchService srv = new SearchService(db, new PriceService());
+        SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd");
+        Date today = df.parse("20170101");
+        List<PassengersByType> passengers = new ArrayList<>();
+        passengers.add(new PassengersByType(ADULT, 2));
+        passengers.add(new PassengersByType(INFANT, 1));
+
+        // Disabled, nothing is recorded
+        srv.search("MAD", "BCN", today, today, passengers);
+        SearchMetrics metrics = new SearchMetrics();
+        srv.setMetrics(metrics);
+        srv.search("MAD", "BCN", today, today, passengers);
+        srv.search("MAD", "LHR", today, today, passengers);
+        srv.searchCheapest("MAD", "BCN", today, today, passengers, 1);
+        srv.setMetrics(null);
+        srv.search("MAD", "BCN", today, today, passengers);
+
+        SearchMetrics.Snapshot snapshot = metrics.snapshot();
+        assertThat(snapshot.getSearches(), equalTo(3L));
+        assertThat(snapshot.getLatency(SearchMetrics.Stage.SEARCH).getCount(), equalTo(3L));
+        assertThat(snapshot.getLatency(SearchMetrics.Stage.ROUTE_LOOKUP).getCount(), equalTo(3L));
+        // Also the search of a route without flights, with 0 flights priced
+        assertThat(snapshot.getLatency(SearchMetrics.Stage.PRICING).getCount(), equalTo(3L));
+        assertThat(snapshot.getLatency(SearchMetrics.Stage.RESULT_BUILDING).getCount(), equalTo(3L));
+        assertThat(snapshot.getFlightsPerSearch().getMax(), equalTo(3L));
+        // 3 flights + 0 + at least the cheapest one. Infants of Iberia flights have fixed prices.
+        long flights = snapshot.getFlightsPriced();
+        assertThat(flights, allOf(greaterThanOrEqualTo(4L), lessThanOrEqualTo(6L)));
+        assertThat(snapshot.getFixedPriceHits() + snapshot.getRuleEvaluations(), equalTo(2 * flights));
+        assertThat(snapshot.getFixedPriceHits(), greaterThanOrEqualTo(3L));
+        assertThat(snapshot.getLatency(SearchMetrics.Stage.SEARCH).getMax(),
+                greaterThanOrEqualTo(snapshot.getLatency(SearchMetrics.Stage.ROUTE_LOOKUP).getMax()));
+    }
+
+    @Test
+    public void jmxReporter() throws Exception {
+
+        SearchMetrics metrics = new SearchMetrics();
+        metrics.recordLatency(SearchMetrics.Stage.SEARCH, 5000);
+        metrics.recordPricing(10, 2, 8);
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        JmxMetricsReporter reporter = new JmxMetricsReporter(server, "es.bdh.lmassignment:type=SearchMetrics");
+        reporter.start(metrics);
+
+        ObjectName name = reporter.getName();
+        assertThat((Long) server.getAttribute(name, "Searches"), equalTo(1L));
+        assertThat((Long) server.getAttribute(name, "FlightsPriced"), equalTo(10L));
+        assertThat((Long) server.getAttribute(name, "FixedPriceHits"), equalTo(2L));
+        assertThat((Long) server.getAttribute(name, "RuleEvaluations"), equalTo(8L));
+        TabularData latencies = (TabularData) server.getAttribute(name, "LatencyMicros");
+        assertThat(latencies.get(new Object[] {"search.max"}).get("value"), equalTo((Object) 5.0));
+        assertThat(latencies.get(new Object[] {"search.p999"}).get("value"), equalTo((Object) 5.0));
+        assertThat(latencies.get(new Object[] {"pricing.count"}).get("value"), equalTo((Object) 0.0));
+
+        // Live values
+        metrics.recordLatency(SearchMetrics.Stage.SEARCH, 1000);
+        assertThat((Long) server.getAttribute(name, "Searches"), equalTo(2L));
+
+        reporter.stop();
+        assertThat(server.isRegistered(name), equalTo(false));
+    }
+}
@@ -6,7 +6,12 @@ import org.junit.Test;
 import java.math.BigDecimal;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 import static es.bdh.lmassignment.PassengerType.*;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -235,4 +240,435 @@ public class TestSearchService {
         }
     }
 
+    @Test
+    public void calendarMatchesDailySearches() throws ParseException {
+
+        SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd");
+        Date today = df.parse("20170101");
+        SearchService srv = new SearchService(db, priceService);
+
+        List<PassengersByType> passengers = new LinkedList<>();
+        passengers.add(new PassengersByType(ADULT, 1));
+        passengers.add(new PassengersByType(CHILD, 1));
+        passengers.add(new PassengersByType(INFANT, 1));
+
+        // From 3 days before today, to check past dates too
+        Calendar departure = Calendar.getInstance();
+        departure.setTime(df.parse("20161229"));
+        FareCalendar calendar = srv.searchCalendar("AMS", "FRA", today, departure.getTime(), 60, passengers, true);
+        assertThat(calendar.getDays(), equalTo(60));
+        for(int day = 0; day < calendar.getDays(); day++) {
+            List<SearchService.SearchResult> expected = new ArrayList<>(srv.search("AMS", "FRA", today, departure.getTime(), passengers));
+            List<SearchService.SearchResult> actual = new ArrayList<>(calendar.getResults(day));
+            assertThat(actual, hasSize(expected.size()));
+            BigDecimal minPrice = null;
+            for(int i = 0; i < expected.size(); i++) {
+                assertThat(actual.get(i).getFlightCode(), equalTo(expected.get(i).getFlightCode()));
+                assertThat(actual.get(i).getPrice(), equalTo(expected.get(i).getPrice()));
+                if(minPrice == null || expected.get(i).getPrice().compareTo(minPrice) < 0) { minPrice = expected.get(i).getPrice(); }
+            }
+            assertThat(calendar.getMinPrice(day), equalTo(minPrice));
+            departure.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        assertThat(calendar.getCheapestFlightCode(40), equalTo("LH5909"));
+
+        FareCalendar noFlights = srv.searchCalendar("CDG", "FRA", today, today, 10, passengers, false);
+        assertThat(noFlights.getMinPrice(5), nullValue());
+    }
+
+    @Test
+    public void batchMatchesIndividualSearches() throws ParseException {
+
+        SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd");
+        Date today = df.parse("20170101");
+        SearchService srv = new SearchService(db, priceService);
+
+        List<PassengersByType> adult = new LinkedList<>();
+        adult.add(new PassengersByType(ADULT, 1));
+        List<PassengersByType> family = new LinkedList<>();
+        family.add(new PassengersByType(ADULT, 2));
+        family.add(new PassengersByType(CHILD, 1));
+        family.add(new PassengersByType(INFANT, 1));
+        List<PassengersByType> sameFamily = new LinkedList<>(); // Same passengers grouped in other way
+        sameFamily.add(new PassengersByType(INFANT, 1));
+        sameFamily.add(new PassengersByType(ADULT, 1));
+        sameFamily.add(new PassengersByType(CHILD, 1));
+        sameFamily.add(new PassengersByType(ADULT, 1));
+
+        List<SearchService.SearchQuery> queries = new ArrayList<>();
+        queries.add(new SearchService.SearchQuery("AMS", "FRA", df.parse("20170201"), adult));
+        queries.add(new SearchService.SearchQuery("LHR", "IST", df.parse("20170116"), family));
+        queries.add(new SearchService.SearchQuery("AMS", "FRA", df.parse("20170102"), family));
+        queries.add(new SearchService.SearchQuery("LHR", "IST", df.parse("20170116"), sameFamily));
+        queries.add(new SearchService.SearchQuery("CDG", "FRA", df.parse("20170115"), adult));
+        queries.add(new SearchService.SearchQuery("AMS", "FRA", df.parse("20170201"), adult));
+
+        List<Collection<SearchService.SearchResult>> batch = srv.searchBatch(today, queries);
+        assertThat(batch, hasSize(queries.size()));
+        for(int q = 0; q < queries.size(); q++) {
+            SearchService.SearchQuery query = queries.get(q);
+            List<SearchService.SearchResult> expected = new ArrayList<>(srv.search(query.getOriginCode(), query.getDestCode(),
+                    today, query.getDeparture(), query.getPassengers()));
+            List<SearchService.SearchResult> actual = new ArrayList<>(batch.get(q));
+            assertThat(actual, hasSize(expected.size()));
+            for(int i = 0; i < expected.size(); i++) {
+                assertThat(actual.get(i).getFlightCode(), equalTo(expected.get(i).getFlightCode()));
+                assertThat(actual.get(i).getPrice(), equalTo(expected.get(i).getPrice()));
+            }
+        }
+    }
+
+    @Test
+    public void cheapestMatchesSortedSearch() throws ParseException {
+
+        SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd");
+        Date today = df.parse("20170101");
+        SearchService srv = new SearchService(db, priceService);
+
+        // Many flights with repeated base prices, from airlines with and without fixed prices
+        String[] airlines = {"IB", "BA", "LH", "FR", "VY", "TK", "U2"};
+        db.addAirline("XX", "No fixed prices");
+        Random random = new Random(42);
+        final Map<String, BigDecimal> basePrices = new HashMap<>();
+        for(int i = 0; i < 300; i++) {
+            String flightCode = ((i % 8 == 7) ? "XX" : airlines[random.nextInt(airlines.length)]) + (9000 + i);
+            BigDecimal basePrice = BigDecimal.valueOf(5000 + random.nextInt(100) * 50, 2);
+            db.addFlight("AGP","PMI", flightCode, basePrice);
+            basePrices.put(flightCode, basePrice);
+        }
+
+        List<PassengersByType> family = new LinkedList<>();
+        family.add(new PassengersByType(ADULT, 2));
+        family.add(new PassengersByType(CHILD, 1));
+        family.add(new PassengersByType(INFANT, 1));
+        List<List<PassengersByType>> passengerSets = new ArrayList<>();
+        passengerSets.add(family);
+        passengerSets.add(Collections.singletonList(new PassengersByType(ADULT, 1)));
+        passengerSets.add(Collections.singletonList(new PassengersByType(INFANT, 2))); // Ties of fixed prices
+
+        for(List<PassengersByType> passengers : passengerSets) {
+            for(String departure : new String[] {"20170102", "20170110", "20170301"}) {
+                // Same prices ordered by base price, and then as search returns them
+                List<SearchService.SearchResult> sorted = new ArrayList<>(srv.search("AGP", "PMI", today, df.parse(departure), passengers));
+                Collections.sort(sorted, new Comparator<SearchService.SearchResult>() {
+                    @Override
+                    public int compare(SearchService.SearchResult a, SearchService.SearchResult b) {
+                        int result = a.getPrice().compareTo(b.getPrice());
+                        return (result != 0) ? result : basePrices.get(a.getFlightCode()).compareTo(basePrices.get(b.getFlightCode()));
+                    }
+                });
+                for(int limit : new int[] {1, 10, 300, 500}) {
+                    List<SearchService.SearchResult> cheapest = srv.searchCheapest("AGP", "PMI", today, df.parse(departure), passengers, limit);
+                    assertThat(cheapest, hasSize(Math.min(limit, sorted.size())));
+                    for(int i = 0; i < cheapest.size(); i++) {
+                        assertThat(cheapest.get(i).getFlightCode(), equalTo(sorted.get(i).getFlightCode()));
+                        assertThat(cheapest.get(i).getPrice(), equalTo(sorted.get(i).getPrice()));
+                    }
+                }
+            }
+        }
+
+        assertThat(srv.searchCheapest("CDG", "FRA", today, today, family, 10), hasSize(0));
+    }
+
+    @Test
+    public void connectionsMatchAllPaths() throws ParseException {
+
+        SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd");
+        Date today = df.parse("20170101");
+        Date departure = df.parse("20170110");
+        SearchService srv = new SearchService(db, priceService);
+        String[] airports = {"MAD", "BCN", "LHR", "CDG", "FRA", "IST", "AMS", "FCO", "CPH"};
+        List<PassengersByType> passengers = new LinkedList<>();
+        passengers.add(new PassengersByType(ADULT, 1));
+        passengers.add(new PassengersByType(INFANT, 1));
+
+        // No direct flight, but connections
+        assertThat(srv.searchConnections("CDG", "FRA", today, departure, passengers, 0, null, 10), hasSize(0));
+        List<Itinerary> viaLondon = srv.searchConnections("CDG", "FRA", today, departure, passengers, 1, null, 100);
+        assertThat(viaLondon, hasItem(new HasPropertyWithValue<Itinerary>("airportCodes", equalTo(Arrays.asList("CDG", "LHR", "FRA")))));
+        assertThat(viaLondon.get(0).getStops(), equalTo(1));
+
+        for(String origin : airports) {
+            for(String dest : airports) {
+                if(origin.equals(dest)) { continue; }
+                // Cheapest price of every path without repeated airports, found leg by leg
+                List<List<String>> paths = new ArrayList<>();
+                paths.add(Arrays.asList(origin, dest));
+                for(String firstStop : airports) {
+                    paths.add(Arrays.asList(origin, firstStop, dest));
+                    for(String secondStop : airports) {
+                        paths.add(Arrays.asList(origin, firstStop, secondStop, dest));
+                    }
+                }
+                List<BigDecimal> expected = new ArrayList<>();
+                for(List<String> path : paths) {
+                    if(new HashSet<>(path).size() != path.size()) { continue; }
+                    BigDecimal price = BigDecimal.ZERO;
+                    for(int i = 0; i + 1 < path.size() && price != null; i++) {
+                        List<SearchService.SearchResult> leg = srv.searchCheapest(path.get(i), path.get(i + 1), today, departure, passengers, 1);
+                        price = leg.isEmpty() ? null : price.add(leg.get(0).getPrice());
+                    }
+                    if(price != null) { expected.add(price); }
+                }
+                Collections.sort(expected);
+
+                List<Itinerary> itineraries = srv.searchConnections(origin, dest, today, departure, passengers, 2, null, 1000);
+                assertThat(origin + "-" + dest, itineraries, hasSize(expected.size()));
+                for(int i = 0; i < itineraries.size(); i++) {
+                    Itinerary itinerary = itineraries.get(i);
+                    assertThat(itinerary.getPrice(), equalTo(expected.get(i)));
+                    assertThat(itinerary.getAirportCodes().get(0), equalTo(origin));
+                    assertThat(itinerary.getAirportCodes().get(itinerary.getStops() + 1), equalTo(dest));
+                }
+
+                // Pruned searches return the first ones
+                List<Itinerary> top = srv.searchConnections(origin, dest, today, departure, passengers, 2, null, 3);
+                assertThat(top, hasSize(Math.min(3, expected.size())));
+                for(int i = 0; i < top.size(); i++) {
+                    assertThat(top.get(i).getPrice(), equalTo(expected.get(i)));
+                    assertThat(top.get(i).getAirportCodes(), equalTo(itineraries.get(i).getAirportCodes()));
+                }
+                if(expected.size() > 2) {
+                    List<Itinerary> cheap = srv.searchConnections(origin, dest, today, departure, passengers, 2, expected.get(1), 1000);
+                    assertThat(cheap.size(), greaterThanOrEqualTo(2));
+                    assertThat(cheap.get(cheap.size() - 1).getPrice(), lessThanOrEqualTo(expected.get(1)));
+                }
+            }
+        }
+    }
+
+    // Cheapest destinations are the cheapest flight of each route, pruned or not
+    @Test
+    public void anywhereMatchesCheapestOfEachRoute() throws ParseException {
+
+        SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd");
+        Date today = df.parse("20170101");
+        Date departure = df.parse("20170110");
+        SearchService srv = new SearchService(db, priceService);
+        String[] airports = {"MAD", "BCN", "LHR", "CDG", "FRA", "IST", "AMS", "FCO", "CPH"};
+        List<PassengersByType> passengers = new LinkedList<>();
+        passengers.add(new PassengersByType(ADULT, 2));
+        passengers.add(new PassengersByType(INFANT, 1));
+
+        for(String origin : airports) {
+            List<BigDecimal> expected = new ArrayList<>();
+            for(String dest : airports) {
+                List<SearchService.SearchResult> cheapest = srv.searchCheapest(origin, dest, today, departure, passengers, 1);
+                if(!cheapest.isEmpty()) { expected.add(cheapest.get(0).getPrice()); }
+            }
+            Collections.sort(expected);
+
+            List<Itinerary> destinations = srv.searchAnywhere(origin, today, departure, passengers, 100);
+            assertThat(origin, destinations, hasSize(expected.size()));
+            Set<String> destCodes = new HashSet<>();
+            for(int i = 0; i < destinations.size(); i++) {
+                Itinerary itinerary = destinations.get(i);
+                assertThat(itinerary.getPrice(), equalTo(expected.get(i)));
+                assertThat(itinerary.getStops(), equalTo(0));
+                assertThat(itinerary.getAirportCodes().get(0), equalTo(origin));
+                List<SearchService.SearchResult> cheapest = srv.searchCheapest(origin, itinerary.getAirportCodes().get(1),
+                        today, departure, passengers, 1);
+                assertThat(itinerary.getFlightCodes().get(0), equalTo(cheapest.get(0).getFlightCode()));
+                destCodes.add(itinerary.getAirportCodes().get(1));
+            }
+            assertThat(destCodes, hasSize(destinations.size()));
+
+            List<Itinerary> top = srv.searchAnywhere(origin, today, departure, passengers, 2);
+            assertThat(top, hasSize(Math.min(2, expected.size())));
+            for(int i = 0; i < top.size(); i++) {
+                assertThat(top.get(i).getPrice(), equalTo(expected.get(i)));
+            }
+        }
+        assertThat(srv.searchAnywhere("XXX", today, departure, passengers, 10), hasSize(0));
+        assertThat(srv.searchAnywhere("CPH", today, departure, passengers, 0), hasSize(0));
+    }
+
+    @Test
+    public void shardedMatchesSingleDatabase() throws ParseException {
+
+        SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd");
+        Date today = df.parse("20170101");
+        Date departure = df.parse("20170110");
+        String[] airports = {"MAD", "BCN", "LHR", "CDG", "FRA", "IST", "AMS", "FCO", "CPH"};
+        List<PassengersByType> passengers = new LinkedList<>();
+        passengers.add(new PassengersByType(ADULT, 2));
+        passengers.add(new PassengersByType(INFANT, 1));
+
+        // Same data in three shards
+        Database.Snapshot data = db.snapshot();
+        ShardedDatabase sharded = new ShardedDatabase(3);
+        for(int i = 0; i < data.airlineCount(); i++) {
+            Airline airline = data.getAirline(i);
+            sharded.addAirline(airline.getCode(), airline.getName());
+            for(Map.Entry<PassengerType, BigDecimal> fixed : airline.getFixedPricesByPassengerType().entrySet()) {
+                sharded.addPassengerTypeFixedPrice(airline.getCode(), fixed.getKey(), fixed.getValue());
+            }
+        }
+        for(String origin : airports) {
+            sharded.addAirport(origin, data.airportName(origin));
+        }
+        for(String origin : airports) {
+            for(String dest : airports) {
+                for(Flight flight : db.getFlights(origin, dest)) {
+                    sharded.addFlight(origin, dest, flight.getFlightCode(), flight.getBasePrice());
+                }
+            }
+        }
+
+        SearchService srv = new SearchService(db, priceService);
+        SearchService shardedSrv = new SearchService(sharded, priceService);
+        List<SearchService.SearchQuery> queries = new ArrayList<>();
+        for(String origin : airports) {
+            for(String dest : airports) {
+                assertThat(describe(shardedSrv.search(origin, dest, today, departure, passengers)),
+                        equalTo(describe(srv.search(origin, dest, today, departure, passengers))));
+                assertThat(describe(shardedSrv.searchCheapest(origin, dest, today, departure, passengers, 3)),
+                        equalTo(describe(srv.searchCheapest(origin, dest, today, departure, passengers, 3))));
+                queries.add(new SearchService.SearchQuery(origin, dest, departure, passengers));
+
+                // Same prices, itineraries with the same price may be found in other order
+                List<Itinerary> expected = srv.searchConnections(origin, dest, today, departure, passengers, 2, null, 1000);
+                List<Itinerary> actual = shardedSrv.searchConnections(origin, dest, today, departure, passengers, 2, null, 1000);
+                assertThat(actual, hasSize(expected.size()));
+                Set<String> expectedItineraries = new HashSet<>();
+                Set<String> actualItineraries = new HashSet<>();
+                for(int i = 0; i < expected.size(); i++) {
+                    assertThat(actual.get(i).getPrice(), equalTo(expected.get(i).getPrice()));
+                    expectedItineraries.add(expected.get(i).toString());
+                    actualItineraries.add(actual.get(i).toString());
+                }
+                assertThat(actualItineraries, equalTo(expectedItineraries));
+            }
+        }
+        List<Collection<SearchService.SearchResult>> batch = shardedSrv.searchBatch(today, queries);
+        for(int q = 0; q < queries.size(); q++) {
+            SearchService.SearchQuery query = queries.get(q);
+            assertThat(describe(batch.get(q)), equalTo(describe(srv.search(query.getOriginCode(), query.getDestCode(),
+                    today, query.getDeparture(), passengers))));
+        }
+
+        // Changing the flights of an origin only publishes its shard
+        Database.Snapshot[] before = sharded.snapshots();
+        sharded.addFlight("MAD", "FCO", "IB9999", new BigDecimal("99.00"));
+        Database.Snapshot[] after = sharded.snapshots();
+        for(int i = 0; i < sharded.shardCount(); i++) {
+            assertThat(after[i] == before[i], equalTo(i != sharded.shardIndex("MAD")));
+        }
+        assertThat(shardedSrv.searchCheapest("MAD", "FCO", today, departure, passengers, 1).get(0).getFlightCode(),
+                equalTo("IB9999"));
+    }
+
+    @Test
+    public void daysToDepartureDontDependOnTimeOfDay() throws ParseException {
+
+        SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd HH:mm");
+        df.setTimeZone(TimeZone.getTimeZone("Europe/Madrid"));
+        SearchService srv = new SearchService(db, priceService);
+        // Fixed clock, so the current day doesn't change while the test runs
+        long now = df.parse("20170101 23:59").getTime();
+        srv.setZone(ZoneId.of("Europe/Madrid"), () -> now);
+        List<PassengersByType> passengers = new LinkedList<>();
+        passengers.add(new PassengersByType(ADULT, 1));
+
+        // Searching in the afternoon, 3 days to departure (1.20) although there are less than 72 hours
+        Collection<SearchService.SearchResult> afternoon = srv.search("AMS", "FRA", df.parse("20170101 15:00"),
+                df.parse("20170104 10:00"), passengers);
+        assertThat(afternoon, hasItem(allOf(
+                new HasPropertyWithValue<SearchService.SearchResult>("flightCode", is("TK2372")),
+                new HasPropertyWithValue<SearchService.SearchResult>("price", is(new BigDecimal("236.40")))
+        )));
+
+        // Same with epoch days, 31 days to departure (0.80)
+        long departure = LocalDate.of(2017, 1, 1).plusDays(31).toEpochDay();
+        assertThat(srv.search("AMS", "FRA", departure, passengers), hasItem(allOf(
+                new HasPropertyWithValue<SearchService.SearchResult>("flightCode", is("TK2372")),
+                new HasPropertyWithValue<SearchService.SearchResult>("price", is(new BigDecimal("157.60")))
+        )));
+        assertThat(srv.searchCheapest("AMS", "FRA", departure, passengers, 1).get(0).getPrice(), equalTo(new BigDecimal("90.40")));
+    }
+
+    @Test
+    public void asyncMatchesSearch() throws Exception {
+
+        SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd");
+        Date today = df.parse("20170101");
+        Date departure = df.parse("20170110");
+        SearchService srv = new SearchService(new ShardedDatabase(db), priceService, 2, 100);
+        String[] airports = {"MAD", "BCN", "LHR", "CDG", "FRA", "IST", "AMS", "FCO", "CPH"};
+        List<PassengersByType> passengers = new LinkedList<>();
+        passengers.add(new PassengersByType(ADULT, 1));
+        passengers.add(new PassengersByType(CHILD, 1));
+
+        List<CompletableFuture<Collection<SearchService.SearchResult>>> futures = new ArrayList<>();
+        for(String origin : airports) {
+            for(String dest : airports) {
+                futures.add(srv.searchAsync(origin, dest, today, departure, passengers));
+            }
+        }
+        int f = 0;
+        for(String origin : airports) {
+            for(String dest : airports) {
+                assertThat(describe(futures.get(f++).get(10, TimeUnit.SECONDS)),
+                        equalTo(describe(srv.search(origin, dest, today, departure, passengers))));
+            }
+        }
+    }
+
+    // Parallel pricing gives the same prices in the same order, and counts all the flights priced
+    @Test
+    public void parallelMatchesSequential() throws ParseException {
+
+        SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd");
+        Date today = df.parse("20170101");
+        Date departure = df.parse("20170110");
+        Database big = new Database();
+        String[] airlines = {"IB", "BA", "LH", "FR", "VY", "TK", "U2"};
+        for(int a = 0; a < airlines.length; a++) {
+            big.addAirline(airlines[a], "Airline " + a);
+            if(a % 2 == 0) { big.addPassengerTypeFixedPrice(airlines[a], INFANT, new BigDecimal(10 + a)); }
+        }
+        Random random = new Random(42);
+        try(Database.Batch batch = big.batch()) {
+            for(int i = 0; i < 1000; i++) {
+                String airline = airlines[random.nextInt(airlines.length)];
+                batch.addFlight("MAD", "BCN", airline + i, BigDecimal.valueOf(5000 + random.nextInt(20000), 2));
+                batch.addFlight("MAD", "LHR", airline + (1000 + i), BigDecimal.valueOf(5000 + random.nextInt(20000), 2));
+            }
+            batch.commit();
+        }
+        List<PassengersByType> family = Arrays.asList(new PassengersByType(ADULT, 2),
+                new PassengersByType(CHILD, 1), new PassengersByType(INFANT, 1));
+
+        SearchService sequential = new SearchService(big, priceService);
+        SearchService parallel = new SearchService(big, priceService);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            parallel.setParallelPricing(pool, 16);
+            parallel.setMetrics(new SearchMetrics());
+            assertThat(describe(parallel.search("MAD", "BCN", today, departure, family)),
+                    equalTo(describe(sequential.search("MAD", "BCN", today, departure, family))));
+            assertThat(parallel.getMetrics().snapshot().getFlightsPriced(), equalTo(1000L));
+
+            List<SearchService.SearchQuery> queries = new ArrayList<>();
+            queries.add(new SearchService.SearchQuery("MAD", "BCN", departure, family));
+            queries.add(new SearchService.SearchQuery("MAD", "LHR", df.parse("20170201"), family));
+            queries.add(new SearchService.SearchQuery("MAD", "BCN", df.parse("20170301"), family.subList(0, 1)));
+            List<Collection<SearchService.SearchResult>> parallelResults = parallel.searchBatch(today, queries);
+            List<Collection<SearchService.SearchResult>> sequentialResults = sequential.searchBatch(today, queries);
+            for(int q = 0; q < queries.size(); q++) {
+                assertThat(describe(parallelResults.get(q)), equalTo(describe(sequentialResults.get(q))));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static List<String> describe(Collection<SearchService.SearchResult> results) {
+        List<String> described = new ArrayList<>();
+        for(SearchService.SearchResult result : results) {
+            described.add(result.getFlightCode() + " " + result.getPrice());
+        }
+        return described;
+    }
 }